@@ -0,0 +1,490 @@
+/* AdaptiveImage.java */
+
+/**
+ *  The AdaptiveImage class holds an image in whichever representation takes
+ *  the least memory for its content.  A RunLengthEncoding spends a Run node
+ *  and an RGB object on every run, about RUN_BYTES bytes, while a packed
+ *  array spends PIXEL_BYTES bytes on every pixel; a flat image is therefore
+ *  much smaller run-length encoded, and a noisy photo, with about one run
+ *  per pixel, is much smaller packed.
+ *
+ *  The representation is chosen by counting the runs of the image:
+ *
+ *    RUN_LENGTH  the whole image is one RunLengthEncoding, if its runs take
+ *                less memory than the packed pixels.
+ *    TILED       the image is split into TILE_SIZE x TILE_SIZE tiles, each
+ *                of which is run-length encoded or packed on its own, if
+ *                some but not all tiles are smaller run-length encoded.
+ *    PACKED      the whole image is one array of packed pixels otherwise.
+ *
+ *  The same choice is made again for the image or the tile being written
+ *  whenever a call to setPixel() makes its run-length encoding larger than
+ *  its packed pixels.
+ */
+
+public class AdaptiveImage {
+
+	// Estimated bytes taken by one run of a RunLengthEncoding: a Run node
+	// with its header, two references, an int and a reference, plus an RGB
+	// object with its header and three shorts.
+	public static final int RUN_BYTES = 56;
+	// Bytes taken by one packed pixel.
+	public static final int PIXEL_BYTES = 4;
+	// Width and height of a tile of the TILED representation.
+	public static final int TILE_SIZE = 64;
+
+	private int width, height;
+	private Representation representation;
+	// The whole image, in the RUN_LENGTH representation.
+	private RunLengthEncoding rle;
+	// The whole image, in the PACKED representation, in row-major order.
+	private int [] pixels;
+	// The tiles, in the TILED representation, in row-major order of tiles.
+	// Exactly one of runTiles[t] and packedTiles[t] is not null.
+	private RunLengthEncoding [] runTiles;
+	private int [][] packedTiles;
+	private int tilesAcross;
+
+
+  /**
+   *  The Representation enumeration lists the representations an
+   *  AdaptiveImage may choose.
+   */
+  public enum Representation { RUN_LENGTH, TILED, PACKED }
+
+  /**
+   * AdaptiveImage() (with one parameter) constructs an AdaptiveImage of the
+   * specified PixImage.
+   *
+   * @param image the image to hold.
+   */
+  public AdaptiveImage(PixImage image) {
+	  this(image.getWidth(), image.getHeight(), image.toPackedArray());
+  }
+
+  /**
+   * AdaptiveImage() (with three parameters) constructs an AdaptiveImage of
+   * packed RGB values in row-major order.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param pixels the packed RGB values of the image, as by RGB.pack().  The
+   * array is owned by the AdaptiveImage afterwards.
+   */
+  public AdaptiveImage(int width, int height, int[] pixels) {
+	  this.width = width;
+	  this.height = height;
+	  adapt(pixels);
+  }
+
+  /**
+   * countRuns() returns the number of runs in the specified rectangle of
+   * packed pixels, taken in row-major order; an empty rectangle has none.
+   */
+  private static int countRuns(int[] pixels, int width, int x0, int y0, int w, int h) {
+	  if(w == 0 || h == 0)
+		  return 0;
+	  int runs = 1;
+	  int previous = pixels[y0*width + x0];
+	  for(int y=y0; y<y0+h; y++){
+		  int row = y*width;
+		  for(int x=x0; x<x0+w; x++){
+			  int p = pixels[row + x];
+			  if(p != previous){
+				  runs++;
+				  previous = p;
+			  }
+		  }
+	  }
+	  return runs;
+  }
+
+  /**
+   * prefersRuns() returns true if the specified number of runs takes less
+   * memory than the specified number of packed pixels.
+   */
+  private static boolean prefersRuns(long runs, long pixels) {
+	  return runs*RUN_BYTES < pixels*PIXEL_BYTES;
+  }
+
+  /**
+   * encode() returns the run-length encoding of the specified rectangle of
+   * packed pixels.
+   */
+  private static RunLengthEncoding encode(int[] pixels, int width,
+		  int x0, int y0, int w, int h, int runs) {
+	  int [] red = new int[runs];
+	  int [] green = new int[runs];
+	  int [] blue = new int[runs];
+	  int [] lengths = new int[runs];
+	  int n = -1;
+	  int previous = 0;
+	  for(int y=y0; y<y0+h; y++){
+		  int row = y*width;
+		  for(int x=x0; x<x0+w; x++){
+			  int p = pixels[row + x];
+			  if(n < 0 || p != previous){
+				  n++;
+				  red[n] = (p >> 16) & 0xFF;
+				  green[n] = (p >> 8) & 0xFF;
+				  blue[n] = p & 0xFF;
+				  previous = p;
+			  }
+			  lengths[n]++;
+		  }
+	  }
+	  return new RunLengthEncoding(w, h, red, green, blue, lengths);
+  }
+
+  /**
+   * adapt() chooses the representation of the specified packed pixels and
+   * stores them in it.
+   */
+  private void adapt(int[] packed) {
+
+	  rle = null;
+	  pixels = null;
+	  runTiles = null;
+	  packedTiles = null;
+
+	  long total = (long) width*height;
+	  int runs = countRuns(packed, width, 0, 0, width, height);
+	  if(prefersRuns(runs, total)){
+		  representation = Representation.RUN_LENGTH;
+		  rle = encode(packed, width, 0, 0, width, height, runs);
+		  return;
+	  }
+
+	  // Decide tile by tile.
+	  tilesAcross = (width + TILE_SIZE - 1)/TILE_SIZE;
+	  int tilesDown = (height + TILE_SIZE - 1)/TILE_SIZE;
+	  RunLengthEncoding [] candidates = new RunLengthEncoding[tilesAcross*tilesDown];
+	  boolean any = false;
+	  for(int t=0; t<candidates.length; t++){
+		  int x0 = (t % tilesAcross)*TILE_SIZE;
+		  int y0 = (t / tilesAcross)*TILE_SIZE;
+		  int w = Math.min(TILE_SIZE, width - x0);
+		  int h = Math.min(TILE_SIZE, height - y0);
+		  int tileRuns = countRuns(packed, width, x0, y0, w, h);
+		  if(prefersRuns(tileRuns, (long) w*h)){
+			  candidates[t] = encode(packed, width, x0, y0, w, h, tileRuns);
+			  any = true;
+		  }
+	  }
+	  if(!any){
+		  representation = Representation.PACKED;
+		  pixels = packed;
+		  return;
+	  }
+
+	  representation = Representation.TILED;
+	  runTiles = candidates;
+	  packedTiles = new int[candidates.length][];
+	  for(int t=0; t<candidates.length; t++){
+		  if(candidates[t] == null)
+			  packedTiles[t] = copyTile(packed, t);
+	  }
+  }
+
+  /**
+   * copyTile() returns the packed pixels of the specified tile in row-major
+   * order.
+   */
+  private int[] copyTile(int[] packed, int t) {
+	  int x0 = (t % tilesAcross)*TILE_SIZE;
+	  int y0 = (t / tilesAcross)*TILE_SIZE;
+	  int w = Math.min(TILE_SIZE, width - x0);
+	  int h = Math.min(TILE_SIZE, height - y0);
+	  int [] tile = new int[w*h];
+	  for(int y=0; y<h; y++)
+		  System.arraycopy(packed, (y0 + y)*width + x0, tile, y*w, w);
+	  return tile;
+  }
+
+  /**
+   * getWidth() returns the width of the image.
+   *
+   * @return the width of the image.
+   */
+  public int getWidth() {
+	  return width;
+  }
+
+  /**
+   * getHeight() returns the height of the image.
+   *
+   * @return the height of the image.
+   */
+  public int getHeight() {
+	  return height;
+  }
+
+  /**
+   * getRepresentation() returns the representation currently chosen.
+   *
+   * @return the representation currently chosen.
+   */
+  public Representation getRepresentation() {
+	  return representation;
+  }
+
+  /**
+   * getPacked() returns the packed RGB value, as by RGB.pack(), of the pixel
+   * at coordinate (x, y).
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the packed RGB value 0xRRGGBB of the pixel at coordinate (x, y).
+   */
+  public int getPacked(int x, int y) {
+	  switch(representation){
+	  case RUN_LENGTH:
+		  return rle.getPacked(x, y);
+	  case PACKED:
+		  return pixels[y*width + x];
+	  default:
+		  int t = (y/TILE_SIZE)*tilesAcross + x/TILE_SIZE;
+		  int tx = x % TILE_SIZE;
+		  int ty = y % TILE_SIZE;
+		  if(runTiles[t] != null)
+			  return runTiles[t].getPacked(tx, ty);
+		  return packedTiles[t][ty*tileWidth(t) + tx];
+	  }
+  }
+
+  /**
+   * getRed() returns the red intensity of the pixel at coordinate (x, y).
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the red intensity of the pixel at coordinate (x, y).
+   */
+  public short getRed(int x, int y) {
+	  return (short) ((getPacked(x, y) >> 16) & 0xFF);
+  }
+
+  /**
+   * getGreen() returns the green intensity of the pixel at coordinate (x, y).
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the green intensity of the pixel at coordinate (x, y).
+   */
+  public short getGreen(int x, int y) {
+	  return (short) ((getPacked(x, y) >> 8) & 0xFF);
+  }
+
+  /**
+   * getBlue() returns the blue intensity of the pixel at coordinate (x, y).
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the blue intensity of the pixel at coordinate (x, y).
+   */
+  public short getBlue(int x, int y) {
+	  return (short) (getPacked(x, y) & 0xFF);
+  }
+
+  /**
+   * setPixel() sets the pixel at coordinate (x, y) to specified red, green,
+   * and blue intensities.
+   *
+   * If any of the three color intensities is NOT in the range 0...255, then
+   * this method does NOT change any of the pixel intensities.
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @param red the new red intensity for the pixel at coordinate (x, y).
+   * @param green the new green intensity for the pixel at coordinate (x, y).
+   * @param blue the new blue intensity for the pixel at coordinate (x, y).
+   */
+  public void setPixel(int x, int y, short red, short green, short blue) {
+	  if ((red<0 || red>255) || (green<0 || green>255) || (blue<0 || blue>255))
+		  return;
+
+	  switch(representation){
+	  case RUN_LENGTH:
+		  rle.setPixel(x, y, red, green, blue);
+		  // Fall back to another representation once the runs outgrow
+		  // the packed pixels.
+		  if(!prefersRuns(rle.runCount(), (long) width*height))
+			  adapt(toPackedArray());
+		  return;
+	  case PACKED:
+		  pixels[y*width + x] = (red << 16) | (green << 8) | blue;
+		  return;
+	  default:
+		  int t = (y/TILE_SIZE)*tilesAcross + x/TILE_SIZE;
+		  int tx = x % TILE_SIZE;
+		  int ty = y % TILE_SIZE;
+		  if(runTiles[t] != null){
+			  RunLengthEncoding tile = runTiles[t];
+			  tile.setPixel(tx, ty, red, green, blue);
+			  if(!prefersRuns(tile.runCount(), (long) tile.getWidth()*tile.getHeight())){
+				  packedTiles[t] = tile.toPackedArray();
+				  runTiles[t] = null;
+			  }
+		  }
+		  else
+			  packedTiles[t][ty*tileWidth(t) + tx] = (red << 16) | (green << 8) | blue;
+	  }
+  }
+
+  /**
+   * tileWidth() returns the width of the specified tile; the tiles of the
+   * last column are narrower if TILE_SIZE does not divide the width.
+   */
+  private int tileWidth(int t) {
+	  return Math.min(TILE_SIZE, width - (t % tilesAcross)*TILE_SIZE);
+  }
+
+  /**
+   * toPackedArray() returns the pixels of the image packed as by
+   * RGB.pack(), in row-major order.
+   *
+   * @return a new array of width*height packed RGB values.
+   */
+  public int[] toPackedArray() {
+	  if(representation == Representation.PACKED)
+		  return pixels.clone();
+	  if(representation == Representation.RUN_LENGTH)
+		  return rle.toPackedArray();
+
+	  int [] result = new int[width*height];
+	  for(int t=0; t<runTiles.length; t++){
+		  int x0 = (t % tilesAcross)*TILE_SIZE;
+		  int y0 = (t / tilesAcross)*TILE_SIZE;
+		  int w = tileWidth(t);
+		  int [] tile = runTiles[t] != null ? runTiles[t].toPackedArray() : packedTiles[t];
+		  for(int y=0; y<tile.length/w; y++)
+			  System.arraycopy(tile, y*w, result, (y0 + y)*width + x0, w);
+	  }
+	  return result;
+  }
+
+  /**
+   * toPixImage() returns a PixImage holding the pixels of the image.
+   *
+   * @return a new PixImage holding the pixels of the image.
+   */
+  public PixImage toPixImage() {
+	  if(representation == Representation.RUN_LENGTH)
+		  return rle.toPixImage();
+	  return PixImage.fromPackedArray(width, height, toPackedArray());
+  }
+
+  /**
+   * estimatedBytes() returns an estimate of the memory taken by the pixel
+   * data of the image in its current representation.
+   *
+   * @return the estimated number of bytes taken by the pixel data.
+   */
+  public long estimatedBytes() {
+	  switch(representation){
+	  case RUN_LENGTH:
+		  return (long) rle.runCount()*RUN_BYTES;
+	  case PACKED:
+		  return (long) pixels.length*PIXEL_BYTES;
+	  default:
+		  long bytes = 0;
+		  for(int t=0; t<runTiles.length; t++)
+			  bytes += runTiles[t] != null ? (long) runTiles[t].runCount()*RUN_BYTES
+					  : (long) packedTiles[t].length*PIXEL_BYTES;
+		  return bytes;
+	  }
+  }
+
+  /**
+   * toString() returns a String representation of this AdaptiveImage in
+   * the format (width, height, representation, estimated bytes).
+   *
+   * @return a String representation of this AdaptiveImage.
+   */
+  public String toString() {
+	  return "(" + width + "," + height + "," + representation + "," + estimatedBytes() + ")";
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() checks the representation chosen for a flat, a noisy and a
+   * half-flat image, and that each one reads back its pixels.
+   */
+  public static void main(String[] args) {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 150;
+	  int height = 100;
+
+	  PixImage flat = new PixImage(width, height);
+	  for(int x=20; x<40; x++)
+		  flat.setPixel(x, 50, (short) 200, (short) 10, (short) 10);
+	  PixImage noisy = new PixImage(width, height);
+	  PixImage half = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++){
+			  noisy.setPacked(x, y, random.nextInt(1 << 24));
+			  if(x >= 64)
+				  half.setPacked(x, y, random.nextInt(1 << 24));
+		  }
+
+	  System.out.println("Testing a flat image.");
+	  AdaptiveImage a = new AdaptiveImage(flat);
+	  doTest(a.getRepresentation() == Representation.RUN_LENGTH &&
+			  a.toPixImage().equals(flat) && a.getRed(25, 50) == 200,
+			  "Incorrect flat image: " + a);
+
+	  System.out.println("Testing a noisy image.");
+	  AdaptiveImage b = new AdaptiveImage(noisy);
+	  doTest(b.getRepresentation() == Representation.PACKED &&
+			  b.toPixImage().equals(noisy) && b.getPacked(7, 9) == noisy.getPacked(7, 9),
+			  "Incorrect noisy image: " + b);
+
+	  System.out.println("Testing a half-flat image.");
+	  AdaptiveImage c = new AdaptiveImage(half);
+	  doTest(c.getRepresentation() == Representation.TILED &&
+			  c.toPixImage().equals(half) && c.getPacked(100, 70) == half.getPacked(100, 70) &&
+			  c.estimatedBytes() < (long) width*height*PIXEL_BYTES,
+			  "Incorrect half-flat image: " + c);
+
+	  System.out.println("Testing setPixel() on each representation.");
+	  for(int i=0; i<300; i++){
+		  int x = random.nextInt(width);
+		  int y = random.nextInt(height);
+		  short v = (short) random.nextInt(256);
+		  a.setPixel(x, y, v, (short) 1, (short) 2);
+		  b.setPixel(x, y, v, (short) 1, (short) 2);
+		  c.setPixel(x, y, v, (short) 1, (short) 2);
+		  flat.setPixel(x, y, v, (short) 1, (short) 2);
+		  noisy.setPixel(x, y, v, (short) 1, (short) 2);
+		  half.setPixel(x, y, v, (short) 1, (short) 2);
+	  }
+	  doTest(a.toPixImage().equals(flat) && b.toPixImage().equals(noisy) &&
+			  c.toPixImage().equals(half), "Incorrect setPixel(): " + a + b + c);
+
+	  System.out.println("Testing an empty image.");
+	  AdaptiveImage empty = new AdaptiveImage(new PixImage(0, 0));
+	  doTest(empty.getWidth() == 0 && empty.toPackedArray().length == 0 &&
+			  empty.toPixImage().equals(new PixImage(0, 0)),
+			  "Incorrect empty image: " + empty);
+  }
+}
@@ -0,0 +1,90 @@
+/* BufferPool.java */
+
+/**
+ *  The BufferPool class keeps released buffers for reuse, so that a loop
+ *  processing many images of the same size allocates its buffers once
+ *  rather than once per image.  Buffers are pooled by a key, usually their
+ *  size:  acquire() returns a released buffer of the key if there is one,
+ *  and allocates a new one otherwise.
+ *
+ *  The pool holds at most a fixed number of idle buffers per key; a buffer
+ *  released beyond that is dropped for the garbage collector.  The pool may
+ *  be used by several threads at once.
+ *
+ *  @param <T> the type of the buffers.
+ */
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+class BufferPool<T> {
+
+	private final LongFunction<T> allocator;
+	private final int maxIdle;
+	// The idle buffers, by key.
+	private final Map<Long, ArrayDeque<T>> idle = new HashMap<>();
+	private long allocations;
+
+
+  /**
+   * BufferPool() constructs an empty pool that allocates buffers with the
+   * specified function of their key and keeps up to the specified number of
+   * idle buffers per key.
+   *
+   * @param allocator the function allocating a buffer of a key.
+   * @param maxIdle the largest number of idle buffers kept per key.
+   */
+  BufferPool(LongFunction<T> allocator, int maxIdle) {
+	  this.allocator = allocator;
+	  this.maxIdle = maxIdle;
+  }
+
+  /**
+   * acquire() returns an idle buffer of the specified key, or a newly
+   * allocated one if there is none.  Its contents are unspecified.
+   *
+   * @param key the key of the buffer.
+   * @return a buffer of the key.
+   */
+  T acquire(long key) {
+	  synchronized(this){
+		  ArrayDeque<T> buffers = idle.get(key);
+		  if(buffers != null && !buffers.isEmpty())
+			  return buffers.pop();
+		  allocations++;
+	  }
+	  // Allocated outside the lock, since a large buffer takes a while.
+	  return allocator.apply(key);
+  }
+
+  /**
+   * release() returns the specified buffer of the specified key to the pool.
+   * The caller must not use it afterwards.
+   *
+   * @param key the key of the buffer.
+   * @param buffer the buffer.
+   */
+  synchronized void release(long key, T buffer) {
+	  ArrayDeque<T> buffers = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+	  if(buffers.size() < maxIdle)
+		  buffers.push(buffer);
+  }
+
+  /**
+   * getAllocations() returns the number of buffers the pool has allocated.
+   *
+   * @return the number of allocations.
+   */
+  synchronized long getAllocations() {
+	  return allocations;
+  }
+
+  /**
+   * clear() drops every idle buffer.
+   */
+  synchronized void clear() {
+	  idle.clear();
+  }
+}
@@ -0,0 +1,268 @@
+/* CannyEdges.java */
+
+/**
+ *  The CannyEdges class finds the edges of an image with the Canny
+ *  detector, whose edges, unlike the energies of PixImage.sobelEdges(), are
+ *  one pixel thin and either present or not.  It runs four stages:
+ *
+ *  1.  The Sobel gradients of each color are computed as sobelEdges()
+ *      computes them, into a STRONGEST GradientField.  The strength of a
+ *      pixel is the square root of its energy, the sum of the squares of the
+ *      six gradients; its direction is that of the color with the strongest
+ *      gradient, so that an edge between two colors of equal brightness
+ *      keeps its direction.
+ *  2.  Non-maximum suppression keeps only the pixels at least as strong as
+ *      both neighbors along their direction, rounded to a multiple of 45
+ *      degrees, which thins each edge to a single pixel.
+ *  3.  Double thresholding marks the remaining pixels as strong, at or
+ *      above the high threshold, or weak, at or above the low one.
+ *  4.  Hysteresis keeps the strong pixels and the weak pixels connected to
+ *      them through other weak pixels, following the edges with a stack of
+ *      pixel indices allocated once, not with recursion.
+ *
+ *  The first two stages, which do nearly all of the arithmetic, run in
+ *  bands of rows on a ForkJoinPool, and every stage works on primitive
+ *  arrays in row-major order.  The strengths and thresholds are in the
+ *  units of the gradients:  a step of intensity c in all three colors has a
+ *  strength of about 6.9*c.
+ */
+
+import java.util.concurrent.ForkJoinPool;
+
+public class CannyEdges {
+
+	// Smallest number of pixels processed by one task.
+	static final int MIN_BAND = 1 << 14;
+	// The states of a pixel after double thresholding.
+	static final byte NONE = 0, WEAK = 1, STRONG = 2;
+	// tan(22.5 degrees) and tan(67.5 degrees), times 2^16, bounding the sectors
+	// of the directions.
+	private static final long TAN_22 = 27146, TAN_67 = 158217;
+
+  private CannyEdges() {
+  }
+
+  /**
+   * detect() returns an image of the edges of the specified image:  white
+   * on the edges, black elsewhere.
+   *
+   * @param image the image.
+   * @param low the low threshold on the strength of a pixel.
+   * @param high the high threshold on the strength of a pixel.
+   * @return a new black and white PixImage of the edges.
+   * @throws IllegalArgumentException if low is negative or above high.
+   */
+  public static PixImage detect(PixImage image, double low, double high) {
+	  int width = image.getWidth();
+	  int height = image.getHeight();
+	  boolean [] edges = edges(PixelPlanes.of(image), low, high);
+	  PixImage result = new PixImage(width, height);
+	  for(int y=0; y<height; y++)
+		  for(int x=0; x<width; x++)
+			  if(edges[y*width + x])
+				  result.setPacked(x, y, 0xFFFFFF);
+	  return result;
+  }
+
+  /**
+   * edges() returns the edges of the specified planes:  element y*width + x
+   * is true if the pixel at (x, y) is on an edge.
+   *
+   * @param planes the image.
+   * @param low the low threshold on the strength of a pixel.
+   * @param high the high threshold on the strength of a pixel.
+   * @return a new array of width*height flags in row-major order.
+   * @throws IllegalArgumentException if low is negative or above high.
+   */
+  public static boolean[] edges(PixelPlanes planes, double low, double high) {
+	  return edges(planes, low, high, ForkJoinPool.commonPool(), MIN_BAND);
+  }
+
+  static boolean[] edges(PixelPlanes planes, double low, double high, ForkJoinPool pool,
+		  int band) {
+	  if(!(low >= 0 && low <= high))
+		  throw new IllegalArgumentException("Thresholds " + low + " and " + high +
+				  " are not 0 <= low <= high");
+	  int w = planes.width;
+	  int h = planes.height;
+	  GradientField field = GradientField.of(planes, GradientField.Channels.STRONGEST, pool,
+			  band);
+	  int [] gx = field.getGx();
+	  int [] gy = field.getGy();
+	  int [] energy = field.getEnergy();
+
+	  // The thresholds as energies, which are compared without square roots.
+	  long lowEnergy = (long) Math.ceil(low*low);
+	  long highEnergy = (long) Math.ceil(high*high);
+	  byte [] state = new byte[w*h];
+	  ImageScaler.inBands(w, h, pool, band, (first, last) ->
+			  suppress(w, h, first, last, gx, gy, energy, lowEnergy, highEnergy, state));
+
+	  return hysteresis(w, h, state);
+  }
+
+  /**
+   * suppress() sets the state of each pixel of the rows first..last-1:
+   * NONE if a neighbor along its direction is stronger, or if it is below
+   * the low threshold, and otherwise WEAK or STRONG.  Of two equally strong
+   * pixels next to each other along the direction, only the later one is
+   * kept, so that an edge between them stays one pixel thin.
+   */
+  static void suppress(int w, int h, int first, int last, int[] gx, int[] gy, int[] energy,
+		  long lowEnergy, long highEnergy, byte[] state) {
+	  for(int y=first; y<last; y++){
+		  for(int x=0; x<w; x++){
+			  int i = y*w + x;
+			  int e = energy[i];
+			  if(e == 0 || e < lowEnergy){
+				  state[i] = NONE;
+				  continue;
+			  }
+			  long ax = Math.abs((long) gx[i]);
+			  long ay = Math.abs((long) gy[i]);
+			  // The offsets of the neighbors along the direction.
+			  int dx, dy;
+			  if((ay << 16) <= ax*TAN_22){
+				  dx = 1;
+				  dy = 0;
+			  }
+			  else if((ay << 16) >= ax*TAN_67){
+				  dx = 0;
+				  dy = 1;
+			  }
+			  else{
+				  dx = 1;
+				  dy = (gx[i] > 0) == (gy[i] > 0) ? 1 : -1;
+			  }
+			  int before = neighbor(energy, w, h, x - dx, y - dy);
+			  int after = neighbor(energy, w, h, x + dx, y + dy);
+			  if(e < before || e <= after)
+				  state[i] = NONE;
+			  else
+				  state[i] = e >= highEnergy ? STRONG : WEAK;
+		  }
+	  }
+  }
+
+  /**
+   * neighbor() returns the energy at (x, y), or 0 beyond the boundary.
+   */
+  private static int neighbor(int[] energy, int w, int h, int x, int y) {
+	  if(x < 0 || x >= w || y < 0 || y >= h)
+		  return 0;
+	  return energy[y*w + x];
+  }
+
+  /**
+   * hysteresis() returns the flags of the STRONG pixels and of the WEAK
+   * pixels 8-connected to them through other WEAK pixels.  Each pixel is
+   * pushed on the stack at most once, so a stack of width*height indices
+   * never overflows.
+   */
+  static boolean[] hysteresis(int w, int h, byte[] state) {
+	  boolean [] edges = new boolean[w*h];
+	  int [] stack = new int[w*h];
+	  for(int start=0; start<w*h; start++){
+		  if(state[start] != STRONG || edges[start])
+			  continue;
+		  int top = 0;
+		  edges[start] = true;
+		  stack[top++] = start;
+		  while(top > 0){
+			  int i = stack[--top];
+			  int x = i % w;
+			  int y = i/w;
+			  for(int ny=Math.max(0, y - 1); ny<=Math.min(h - 1, y + 1); ny++)
+				  for(int nx=Math.max(0, x - 1); nx<=Math.min(w - 1, x + 1); nx++){
+					  int n = ny*w + nx;
+					  if(state[n] != NONE && !edges[n]){
+						  edges[n] = true;
+						  stack[top++] = n;
+					  }
+				  }
+		  }
+	  }
+	  return edges;
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() detects the edges of steps of strong and weak contrast and of a
+   * square.
+   */
+  public static void main(String[] args) {
+
+	  int width = 60;
+	  int height = 40;
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++){
+			  // A step whose contrast fades from strong at the top to weak.
+			  int gray = x < 20 ? 0 : 255 - 215*y/(height - 1);
+			  if(x >= 40 && x < 50 && y >= 25 && y < 35)
+				  // A square of weak contrast, not connected to a strong edge.
+				  gray -= 60;
+			  image.setPacked(x, y, gray*0x010101);
+		  }
+
+	  System.out.println("Testing a step of fading contrast.");
+	  boolean [] edges = edges(PixelPlanes.of(image), 100, 1000);
+	  boolean thin = true;
+	  for(int y=0; y<height; y++){
+		  int count = 0;
+		  for(int x=0; x<35; x++)
+			  if(edges[y*width + x]){
+				  count++;
+				  thin &= x == 19 || x == 20;
+			  }
+		  thin &= count == 1;
+	  }
+	  doTest(thin, "The step is not a single line.");
+
+	  System.out.println("Testing a weak square away from strong edges.");
+	  boolean dropped = true;
+	  for(int y=20; y<height; y++)
+		  for(int x=35; x<width; x++)
+			  dropped &= !edges[y*width + x];
+	  boolean [] lower = edges(PixelPlanes.of(image), 100, 300);
+	  boolean kept = false;
+	  for(int y=20; y<height; y++)
+		  for(int x=35; x<width; x++)
+			  kept |= lower[y*width + x];
+	  doTest(dropped && kept, "Incorrect hysteresis of the weak square.");
+
+	  System.out.println("Testing bands and the image of the edges.");
+	  java.util.Random random = new java.util.Random(61);
+	  PixelPlanes noisy = PixelPlanes.of(image);
+	  for(int i=0; i<width*height; i++)
+		  noisy.green[i] = Math.max(0, noisy.green[i] - random.nextInt(40));
+	  boolean [] banded = edges(noisy, 150, 600, ForkJoinPool.commonPool(), 100);
+	  boolean [] single = edges(noisy, 150, 600, ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+	  PixImage detected = detect(image, 100, 1000);
+	  boolean white = true;
+	  for(int i=0; i<width*height; i++)
+		  white &= detected.getPacked(i % width, i/width) == (edges[i] ? 0xFFFFFF : 0);
+	  doTest(java.util.Arrays.equals(banded, single) && white,
+			  "Incorrect bands or image of the edges.");
+  }
+}
@@ -0,0 +1,432 @@
+/* Convolution.java */
+
+/**
+ *  The Convolution class applies Kernels to planes of intensities.  Each
+ *  output is the weighted sum of the pixels the kernel covers, divided by
+ *  the divisor of the kernel; the responses are kept as floats by
+ *  convolve(), for gradients and other signed results, and rounded and
+ *  clamped to 0...255 by filter().
+ *
+ *  Pixels the kernel covers beyond the boundary are handled as EdgeMode
+ *  says.  CLAMP treats them as the nearest pixel of the image, as
+ *  PixImage.sobelEdges() does.  NEIGHBOURS leaves them out and, if the
+ *  weights of the kernel do not sum to zero, scales the sum as if the real
+ *  neighbours carried the whole weight of the kernel, as PixImage.boxBlur()
+ *  averages only the neighbours inside the image; a kernel whose weights sum
+ *  to zero, such as an edge detector, then treats the missing pixels as
+ *  zero.
+ *
+ *  A separable kernel is run as a horizontal then a vertical 1-D pass.
+ *  Other 3x3 and 5x5 kernels are run by unrolled loops over the interior of
+ *  the image, with the weights in local variables; any other kernel by a
+ *  general loop.  Only the pixels near the boundary take the slower path
+ *  that checks the edges.
+ */
+
+public class Convolution {
+
+  /**
+   *  The EdgeMode enumeration lists the ways pixels beyond the boundary of
+   *  the image are handled.
+   */
+  public enum EdgeMode { CLAMP, NEIGHBOURS }
+
+  private Convolution() {
+  }
+
+  /**
+   * convolve() convolves one plane of intensities with the specified kernel,
+   * storing the responses, divided by the divisor of the kernel but not
+   * rounded, into dst.
+   *
+   * @param src the intensities in row-major order.
+   * @param width the width of the plane.
+   * @param height the height of the plane.
+   * @param kernel the kernel.
+   * @param mode the handling of pixels beyond the boundary.
+   * @param dst the array receiving the width*height responses.
+   * @throws IllegalArgumentException if an array is shorter than the plane.
+   */
+  public static void convolve(int[] src, int width, int height, Kernel kernel, EdgeMode mode,
+		  float[] dst) {
+	  convolve(src, width, height, kernel, mode, dst, true);
+  }
+
+  static void convolve(int[] src, int width, int height, Kernel kernel, EdgeMode mode,
+		  float[] dst, boolean specialize) {
+	  if(src.length < width*height || dst.length < width*height)
+		  throw new IllegalArgumentException("The planes hold fewer than " + width + "x" +
+				  height + " intensities");
+	  if(specialize && kernel.isSeparable()){
+		  separable(src, width, height, kernel, mode, dst);
+		  return;
+	  }
+	  int kw = kernel.getWidth();
+	  int kh = kernel.getHeight();
+	  if(specialize && kw == 3 && kh == 3)
+		  interior3(src, width, height, kernel, dst);
+	  else if(specialize && kw == 5 && kh == 5)
+		  interior5(src, width, height, kernel, dst);
+	  else
+		  interior(src, width, height, kernel, dst);
+	  border(src, width, height, kernel, mode, dst);
+  }
+
+  /**
+   * filter() returns planes holding the specified planes convolved with the
+   * specified kernel, each response rounded (toward zero for an integer
+   * kernel, to the nearest integer for a float kernel) and clamped to the
+   * range 0...255.  Blurring with Kernel.BOX_3 in NEIGHBOURS mode gives the
+   * same result as one iteration of PixImage.boxBlur().
+   *
+   * @param src the planes to filter.
+   * @param kernel the kernel.
+   * @param mode the handling of pixels beyond the boundary.
+   * @return new planes holding the filtered intensities.
+   */
+  public static PixelPlanes filter(PixelPlanes src, Kernel kernel, EdgeMode mode) {
+	  int w = src.width;
+	  int h = src.height;
+	  PixelPlanes result = new PixelPlanes(w, h);
+	  float [] responses = new float[w*h];
+	  int [][] from = { src.red, src.green, src.blue };
+	  int [][] to = { result.red, result.green, result.blue };
+	  for(int c=0; c<3; c++){
+		  convolve(from[c], w, h, kernel, mode, responses);
+		  int [] plane = to[c];
+		  for(int i=0; i<w*h; i++){
+			  int v = kernel.isInteger() ? (int) responses[i] : Math.round(responses[i]);
+			  plane[i] = v < 0 ? 0 : v > 255 ? 255 : v;
+		  }
+	  }
+	  return result;
+  }
+
+  /**
+   * separable() convolves with a separable kernel as a horizontal pass into
+   * a temporary plane followed by a vertical pass.
+   */
+  private static void separable(int[] src, int w, int h, Kernel kernel, EdgeMode mode,
+		  float[] dst) {
+	  float [] column = kernel.column();
+	  float [] row = kernel.row();
+	  int rx = row.length/2;
+	  int ry = column.length/2;
+	  boolean clamp = mode == EdgeMode.CLAMP;
+	  float [] tmp = new float[w*h];
+
+	  for(int y=0; y<h; y++){
+		  int r = y*w;
+		  for(int x=0; x<w; x++){
+			  float sum = 0;
+			  if(x >= rx && x < w - rx){
+				  int base = r + x - rx;
+				  for(int i=0; i<row.length; i++)
+					  sum += row[i]*src[base + i];
+			  }
+			  else{
+				  for(int i=0; i<row.length; i++){
+					  int xx = x + i - rx;
+					  if(xx < 0 || xx >= w){
+						  if(!clamp)
+							  continue;
+						  xx = xx < 0 ? 0 : w - 1;
+					  }
+					  sum += row[i]*src[r + xx];
+				  }
+			  }
+			  tmp[r + x] = sum;
+		  }
+	  }
+
+	  // The scale of each column and row in NEIGHBOURS mode.
+	  float rowTotal = 0, columnTotal = 0;
+	  for(float v : row)
+		  rowTotal += v;
+	  for(float v : column)
+		  columnTotal += v;
+	  boolean rescale = !clamp && rowTotal*columnTotal != 0;
+	  float [] realRow = rescale ? realWeights(row, w) : null;
+	  float [] realColumn = rescale ? realWeights(column, h) : null;
+
+	  float divisor = kernel.getDivisor();
+	  for(int y=0; y<h; y++){
+		  int r = y*w;
+		  java.util.Arrays.fill(dst, r, r + w, 0);
+		  for(int j=0; j<column.length; j++){
+			  int yy = y + j - ry;
+			  if(yy < 0 || yy >= h){
+				  if(!clamp)
+					  continue;
+				  yy = yy < 0 ? 0 : h - 1;
+			  }
+			  float weight = column[j];
+			  int from = yy*w;
+			  for(int x=0; x<w; x++)
+				  dst[r + x] += weight*tmp[from + x];
+		  }
+		  for(int x=0; x<w; x++){
+			  float norm = divisor;
+			  if(rescale && realRow[x]*realColumn[y] != 0)
+				  norm = divisor*realRow[x]*realColumn[y]/(rowTotal*columnTotal);
+			  dst[r + x] /= norm;
+		  }
+	  }
+  }
+
+  /**
+   * realWeights() returns, for each position along an axis of the specified
+   * length, the sum of the weights of the vector that fall inside the axis.
+   */
+  private static float[] realWeights(float[] vector, int length) {
+	  int radius = vector.length/2;
+	  float [] real = new float[length];
+	  for(int p=0; p<length; p++)
+		  for(int i=0; i<vector.length; i++){
+			  int q = p + i - radius;
+			  if(q >= 0 && q < length)
+				  real[p] += vector[i];
+		  }
+	  return real;
+  }
+
+  /**
+   * interior() convolves the pixels whose whole neighbourhood lies inside
+   * the image, for a kernel of any size.
+   */
+  private static void interior(int[] src, int w, int h, Kernel kernel, float[] dst) {
+	  float [] k = kernel.weights();
+	  int kw = kernel.getWidth();
+	  int kh = kernel.getHeight();
+	  int rx = kw/2;
+	  int ry = kh/2;
+	  float divisor = kernel.getDivisor();
+	  for(int y=ry; y<h-ry; y++){
+		  for(int x=rx; x<w-rx; x++){
+			  float sum = 0;
+			  for(int j=0; j<kh; j++){
+				  int base = (y + j - ry)*w + x - rx;
+				  for(int i=0; i<kw; i++)
+					  sum += k[j*kw + i]*src[base + i];
+			  }
+			  dst[y*w + x] = sum/divisor;
+		  }
+	  }
+  }
+
+  /**
+   * interior3() convolves the interior pixels with a 3x3 kernel, unrolled.
+   */
+  private static void interior3(int[] src, int w, int h, Kernel kernel, float[] dst) {
+	  float [] k = kernel.weights();
+	  float k0 = k[0], k1 = k[1], k2 = k[2];
+	  float k3 = k[3], k4 = k[4], k5 = k[5];
+	  float k6 = k[6], k7 = k[7], k8 = k[8];
+	  float divisor = kernel.getDivisor();
+	  for(int y=1; y<h-1; y++){
+		  for(int x=1; x<w-1; x++){
+			  int i = y*w + x;
+			  int a = i - w;
+			  int c = i + w;
+			  float sum = k0*src[a-1] + k1*src[a] + k2*src[a+1] +
+					  k3*src[i-1] + k4*src[i] + k5*src[i+1] +
+					  k6*src[c-1] + k7*src[c] + k8*src[c+1];
+			  dst[i] = sum/divisor;
+		  }
+	  }
+  }
+
+  /**
+   * interior5() convolves the interior pixels with a 5x5 kernel, unrolled.
+   */
+  private static void interior5(int[] src, int w, int h, Kernel kernel, float[] dst) {
+	  float [] k = kernel.weights();
+	  float k00 = k[0], k01 = k[1], k02 = k[2], k03 = k[3], k04 = k[4];
+	  float k10 = k[5], k11 = k[6], k12 = k[7], k13 = k[8], k14 = k[9];
+	  float k20 = k[10], k21 = k[11], k22 = k[12], k23 = k[13], k24 = k[14];
+	  float k30 = k[15], k31 = k[16], k32 = k[17], k33 = k[18], k34 = k[19];
+	  float k40 = k[20], k41 = k[21], k42 = k[22], k43 = k[23], k44 = k[24];
+	  float divisor = kernel.getDivisor();
+	  for(int y=2; y<h-2; y++){
+		  for(int x=2; x<w-2; x++){
+			  int i = y*w + x;
+			  int a = i - 2*w, b = i - w, d = i + w, e = i + 2*w;
+			  float sum =
+					  k00*src[a-2] + k01*src[a-1] + k02*src[a] + k03*src[a+1] + k04*src[a+2] +
+					  k10*src[b-2] + k11*src[b-1] + k12*src[b] + k13*src[b+1] + k14*src[b+2] +
+					  k20*src[i-2] + k21*src[i-1] + k22*src[i] + k23*src[i+1] + k24*src[i+2] +
+					  k30*src[d-2] + k31*src[d-1] + k32*src[d] + k33*src[d+1] + k34*src[d+2] +
+					  k40*src[e-2] + k41*src[e-1] + k42*src[e] + k43*src[e+1] + k44*src[e+2];
+			  dst[i] = sum/divisor;
+		  }
+	  }
+  }
+
+  /**
+   * border() convolves the pixels whose neighbourhood reaches beyond the
+   * boundary, the ones interior() and its unrolled versions skip.
+   */
+  private static void border(int[] src, int w, int h, Kernel kernel, EdgeMode mode,
+		  float[] dst) {
+	  int rx = kernel.getWidth()/2;
+	  int ry = kernel.getHeight()/2;
+	  boolean interiorColumns = w - rx > rx;
+	  for(int y=0; y<h; y++){
+		  if(y >= ry && y < h - ry && interiorColumns){
+			  for(int x=0; x<rx; x++)
+				  dst[y*w + x] = borderPixel(src, w, h, kernel, mode, x, y);
+			  for(int x=w-rx; x<w; x++)
+				  dst[y*w + x] = borderPixel(src, w, h, kernel, mode, x, y);
+		  }
+		  else
+			  for(int x=0; x<w; x++)
+				  dst[y*w + x] = borderPixel(src, w, h, kernel, mode, x, y);
+	  }
+  }
+
+  /**
+   * borderPixel() returns the response at (x, y), checking every pixel of
+   * the neighbourhood against the boundary.
+   */
+  private static float borderPixel(int[] src, int w, int h, Kernel kernel, EdgeMode mode,
+		  int x, int y) {
+	  float [] k = kernel.weights();
+	  int kw = kernel.getWidth();
+	  int kh = kernel.getHeight();
+	  float sum = 0;
+	  float real = 0;
+	  for(int j=0; j<kh; j++){
+		  int yy = y + j - kh/2;
+		  int cy = yy < 0 ? 0 : yy >= h ? h - 1 : yy;
+		  for(int i=0; i<kw; i++){
+			  int xx = x + i - kw/2;
+			  int cx = xx < 0 ? 0 : xx >= w ? w - 1 : xx;
+			  boolean outside = cx != xx || cy != yy;
+			  if(outside && mode == EdgeMode.NEIGHBOURS)
+				  continue;
+			  sum += k[j*kw + i]*src[cy*w + cx];
+			  if(!outside)
+				  real += k[j*kw + i];
+		  }
+	  }
+	  float norm = kernel.getDivisor();
+	  float total = kernel.getTotal();
+	  if(mode == EdgeMode.NEIGHBOURS && total != 0 && real != 0)
+		  norm = norm*real/total;
+	  return sum/norm;
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * randomImage() returns an image of the specified size with random pixels.
+   */
+  private static PixImage randomImage(java.util.Random random, int width, int height) {
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++)
+			  image.setPacked(x, y, random.nextInt(1 << 24));
+	  return image;
+  }
+
+  /**
+   * main() checks the kernels against the hard-coded filters of PixImage and
+   * the specialized paths against the general one.
+   */
+  public static void main(String[] args) {
+
+	  java.util.Random random = new java.util.Random(61);
+
+	  System.out.println("Testing the box blur and Sobel kernels against PixImage.");
+	  boolean same = true;
+	  int [][] sizes = { { 23, 17 }, { 1, 5 }, { 2, 2 } };
+	  for(int [] size : sizes){
+		  PixImage image = randomImage(random, size[0], size[1]);
+		  PixelPlanes planes = PixelPlanes.of(image);
+		  same &= filter(planes, Kernel.BOX_3, EdgeMode.NEIGHBOURS).toPixImage()
+				  .equals(image.boxBlur(1));
+		  int n = size[0]*size[1];
+		  float [] gx = new float[n];
+		  float [] gy = new float[n];
+		  long [] energy = new long[n];
+		  for(int [] plane : new int[][] { planes.red, planes.green, planes.blue }){
+			  convolve(plane, size[0], size[1], Kernel.SOBEL_X, EdgeMode.CLAMP, gx);
+			  convolve(plane, size[0], size[1], Kernel.SOBEL_Y, EdgeMode.CLAMP, gy);
+			  for(int i=0; i<n; i++)
+				  energy[i] += (long) (gx[i]*gx[i] + gy[i]*gy[i]);
+		  }
+		  PixImage edges = image.sobelEdges();
+		  for(int i=0; i<n; i++)
+			  same &= edges.getRed(i % size[0], i/size[0]) == PixImage.mag2gray(energy[i]);
+	  }
+	  doTest(same, "The kernels differ from boxBlur() and sobelEdges().");
+
+	  System.out.println("Testing the detection of separable kernels.");
+	  Kernel [] separable = { Kernel.BOX_3, Kernel.SOBEL_X, Kernel.SOBEL_Y, Kernel.PREWITT_X,
+			  Kernel.SCHARR_Y, Kernel.box(2), Kernel.gaussian(1.2) };
+	  Kernel [] notSeparable = { Kernel.LAPLACIAN, Kernel.SHARPEN,
+			  Kernel.of(3, 3, 1, 1, 2, 3, 4, 5, 6, 7, 8, 10) };
+	  boolean detected = true;
+	  for(Kernel k : separable)
+		  detected &= k.isSeparable();
+	  for(Kernel k : notSeparable)
+		  detected &= !k.isSeparable();
+	  doTest(detected, "Incorrect detection of separable kernels.");
+
+	  System.out.println("Testing the specialized paths against the general one.");
+	  int [] weights5 = new int[25];
+	  for(int i=0; i<25; i++)
+		  weights5[i] = random.nextInt(11) - 3;
+	  Kernel [] kernels = { Kernel.BOX_3, Kernel.SOBEL_X, Kernel.LAPLACIAN, Kernel.SHARPEN,
+			  Kernel.box(2), Kernel.of(5, 5, 7, weights5), Kernel.gaussian(1.0),
+			  Kernel.of(3, 5, 0.5f, -1, 0.25f, 1, 2, 0, 0, 1, 3, 0.5f, 0.5f, 0.5f, 1, 1, -2) };
+	  int [][] shapes = { { 31, 19 }, { 3, 2 }, { 6, 9 } };
+	  boolean agree = true;
+	  for(int [] shape : shapes){
+		  int [] plane = new int[shape[0]*shape[1]];
+		  for(int i=0; i<plane.length; i++)
+			  plane[i] = random.nextInt(256);
+		  float [] fast = new float[plane.length];
+		  float [] slow = new float[plane.length];
+		  for(Kernel k : kernels)
+			  for(EdgeMode mode : EdgeMode.values()){
+				  convolve(plane, shape[0], shape[1], k, mode, fast, true);
+				  convolve(plane, shape[0], shape[1], k, mode, slow, false);
+				  for(int i=0; i<plane.length; i++)
+					  agree &= k.isInteger() ? fast[i] == slow[i] :
+						  Math.abs(fast[i] - slow[i]) < 1e-3f;
+			  }
+	  }
+	  doTest(agree, "The specialized paths differ from the general one.");
+
+	  System.out.println("Testing sharpening and the Laplacian on a flat image.");
+	  PixelPlanes flat = PixelPlanes.of(new PixImage(8, 6));
+	  java.util.Arrays.fill(flat.green, 100);
+	  PixelPlanes sharpened = filter(flat, Kernel.SHARPEN, EdgeMode.CLAMP);
+	  PixelPlanes laplacian = filter(flat, Kernel.LAPLACIAN, EdgeMode.CLAMP);
+	  PixelPlanes blurred = filter(flat, Kernel.gaussian(0.8), EdgeMode.NEIGHBOURS);
+	  doTest(java.util.Arrays.equals(sharpened.green, flat.green) &&
+			  java.util.Arrays.stream(laplacian.green).allMatch(v -> v == 0) &&
+			  java.util.Arrays.equals(blurred.green, flat.green),
+			  "Filters of a flat image change it.");
+  }
+}
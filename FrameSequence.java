@@ -0,0 +1,336 @@
+/* FrameSequence.java */
+
+/**
+ *  The FrameSequence class run-length encodes a sequence of frames of the
+ *  same size in which most pixels do not change from one frame to the next.
+ *  Every keyframeInterval-th frame, starting with the first, is a keyframe
+ *  stored as a RunLengthEncoding on its own.  Every other frame is stored
+ *  as delta runs against the frame before it:  a skip run covers pixels that
+ *  keep their color, and a changed run covers pixels that take a new, common
+ *  color.  The unchanged stretches are found with Arrays.mismatch(), which
+ *  compares several pixels per step.
+ *
+ *  getFrame() decodes any frame by decoding the keyframe before it and
+ *  applying the deltas in between; frames() decodes the frames one after
+ *  another, applying a single delta per frame.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class FrameSequence {
+
+	// Color of a skip run in the runs of a delta frame; no packed color has
+	// a bit above the lowest 24 set.
+	static final int SKIP = -1;
+
+	private final int width, height, keyframeInterval;
+	// The keyframes, keyframes.get(k) being frame k*keyframeInterval.
+	private final List<RunLengthEncoding> keyframes = new ArrayList<RunLengthEncoding>();
+	// The delta runs of every frame, null for the keyframes.
+	private final List<PackedRuns> deltas = new ArrayList<PackedRuns>();
+	// The pixels of the last frame added.
+	private int [] previous;
+
+
+  /**
+   * FrameSequence() constructs an empty sequence of frames of the specified
+   * width and height.
+   *
+   * @param width the width of the frames.
+   * @param height the height of the frames.
+   * @param keyframeInterval the number of frames from one keyframe to the
+   * next; 1 makes every frame a keyframe.
+   */
+  public FrameSequence(int width, int height, int keyframeInterval) {
+	  this.width = width;
+	  this.height = height;
+	  this.keyframeInterval = Math.max(1, keyframeInterval);
+  }
+
+  /**
+   * addFrame() appends the specified frame to the sequence.
+   *
+   * @param frame the frame to append.
+   * @throws IllegalArgumentException if the frame does not have the width
+   * and height of the sequence.
+   */
+  public void addFrame(PixImage frame) {
+	  if(frame.getWidth() != width || frame.getHeight() != height)
+		  throw new IllegalArgumentException("Frame of " + frame.getWidth() + "x" +
+				  frame.getHeight() + " does not fit a sequence of " + width + "x" + height);
+	  addFrame(frame.toPackedArray());
+  }
+
+  /**
+   * addFrame() appends the frame with the specified packed pixels to the
+   * sequence.
+   *
+   * @param pixels the packed RGB values, as by RGB.pack(), of the frame in
+   * row-major order.  The array is owned by the sequence afterwards.
+   * @throws IllegalArgumentException if the array does not hold
+   * width*height pixels.
+   */
+  public void addFrame(int[] pixels) {
+	  if(pixels.length != width*height)
+		  throw new IllegalArgumentException("Frame of " + pixels.length +
+				  " pixels does not fit a sequence of " + width + "x" + height);
+	  if(deltas.size() % keyframeInterval == 0){
+		  keyframes.add(RunEncoder.encode(width, height, pixels));
+		  deltas.add(null);
+	  }
+	  else
+		  deltas.add(delta(previous, pixels));
+	  previous = pixels;
+  }
+
+  /**
+   * delta() returns the delta runs turning the pixels "from" into the
+   * pixels "to".
+   */
+  static PackedRuns delta(int[] from, int[] to) {
+	  int n = to.length;
+	  PackedRuns runs = new PackedRuns(16);
+	  int i = 0;
+	  while(i < n){
+		  // The unchanged stretch starting at i.
+		  int k = Arrays.mismatch(from, i, n, to, i, n);
+		  if(k < 0){
+			  runs.append(n - i, SKIP);
+			  break;
+		  }
+		  runs.append(k, SKIP);
+		  i += k;
+		  // The changed stretch starting at i, one run per color.
+		  while(i < n && from[i] != to[i]){
+			  int color = to[i];
+			  int start = i;
+			  do{
+				  i++;
+			  } while(i < n && to[i] == color && from[i] != color);
+			  runs.append(i - start, color);
+		  }
+	  }
+	  return runs;
+  }
+
+  /**
+   * apply() applies the specified delta runs to the specified pixels.
+   */
+  static void apply(PackedRuns delta, int[] pixels) {
+	  int position = 0;
+	  for(int r=0; r<delta.count; r++){
+		  int length = delta.lengths[r];
+		  if(delta.colors[r] != SKIP)
+			  Arrays.fill(pixels, position, position + length, delta.colors[r]);
+		  position += length;
+	  }
+  }
+
+  /**
+   * getWidth() returns the width of the frames.
+   *
+   * @return the width of the frames.
+   */
+  public int getWidth() {
+	  return width;
+  }
+
+  /**
+   * getHeight() returns the height of the frames.
+   *
+   * @return the height of the frames.
+   */
+  public int getHeight() {
+	  return height;
+  }
+
+  /**
+   * size() returns the number of frames in the sequence.
+   *
+   * @return the number of frames in the sequence.
+   */
+  public int size() {
+	  return deltas.size();
+  }
+
+  /**
+   * isKeyframe() returns true if the specified frame is a keyframe.
+   *
+   * @param index the index of the frame.
+   * @return true if the frame is stored as a keyframe.
+   */
+  public boolean isKeyframe(int index) {
+	  return index % keyframeInterval == 0;
+  }
+
+  /**
+   * getKeyframe() returns the run-length encoding of the keyframe at or
+   * before the specified frame.
+   *
+   * @param index the index of a frame.
+   * @return the run-length encoding of the keyframe at or before the frame.
+   */
+  public RunLengthEncoding getKeyframe(int index) {
+	  return keyframes.get(index / keyframeInterval);
+  }
+
+  /**
+   * getPackedFrame() returns the packed RGB values of the specified frame
+   * in row-major order.
+   *
+   * @param index the index of the frame.
+   * @return a new array of width*height packed RGB values.
+   */
+  public int[] getPackedFrame(int index) {
+	  if(index < 0 || index >= size())
+		  throw new IndexOutOfBoundsException("Frame " + index + " of " + size());
+	  int key = index - index % keyframeInterval;
+	  int [] pixels = getKeyframe(index).toPackedArray();
+	  for(int i=key+1; i<=index; i++)
+		  apply(deltas.get(i), pixels);
+	  return pixels;
+  }
+
+  /**
+   * getFrame() returns the specified frame.
+   *
+   * @param index the index of the frame.
+   * @return a new PixImage holding the frame.
+   */
+  public PixImage getFrame(int index) {
+	  return PixImage.fromPackedArray(width, height, getPackedFrame(index));
+  }
+
+  /**
+   * frames() returns an iterator over the packed pixels of the frames from
+   * the specified one to the last, decoding each frame from the one before
+   * it.  Every call to next() returns the same array, updated in place.
+   *
+   * @param from the index of the first frame returned.
+   * @return an iterator over the packed pixels of the frames.
+   */
+  public Iterator<int[]> frames(int from) {
+	  return new Iterator<int[]>() {
+		  private int next = from;
+		  private int [] pixels;
+
+		  public boolean hasNext() {
+			  return next < size();
+		  }
+
+		  public int[] next() {
+			  if(!hasNext())
+				  throw new NoSuchElementException();
+			  if(pixels == null)
+				  pixels = getPackedFrame(next);
+			  else if(isKeyframe(next))
+				  RunDecoder.decodeParallel(getKeyframe(next), pixels);
+			  else
+				  apply(deltas.get(next), pixels);
+			  next++;
+			  return pixels;
+		  }
+	  };
+  }
+
+  /**
+   * getRunCount() returns the total number of runs stored, counting the
+   * runs of the keyframes and the skip and changed runs of the other
+   * frames.
+   *
+   * @return the total number of runs stored.
+   */
+  public long getRunCount() {
+	  long runs = 0;
+	  for(RunLengthEncoding key : keyframes)
+		  runs += key.runCount();
+	  for(PackedRuns delta : deltas)
+		  if(delta != null)
+			  runs += delta.count;
+	  return runs;
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() encodes frames of a square moving over a noisy background and
+   * checks random and sequential decoding.
+   */
+  public static void main(String[] args) {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 60;
+	  int height = 40;
+	  int [] background = new int[width*height];
+	  for(int i=0; i<background.length; i++)
+		  background[i] = random.nextInt(1 << 24);
+	  List<int[]> frames = new ArrayList<int[]>();
+	  FrameSequence sequence = new FrameSequence(width, height, 8);
+	  for(int f=0; f<30; f++){
+		  int [] pixels = background.clone();
+		  for(int y=10; y<20; y++)
+			  for(int x=f; x<f+10; x++)
+				  pixels[y*width + x] = 0xFF0000 + (x == f ? f : 0);
+		  frames.add(pixels.clone());
+		  sequence.addFrame(pixels);
+	  }
+
+	  System.out.println("Testing random access to the frames.");
+	  boolean same = true;
+	  for(int f=0; f<30; f++)
+		  same &= Arrays.equals(sequence.getPackedFrame(f), frames.get(f));
+	  doTest(same, "Incorrect random access to the frames.");
+
+	  System.out.println("Testing sequential decoding from frame 5.");
+	  same = true;
+	  Iterator<int[]> it = sequence.frames(5);
+	  for(int f=5; f<30; f++)
+		  same &= Arrays.equals(it.next(), frames.get(f));
+	  doTest(same && !it.hasNext(), "Incorrect sequential decoding.");
+
+	  System.out.println("Testing the size of the delta frames.");
+	  doTest(sequence.getRunCount() < 5L*width*height && sequence.isKeyframe(16) &&
+			  sequence.getFrame(17).equals(PixImage.fromPackedArray(width, height, frames.get(17))),
+			  "Delta frames too large: " + sequence.getRunCount() + " runs");
+
+	  System.out.println("Testing frames of the wrong size.");
+	  int rejected = 0;
+	  try{
+		  sequence.addFrame(new PixImage(width, height + 1));
+	  }
+	  catch(IllegalArgumentException e){
+		  rejected++;
+	  }
+	  try{
+		  sequence.addFrame(new int[width*height - 1]);
+	  }
+	  catch(IllegalArgumentException e){
+		  rejected++;
+	  }
+	  doTest(rejected == 2 && sequence.size() == 30,
+			  "A frame of the wrong size was not rejected.");
+  }
+}
@@ -0,0 +1,228 @@
+/* GaussianBlur.java */
+
+/**
+ *  The GaussianBlur class approximates a Gaussian blur of PixelPlanes by
+ *  three successive box blurs.  By the central limit theorem, repeated box
+ *  blurs converge to a Gaussian; three boxes whose variances add up to the
+ *  variance of the Gaussian are already close, and boxRadii() picks them
+ *  (after Kovesi, "Fast almost-Gaussian filtering").
+ *
+ *  Each box blur is a horizontal then a vertical pass of a sliding window:
+ *  the sum of the window is updated by adding the intensity entering it and
+ *  subtracting the one leaving it, so each pass costs a constant number of
+ *  operations per pixel whatever the radius, and the whole blur costs the
+ *  same for any sigma.  Near the boundary the window averages only the
+ *  pixels inside the image, as PixImage.boxBlur() does, but rounds to the
+ *  nearest integer, so that three passes do not darken the image.  The rows
+ *  are processed in bands on a ForkJoinPool.
+ */
+
+import java.util.concurrent.ForkJoinPool;
+
+public class GaussianBlur {
+
+	// Number of box blurs approximating the Gaussian.
+	static final int PASSES = 3;
+	// Smallest number of pixels processed by one task.
+	static final int MIN_BAND = 1 << 14;
+
+  private GaussianBlur() {
+  }
+
+  /**
+   * boxRadii() returns the radii of the PASSES box blurs approximating a
+   * Gaussian of the specified standard deviation.  The boxes have one of two
+   * consecutive odd sides, the smaller ones first, chosen so that the sum of
+   * their variances is as close as possible to sigma squared.
+   *
+   * @param sigma the standard deviation, in pixels.
+   * @return the radii, each side being 2*radius + 1.
+   */
+  static int[] boxRadii(double sigma) {
+	  double variance = sigma*sigma;
+	  int lower = (int) Math.floor(Math.sqrt(12*variance/PASSES + 1));
+	  if(lower % 2 == 0)
+		  lower--;
+	  int upper = lower + 2;
+	  // The number of boxes of the lower side.
+	  long m = Math.round((12*variance - PASSES*lower*lower - 4*PASSES*lower - 3*PASSES)/
+			  (-4.0*lower - 4));
+	  int [] radii = new int[PASSES];
+	  for(int i=0; i<PASSES; i++)
+		  radii[i] = ((i < m ? lower : upper) - 1)/2;
+	  return radii;
+  }
+
+  /**
+   * blur() returns the specified planes blurred by an approximate Gaussian
+   * of the specified standard deviation.  If sigma is zero or negative, the
+   * specified planes are returned.
+   *
+   * @param src the planes to blur.
+   * @param sigma the standard deviation, in pixels.
+   * @return the blurred planes.
+   */
+  public static PixelPlanes blur(PixelPlanes src, double sigma) {
+	  return blur(src, sigma, ForkJoinPool.commonPool(), MIN_BAND);
+  }
+
+  static PixelPlanes blur(PixelPlanes src, double sigma, ForkJoinPool pool, int band) {
+	  if(!(sigma > 0))
+		  return src;
+	  int w = src.width;
+	  int h = src.height;
+	  PixelPlanes across = new PixelPlanes(w, h);
+	  PixelPlanes result = new PixelPlanes(w, h);
+	  PixelPlanes from = src;
+	  for(int radius : boxRadii(sigma)){
+		  if(radius == 0)
+			  continue;
+		  PixelPlanes in = from;
+		  ImageScaler.inBands(w, h, pool, band, (first, last) -> {
+			  for(int y=first; y<last; y++){
+				  horizontal(in.red, across.red, w, y, radius);
+				  horizontal(in.green, across.green, w, y, radius);
+				  horizontal(in.blue, across.blue, w, y, radius);
+			  }
+		  });
+		  // A band must be taller than the window, so that starting its
+		  // column sums costs less than sliding them down the band.
+		  int verticalBand = Math.max(band, w*(2*radius + 1));
+		  ImageScaler.inBands(w, h, pool, verticalBand, (first, last) -> {
+			  int [] sums = new int[w];
+			  vertical(across.red, result.red, w, h, first, last, radius, sums);
+			  vertical(across.green, result.green, w, h, first, last, radius, sums);
+			  vertical(across.blue, result.blue, w, h, first, last, radius, sums);
+		  });
+		  from = result;
+	  }
+	  return from == src ? new PixelPlanes(w, h, src.red.clone(), src.green.clone(),
+			  src.blue.clone()) : from;
+  }
+
+  /**
+   * horizontal() sets row y of dst to the averages of the windows of the
+   * specified radius around each pixel of row y of src.
+   */
+  static void horizontal(int[] src, int[] dst, int w, int y, int radius) {
+	  int row = y*w;
+	  int sum = 0;
+	  for(int x=0; x<=Math.min(radius, w - 1); x++)
+		  sum += src[row + x];
+	  for(int x=0; x<w; x++){
+		  int count = Math.min(w - 1, x + radius) - Math.max(0, x - radius) + 1;
+		  dst[row + x] = (sum + count/2)/count;
+		  if(x + radius + 1 < w)
+			  sum += src[row + x + radius + 1];
+		  if(x - radius >= 0)
+			  sum -= src[row + x - radius];
+	  }
+  }
+
+  /**
+   * vertical() sets the rows first..last-1 of dst to the averages of the
+   * windows of the specified radius around each pixel of src, sliding the
+   * column sums held in sums down the band.
+   */
+  static void vertical(int[] src, int[] dst, int w, int h, int first, int last, int radius,
+		  int[] sums) {
+	  java.util.Arrays.fill(sums, 0);
+	  for(int y=Math.max(0, first - radius); y<=Math.min(h - 1, first + radius); y++)
+		  for(int x=0; x<w; x++)
+			  sums[x] += src[y*w + x];
+	  for(int y=first; y<last; y++){
+		  int count = Math.min(h - 1, y + radius) - Math.max(0, y - radius) + 1;
+		  int row = y*w;
+		  for(int x=0; x<w; x++)
+			  dst[row + x] = (sums[x] + count/2)/count;
+		  if(y + radius + 1 < h){
+			  int entering = (y + radius + 1)*w;
+			  for(int x=0; x<w; x++)
+				  sums[x] += src[entering + x];
+		  }
+		  if(y - radius >= 0){
+			  int leaving = (y - radius)*w;
+			  for(int x=0; x<w; x++)
+				  sums[x] -= src[leaving + x];
+		  }
+	  }
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() compares the approximation with a true Gaussian kernel and checks
+   * the boxes and the bands.
+   */
+  public static void main(String[] args) {
+
+	  System.out.println("Testing the variance of the boxes.");
+	  boolean close = true;
+	  for(double sigma=0.8; sigma<40; sigma*=1.7){
+		  double variance = 0;
+		  for(int r : boxRadii(sigma))
+			  variance += ((2.0*r + 1)*(2*r + 1) - 1)/12;
+		  close &= Math.abs(variance - sigma*sigma) <= 2*sigma + 1;
+	  }
+	  doTest(close, "The boxes do not approximate the variance.");
+
+	  System.out.println("Testing the approximation against a Gaussian kernel.");
+	  int width = 90;
+	  int height = 70;
+	  java.util.Random random = new java.util.Random(61);
+	  PixelPlanes planes = new PixelPlanes(width, height);
+	  for(int y=0; y<height; y++)
+		  for(int x=0; x<width; x++){
+			  int i = y*width + x;
+			  planes.red[i] = x < 45 ? 30 : 220;
+			  planes.green[i] = (x*2 + y) % 256;
+			  planes.blue[i] = random.nextInt(256);
+		  }
+	  double sigma = 3;
+	  PixelPlanes fast = blur(planes, sigma);
+	  PixelPlanes exact = Convolution.filter(planes, Kernel.gaussian(sigma),
+			  Convolution.EdgeMode.NEIGHBOURS);
+	  long error = 0;
+	  int worst = 0;
+	  for(int i=0; i<width*height; i++)
+		  for(int [][] p : new int[][][] { { fast.red, exact.red }, { fast.green, exact.green },
+				  { fast.blue, exact.blue } }){
+			  int d = Math.abs(p[0][i] - p[1][i]);
+			  error += d;
+			  worst = Math.max(worst, d);
+		  }
+	  doTest((double) error/(3*width*height) < 0.5 && worst <= 10,
+			  "The approximation is off by " + (double) error/(3*width*height) +
+			  " on average and " + worst + " at worst.");
+
+	  System.out.println("Testing bands and a flat image.");
+	  PixelPlanes banded = blur(planes, 7.5, ForkJoinPool.commonPool(), 100);
+	  PixelPlanes single = blur(planes, 7.5, ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+	  PixelPlanes flat = new PixelPlanes(width, height);
+	  java.util.Arrays.fill(flat.green, 77);
+	  doTest(java.util.Arrays.equals(banded.red, single.red) &&
+			  java.util.Arrays.equals(banded.blue, single.blue) &&
+			  java.util.Arrays.equals(blur(flat, 12).green, flat.green) &&
+			  blur(planes, 0) == planes,
+			  "Incorrect bands or flat image.");
+  }
+}
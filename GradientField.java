@@ -0,0 +1,376 @@
+/* GradientField.java */
+
+/**
+ *  The GradientField class holds the raw Sobel gradients of an image, the
+ *  numbers PixImage.sobelEdges() computes and then collapses into
+ *  grayscale:  for each pixel, the gradient gx in the x-direction (the west
+ *  column minus the east column), the gradient gy in the y-direction (the
+ *  north row minus the south row), and the energy, the sum of their squares.
+ *  Pixels beyond the boundary are treated as the nearest pixel of the image,
+ *  as in sobelEdges().
+ *
+ *  The colors are combined as Channels says.  PER_CHANNEL keeps a plane of
+ *  gx, gy and energy per color; SUMMED adds the gradients of the three
+ *  colors; STRONGEST keeps the gradients of the color whose energy is
+ *  largest, which preserves the direction of an edge between two colors of
+ *  equal brightness.  In SUMMED and STRONGEST mode the energy is that of all
+ *  three colors, the energy sobelEdges() maps with mag2gray().
+ *
+ *  The values are stored in primitive arrays in row-major order, plane p of
+ *  a PER_CHANNEL field starting at index p*width*height, and are computed
+ *  in bands of rows on a ForkJoinPool.  compute() fills arrays the caller
+ *  supplies; of() allocates them in a GradientField.  mag2gray() is only
+ *  applied by toEdgeImage(), when asked.
+ */
+
+import java.util.concurrent.ForkJoinPool;
+
+public class GradientField {
+
+	// Smallest number of pixels processed by one task.
+	static final int MIN_BAND = 1 << 14;
+
+	private final int width, height;
+	private final Channels channels;
+	private final int [] gx, gy, energy;
+
+
+  /**
+   *  The Channels enumeration lists the ways the gradients of the three
+   *  colors are combined.
+   */
+  public enum Channels { PER_CHANNEL, SUMMED, STRONGEST }
+
+  private GradientField(int width, int height, Channels channels, int[] gx, int[] gy,
+		  int[] energy) {
+	  this.width = width;
+	  this.height = height;
+	  this.channels = channels;
+	  this.gx = gx;
+	  this.gy = gy;
+	  this.energy = energy;
+  }
+
+  /**
+   * of() returns the gradient field of the specified planes.
+   *
+   * @param planes the image.
+   * @param channels the way the colors are combined.
+   * @return the gradient field.
+   */
+  public static GradientField of(PixelPlanes planes, Channels channels) {
+	  return of(planes, channels, ForkJoinPool.commonPool(), MIN_BAND);
+  }
+
+  static GradientField of(PixelPlanes planes, Channels channels, ForkJoinPool pool, int band) {
+	  int length = planeCount(channels)*planes.width*planes.height;
+	  GradientField field = new GradientField(planes.width, planes.height, channels,
+			  new int[length], new int[length], new int[length]);
+	  compute(planes, channels, field.gx, field.gy, field.energy, pool, band);
+	  return field;
+  }
+
+  /**
+   * compute() stores the gradients of the specified planes into the
+   * specified arrays, each of length width*height, or 3*width*height for
+   * PER_CHANNEL.  Any of the arrays may be null if its values are not
+   * wanted.
+   *
+   * @param planes the image.
+   * @param channels the way the colors are combined.
+   * @param gx the array receiving the gradients in the x-direction, or null.
+   * @param gy the array receiving the gradients in the y-direction, or null.
+   * @param energy the array receiving the energies, or null.
+   * @throws IllegalArgumentException if an array is too short.
+   */
+  public static void compute(PixelPlanes planes, Channels channels, int[] gx, int[] gy,
+		  int[] energy) {
+	  compute(planes, channels, gx, gy, energy, ForkJoinPool.commonPool(), MIN_BAND);
+  }
+
+  static void compute(PixelPlanes planes, Channels channels, int[] gx, int[] gy, int[] energy,
+		  ForkJoinPool pool, int band) {
+	  int length = planeCount(channels)*planes.width*planes.height;
+	  for(int [] a : new int[][] { gx, gy, energy })
+		  if(a != null && a.length < length)
+			  throw new IllegalArgumentException("An array holds " + a.length + " values, not " +
+					  length);
+	  ImageScaler.inBands(planes.width, planes.height, pool, band, (first, last) ->
+			  rows(planes, channels, first, last, gx, gy, energy));
+  }
+
+  /**
+   * planeCount() returns the number of planes of a field of the specified
+   * channels.
+   */
+  private static int planeCount(Channels channels) {
+	  return channels == Channels.PER_CHANNEL ? 3 : 1;
+  }
+
+  /**
+   * rows() computes the gradients of the rows first..last-1.
+   */
+  private static void rows(PixelPlanes planes, Channels channels, int first, int last,
+		  int[] gx, int[] gy, int[] energy) {
+	  int w = planes.width;
+	  int h = planes.height;
+	  int n = w*h;
+	  int [][] colors = { planes.red, planes.green, planes.blue };
+	  for(int y=first; y<last; y++){
+		  int north = Math.max(0, y - 1)*w;
+		  int row = y*w;
+		  int south = Math.min(h - 1, y + 1)*w;
+		  for(int x=0; x<w; x++){
+			  int west = Math.max(0, x - 1);
+			  int east = Math.min(w - 1, x + 1);
+			  int i = row + x;
+			  int sumX = 0, sumY = 0, total = 0, strongest = -1;
+			  for(int c=0; c<3; c++){
+				  int [] p = colors[c];
+				  int dx = (p[north + west] + 2*p[row + west] + p[south + west]) -
+						  (p[north + east] + 2*p[row + east] + p[south + east]);
+				  int dy = (p[north + west] + 2*p[north + x] + p[north + east]) -
+						  (p[south + west] + 2*p[south + x] + p[south + east]);
+				  int e = dx*dx + dy*dy;
+				  total += e;
+				  if(channels == Channels.PER_CHANNEL){
+					  if(gx != null)
+						  gx[c*n + i] = dx;
+					  if(gy != null)
+						  gy[c*n + i] = dy;
+					  if(energy != null)
+						  energy[c*n + i] = e;
+				  }
+				  else if(channels == Channels.SUMMED){
+					  sumX += dx;
+					  sumY += dy;
+				  }
+				  else if(e > strongest){
+					  strongest = e;
+					  sumX = dx;
+					  sumY = dy;
+				  }
+			  }
+			  if(channels != Channels.PER_CHANNEL){
+				  if(gx != null)
+					  gx[i] = sumX;
+				  if(gy != null)
+					  gy[i] = sumY;
+				  if(energy != null)
+					  energy[i] = total;
+			  }
+		  }
+	  }
+  }
+
+  /**
+   * getWidth() returns the width of the field.
+   *
+   * @return the width of the field.
+   */
+  public int getWidth() {
+	  return width;
+  }
+
+  /**
+   * getHeight() returns the height of the field.
+   *
+   * @return the height of the field.
+   */
+  public int getHeight() {
+	  return height;
+  }
+
+  /**
+   * getChannels() returns the way the colors are combined.
+   *
+   * @return the way the colors are combined.
+   */
+  public Channels getChannels() {
+	  return channels;
+  }
+
+  /**
+   * getPlaneCount() returns the number of planes:  3 for a PER_CHANNEL
+   * field, red first, and 1 otherwise.
+   *
+   * @return the number of planes.
+   */
+  public int getPlaneCount() {
+	  return planeCount(channels);
+  }
+
+  /**
+   * getGx() returns the gradients in the x-direction.  The array is the one
+   * the field holds, not a copy.
+   *
+   * @return the gradients in row-major order, plane after plane.
+   */
+  public int[] getGx() {
+	  return gx;
+  }
+
+  /**
+   * getGy() returns the gradients in the y-direction.  The array is the one
+   * the field holds, not a copy.
+   *
+   * @return the gradients in row-major order, plane after plane.
+   */
+  public int[] getGy() {
+	  return gy;
+  }
+
+  /**
+   * getEnergy() returns the energies.  The array is the one the field
+   * holds, not a copy.
+   *
+   * @return the energies in row-major order, plane after plane.
+   */
+  public int[] getEnergy() {
+	  return energy;
+  }
+
+  /**
+   * getGx() returns the gradient in the x-direction of the pixel at
+   * coordinate (x, y) in the specified plane.
+   *
+   * @param plane the plane, 0 unless the field is PER_CHANNEL.
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the gradient.
+   */
+  public int getGx(int plane, int x, int y) {
+	  return gx[index(plane, x, y)];
+  }
+
+  /**
+   * getGy() returns the gradient in the y-direction of the pixel at
+   * coordinate (x, y) in the specified plane.
+   *
+   * @param plane the plane, 0 unless the field is PER_CHANNEL.
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the gradient.
+   */
+  public int getGy(int plane, int x, int y) {
+	  return gy[index(plane, x, y)];
+  }
+
+  /**
+   * getTotalEnergy() returns the energy of the three colors of the pixel at
+   * coordinate (x, y).
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the energy.
+   */
+  public int getTotalEnergy(int x, int y) {
+	  int total = 0;
+	  for(int p=0; p<getPlaneCount(); p++)
+		  total += energy[index(p, x, y)];
+	  return total;
+  }
+
+  private int index(int plane, int x, int y) {
+	  if(plane < 0 || plane >= getPlaneCount() || x < 0 || x >= width || y < 0 || y >= height)
+		  throw new IndexOutOfBoundsException("(" + plane + "," + x + "," + y +
+				  ") is outside the field");
+	  return plane*width*height + y*width + x;
+  }
+
+  /**
+   * toEdgeImage() returns the grayscale image of the total energies mapped
+   * by PixImage.mag2gray(), the image PixImage.sobelEdges() returns.
+   *
+   * @return a new grayscale PixImage of the edges.
+   */
+  public PixImage toEdgeImage() {
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++){
+			  int gray = PixImage.mag2gray(getTotalEnergy(x, y));
+			  image.setPacked(x, y, (gray << 16) | (gray << 8) | gray);
+		  }
+	  return image;
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() compares the fields with the Sobel kernels of Convolution and
+   * with PixImage.sobelEdges().
+   */
+  public static void main(String[] args) {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 37;
+	  int height = 26;
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++)
+			  image.setPacked(x, y, random.nextInt(1 << 24));
+	  PixelPlanes planes = PixelPlanes.of(image);
+	  int n = width*height;
+
+	  System.out.println("Testing a per-channel field against the Sobel kernels.");
+	  GradientField perChannel = of(planes, Channels.PER_CHANNEL, ForkJoinPool.commonPool(), 50);
+	  float [] kx = new float[n];
+	  float [] ky = new float[n];
+	  boolean same = perChannel.getPlaneCount() == 3;
+	  int [][] colors = { planes.red, planes.green, planes.blue };
+	  for(int c=0; c<3; c++){
+		  Convolution.convolve(colors[c], width, height, Kernel.SOBEL_X,
+				  Convolution.EdgeMode.CLAMP, kx);
+		  Convolution.convolve(colors[c], width, height, Kernel.SOBEL_Y,
+				  Convolution.EdgeMode.CLAMP, ky);
+		  for(int i=0; i<n; i++){
+			  int x = i % width, y = i/width;
+			  same &= perChannel.getGx(c, x, y) == (int) kx[i] &&
+					  perChannel.getGy(c, x, y) == (int) ky[i] &&
+					  perChannel.getEnergy()[c*n + i] == (int) (kx[i]*kx[i] + ky[i]*ky[i]);
+		  }
+	  }
+	  doTest(same, "The per-channel field differs from the Sobel kernels.");
+
+	  System.out.println("Testing summed and strongest fields and the edge image.");
+	  GradientField summed = image.sobelGradients(Channels.SUMMED);
+	  int [] gx = new int[n];
+	  int [] energy = new int[n];
+	  compute(planes, Channels.STRONGEST, gx, null, energy);
+	  boolean combined = true;
+	  for(int i=0; i<n; i++){
+		  int x = i % width, y = i/width;
+		  int total = perChannel.getTotalEnergy(x, y);
+		  int sumX = 0, strongest = 0;
+		  for(int c=0; c<3; c++){
+			  sumX += perChannel.getGx(c, x, y);
+			  if(perChannel.getEnergy()[c*n + i] > perChannel.getEnergy()[strongest*n + i])
+				  strongest = c;
+		  }
+		  combined &= summed.getGx(0, x, y) == sumX && summed.getTotalEnergy(x, y) == total &&
+				  energy[i] == total && gx[i] == perChannel.getGx(strongest, x, y);
+	  }
+	  doTest(combined && summed.toEdgeImage().equals(image.sobelEdges()) &&
+			  perChannel.toEdgeImage().equals(image.sobelEdges()),
+			  "Incorrect summed or strongest field.");
+  }
+}
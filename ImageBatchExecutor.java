@@ -0,0 +1,559 @@
+/* ImageBatchExecutor.java */
+
+/**
+ *  The ImageBatchExecutor class runs many independent ImageJobs at once.
+ *  Each job goes through three stages: its Source is read on an I/O thread,
+ *  its operation is computed on a bounded pool of platform threads, and its
+ *  result is written to its Sink on an I/O thread again.  The I/O threads
+ *  are virtual threads when the running JVM supports them and an unbounded
+ *  cached pool otherwise, so that a blocked read or write never takes a core
+ *  away from the compute stage.
+ *
+ *  The number of jobs that have been submitted but not finished is bounded;
+ *  submit() blocks until a job finishes once the bound is reached, so that
+ *  a long list of jobs never holds more than that many images in memory.
+ *
+ *  Every submitted job is represented by a JobHandle, which reports the
+ *  state of the job, the time it spent in each stage, and allows it to be
+ *  cancelled.
+ */
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ImageBatchExecutor {
+
+	// Threads performing the reads and writes of the jobs.
+	private final ExecutorService ioExecutor;
+	// Bounded pool of platform threads performing the operations.
+	private final ExecutorService cpuExecutor;
+	// One permit per job that may be in flight at the same time.
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+
+
+  /**
+   *  The State enumeration lists the states a job goes through.
+   */
+  public enum State { QUEUED, READING, COMPUTING, WRITING, SUCCEEDED, FAILED, CANCELLED }
+
+  /**
+   *  The JobHandle class tracks one submitted job.  The time a job spends
+   *  in each stage is measured with System.nanoTime() and is available
+   *  once the stage is complete.
+   *
+   *  @param <R> the type of the result of the job.
+   */
+  public static class JobHandle<R> {
+
+	  private final String name;
+	  private volatile State state = State.QUEUED;
+	  private volatile boolean cancelled;
+	  // Whether the final state of the job is decided, after which cancel()
+	  // has no effect; guarded by the handle's lock.
+	  private boolean settled;
+	  private volatile Throwable failure;
+	  private volatile R result;
+	  private final long submitted;
+	  private volatile long started, readNanos, computeNanos, writeNanos, finished;
+	  // The thread currently running a stage of the job, if any.
+	  private Thread runner;
+	  private CompletableFuture<Void> completion;
+
+	  JobHandle(String name) {
+		  this.name = name;
+		  submitted = System.nanoTime();
+	  }
+
+	  /**
+	   * getName() returns the name of the job.
+	   *
+	   * @return the name of the job.
+	   */
+	  public String getName() {
+		  return name;
+	  }
+
+	  /**
+	   * getState() returns the current state of the job.
+	   *
+	   * @return the current state of the job.
+	   */
+	  public State getState() {
+		  return state;
+	  }
+
+	  /**
+	   * isDone() returns true if the job has succeeded, failed or been
+	   * cancelled.
+	   *
+	   * @return true if the job will make no further progress.
+	   */
+	  public boolean isDone() {
+		  return state == State.SUCCEEDED || state == State.FAILED ||
+				  state == State.CANCELLED;
+	  }
+
+	  /**
+	   * cancel() cancels the job.  A stage that has not started yet is never
+	   * run; a stage that is running is interrupted, which aborts blocking
+	   * I/O on interruptible channels and is otherwise noticed when the stage
+	   * ends.  Once the write stage has ended or the job has failed, its final
+	   * state is decided and it can no longer be cancelled.
+	   *
+	   * @return true if the job will end CANCELLED, false if its final state
+	   * was already decided.
+	   */
+	  public synchronized boolean cancel() {
+		  if(settled)
+			  return false;
+		  cancelled = true;
+		  if(runner != null)
+			  runner.interrupt();
+		  return true;
+	  }
+
+	  /**
+	   * await() waits until the job is done and returns its result.
+	   *
+	   * @return the result of the job's operation.
+	   * @throws InterruptedException if the waiting thread is interrupted.
+	   * @throws CancellationException if the job was cancelled.
+	   * @throws ExecutionException if the job failed; its cause is the
+	   * exception thrown by the failing stage.
+	   */
+	  public R await() throws InterruptedException, ExecutionException {
+		  try{
+			  completion.get();
+		  }
+		  catch(ExecutionException e){
+			  // Reported through the state below.
+		  }
+		  if(state == State.CANCELLED)
+			  throw new CancellationException(name + " was cancelled");
+		  if(state == State.FAILED)
+			  throw new ExecutionException(name + " failed", failure);
+		  return result;
+	  }
+
+	  /**
+	   * getFailure() returns the exception that made the job fail.
+	   *
+	   * @return the exception that made the job fail, or null.
+	   */
+	  public Throwable getFailure() {
+		  return failure;
+	  }
+
+	  /**
+	   * getQueueNanos() returns the time between the submission of the job
+	   * and the start of its read.
+	   *
+	   * @return the queueing time in nanoseconds.
+	   */
+	  public long getQueueNanos() {
+		  return started == 0 ? 0 : started - submitted;
+	  }
+
+	  /**
+	   * getReadNanos() returns the time spent reading the input.
+	   *
+	   * @return the read time in nanoseconds.
+	   */
+	  public long getReadNanos() {
+		  return readNanos;
+	  }
+
+	  /**
+	   * getComputeNanos() returns the time spent in the operation chain.
+	   *
+	   * @return the compute time in nanoseconds.
+	   */
+	  public long getComputeNanos() {
+		  return computeNanos;
+	  }
+
+	  /**
+	   * getWriteNanos() returns the time spent writing the result.
+	   *
+	   * @return the write time in nanoseconds.
+	   */
+	  public long getWriteNanos() {
+		  return writeNanos;
+	  }
+
+	  /**
+	   * getTotalNanos() returns the time between the submission of the job
+	   * and its end, including the time waiting between stages.
+	   *
+	   * @return the total time in nanoseconds, or 0 if the job is not done.
+	   */
+	  public long getTotalNanos() {
+		  return finished == 0 ? 0 : finished - submitted;
+	  }
+
+	  /**
+	   * enter() marks the calling thread as running the specified stage, or
+	   * aborts the stage if the job has been cancelled.
+	   */
+	  private synchronized void enter(State stage) {
+		  if(cancelled)
+			  throw new CancellationException(name + " was cancelled");
+		  runner = Thread.currentThread();
+		  state = stage;
+	  }
+
+	  /**
+	   * leave() marks the calling thread as no longer running a stage of
+	   * this job and clears an interrupt meant for the stage, so that it
+	   * cannot leak into the next task of the pool thread.  Leaving the write
+	   * stage without being cancelled settles the job.
+	   */
+	  private synchronized void leave() {
+		  runner = null;
+		  Thread.interrupted();
+		  if(cancelled)
+			  throw new CancellationException(name + " was cancelled");
+		  if(state == State.WRITING)
+			  settled = true;
+	  }
+
+	  /**
+	   * finish() records the end of the job.  A job cancelled before it was
+	   * settled ends CANCELLED, whatever its stages did.
+	   */
+	  private synchronized void finish(Throwable t) {
+		  settled = true;
+		  while(t instanceof CompletionException && t.getCause() != null)
+			  t = t.getCause();
+		  if(t == null)
+			  state = State.SUCCEEDED;
+		  else if(cancelled || t instanceof CancellationException)
+			  state = State.CANCELLED;
+		  else{
+			  failure = t;
+			  state = State.FAILED;
+		  }
+		  finished = System.nanoTime();
+	  }
+
+	  /**
+	   * toString() returns a String representation of this JobHandle in the
+	   * format name: state (queue, read, compute, write) with the times in
+	   * microseconds.
+	   *
+	   * @return a String representation of this JobHandle.
+	   */
+	  public String toString() {
+		  return name + ": " + state + " (" + getQueueNanos()/1000 + "," + readNanos/1000 +
+				  "," + computeNanos/1000 + "," + writeNanos/1000 + ")";
+	  }
+  }
+
+  /**
+   * ImageBatchExecutor() (with zero parameters) constructs an executor
+   * with one compute thread per available processor and at most four
+   * in-flight jobs per compute thread.
+   */
+  public ImageBatchExecutor() {
+	  this(Runtime.getRuntime().availableProcessors(),
+			  4*Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * ImageBatchExecutor() (with two parameters) constructs an executor with
+   * the specified number of compute threads and the specified bound on the
+   * number of jobs in flight.
+   *
+   * @param cpuThreads the number of platform threads computing operations.
+   * @param maxInFlight the number of jobs that may be submitted but not
+   * finished at any time.
+   */
+  public ImageBatchExecutor(int cpuThreads, int maxInFlight) {
+	  this.maxInFlight = Math.max(1, maxInFlight);
+	  inFlight = new Semaphore(this.maxInFlight);
+	  cpuExecutor = Executors.newFixedThreadPool(Math.max(1, cpuThreads),
+			  threadFactory("image-cpu-"));
+	  ioExecutor = newIoExecutor();
+  }
+
+  /**
+   * newIoExecutor() returns an executor starting one virtual thread per
+   * task if the running JVM provides one, and a cached pool of daemon
+   * platform threads otherwise.
+   */
+  private static ExecutorService newIoExecutor() {
+	  try{
+		  Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		  return (ExecutorService) m.invoke(null);
+	  }
+	  catch(ReflectiveOperationException e){
+		  return Executors.newCachedThreadPool(threadFactory("image-io-"));
+	  }
+  }
+
+  /**
+   * threadFactory() returns a factory of daemon threads named with the
+   * specified prefix followed by a sequence number.
+   */
+  private static ThreadFactory threadFactory(String prefix) {
+	  AtomicInteger count = new AtomicInteger();
+	  return r -> {
+		  Thread t = new Thread(r, prefix + count.incrementAndGet());
+		  t.setDaemon(true);
+		  return t;
+	  };
+  }
+
+  /**
+   * submit() starts the specified job, blocking while the maximum number
+   * of jobs are in flight.
+   *
+   * @param job the job to run.
+   * @return the handle of the job.
+   * @throws InterruptedException if the calling thread is interrupted while
+   * waiting for a job to finish.
+   */
+  public <R> JobHandle<R> submit(ImageJob<R> job) throws InterruptedException {
+
+	  inFlight.acquire();
+	  JobHandle<R> handle = new JobHandle<R>(job.getName());
+
+	  CompletableFuture<PixImage> read = CompletableFuture.supplyAsync(() -> {
+		  handle.enter(State.READING);
+		  handle.started = System.nanoTime();
+		  try{
+			  return job.read();
+		  }
+		  catch(IOException e){
+			  throw new CompletionException(e);
+		  }
+		  finally{
+			  handle.readNanos = System.nanoTime() - handle.started;
+			  handle.leave();
+		  }
+	  }, ioExecutor);
+
+	  CompletableFuture<R> computed = read.thenApplyAsync(image -> {
+		  handle.enter(State.COMPUTING);
+		  long start = System.nanoTime();
+		  try{
+			  return job.compute(image);
+		  }
+		  finally{
+			  handle.computeNanos = System.nanoTime() - start;
+			  handle.leave();
+		  }
+	  }, cpuExecutor);
+
+	  CompletableFuture<Void> written = computed.thenAcceptAsync(result -> {
+		  handle.enter(State.WRITING);
+		  long start = System.nanoTime();
+		  try{
+			  job.write(result);
+			  handle.result = result;
+		  }
+		  catch(IOException e){
+			  throw new CompletionException(e);
+		  }
+		  finally{
+			  handle.writeNanos = System.nanoTime() - start;
+			  handle.leave();
+		  }
+	  }, ioExecutor);
+
+	  handle.completion = written.whenComplete((v, t) -> {
+		  handle.finish(t);
+		  inFlight.release();
+	  });
+	  return handle;
+  }
+
+  /**
+   * submitAll() starts the specified jobs in order, blocking whenever the
+   * maximum number of jobs are in flight.
+   *
+   * @param jobs the jobs to run.
+   * @return the handles of the jobs, in the same order.
+   * @throws InterruptedException if the calling thread is interrupted while
+   * waiting for a job to finish.
+   */
+  public List<JobHandle<?>> submitAll(List<? extends ImageJob<?>> jobs)
+		  throws InterruptedException {
+	  List<JobHandle<?>> handles = new ArrayList<JobHandle<?>>(jobs.size());
+	  for(ImageJob<?> job : jobs)
+		  handles.add(submit(job));
+	  return handles;
+  }
+
+  /**
+   * awaitAll() waits until every job in flight is done.
+   *
+   * @throws InterruptedException if the calling thread is interrupted.
+   */
+  public void awaitAll() throws InterruptedException {
+	  inFlight.acquire(maxInFlight);
+	  inFlight.release(maxInFlight);
+  }
+
+  /**
+   * shutdown() stops accepting new stages and waits for the stages already
+   * started to finish.
+   *
+   * @throws InterruptedException if the calling thread is interrupted.
+   */
+  public void shutdown() throws InterruptedException {
+	  awaitAll();
+	  cpuExecutor.shutdown();
+	  ioExecutor.shutdown();
+	  cpuExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	  ioExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() runs a batch of in-memory jobs and checks their results, their
+   * failures and their cancellation.
+   */
+  public static void main(String[] args) throws Exception {
+
+	  ImageBatchExecutor executor = new ImageBatchExecutor(2, 3);
+	  List<ImageJob<?>> jobs = new ArrayList<ImageJob<?>>();
+	  List<RunLengthEncoding> sinks = new ArrayList<RunLengthEncoding>();
+	  for(int i=0; i<10; i++){
+		  int shade = i*20;
+		  jobs.add(new ImageJob<RunLengthEncoding>("job" + i, () -> {
+			  PixImage image = new PixImage(8, 6);
+			  image.setPixel(3, 3, (short) shade, (short) shade, (short) shade);
+			  return image;
+		  }, ImageOperation.boxBlur(1).then(ImageOperation.encode()), rle -> {
+			  synchronized(sinks){
+				  sinks.add(rle);
+			  }
+		  }));
+	  }
+	  System.out.println("Testing a batch of 10 encode jobs.");
+	  List<JobHandle<?>> handles = executor.submitAll(jobs);
+	  executor.awaitAll();
+	  boolean allGood = sinks.size() == 10;
+	  for(JobHandle<?> h : handles)
+		  allGood &= h.getState() == State.SUCCEEDED && h.getTotalNanos() > 0;
+	  doTest(allGood, "Batch of 10 jobs did not succeed: " + handles);
+
+	  System.out.println("Testing a job whose source fails.");
+	  JobHandle<PixImage> failing = executor.submit(new ImageJob<PixImage>("failing",
+			  () -> { throw new IOException("missing file"); },
+			  ImageOperation.identity(), image -> {}));
+	  try{
+		  failing.await();
+		  doTest(false, "A failing job reported success.");
+	  }
+	  catch(ExecutionException e){
+		  doTest(e.getCause() instanceof IOException && failing.getState() == State.FAILED,
+				  "A failing job reported " + e.getCause());
+	  }
+
+	  System.out.println("Testing the cancellation of a job.");
+	  java.util.concurrent.CountDownLatch reading = new java.util.concurrent.CountDownLatch(1);
+	  JobHandle<PixImage> slow = executor.submit(new ImageJob<PixImage>("slow", () -> {
+		  reading.countDown();
+		  try{
+			  Thread.sleep(10000);
+		  }
+		  catch(InterruptedException e){
+			  throw new java.io.InterruptedIOException();
+		  }
+		  return new PixImage(1, 1);
+	  }, ImageOperation.identity(), image -> {}));
+	  reading.await();
+	  slow.cancel();
+	  try{
+		  slow.await();
+		  doTest(false, "A cancelled job reported success.");
+	  }
+	  catch(CancellationException e){
+		  doTest(slow.getState() == State.CANCELLED && slow.getReadNanos() < 5000000000L,
+				  "Cancellation did not stop the job: " + slow);
+	  }
+
+	  System.out.println("Testing cancel() against the end of a job.");
+	  JobHandle<PixImage> done = executor.submit(new ImageJob<PixImage>("done",
+			  () -> new PixImage(2, 2), ImageOperation.identity(), image -> {}));
+	  done.await();
+	  boolean consistent = !done.cancel() && done.getState() == State.SUCCEEDED;
+	  // The stages of a handle driven by hand, with cancel() in between.
+	  JobHandle<PixImage> written = new JobHandle<PixImage>("written");
+	  written.enter(State.WRITING);
+	  written.leave();
+	  consistent &= !written.cancel();
+	  written.finish(null);
+	  consistent &= written.getState() == State.SUCCEEDED;
+	  JobHandle<PixImage> writing = new JobHandle<PixImage>("writing");
+	  writing.enter(State.WRITING);
+	  consistent &= writing.cancel();
+	  try{
+		  writing.leave();
+		  consistent = false;
+	  }
+	  catch(CancellationException e){
+		  writing.finish(e);
+	  }
+	  consistent &= writing.getState() == State.CANCELLED;
+	  JobHandle<PixImage> unread = new JobHandle<PixImage>("unread");
+	  unread.enter(State.READING);
+	  unread.leave();
+	  consistent &= unread.cancel();
+	  unread.finish(new IOException("missing file"));
+	  consistent &= unread.getState() == State.CANCELLED && !unread.cancel();
+	  java.util.Random random = new java.util.Random(61);
+	  for(int i=0; i<300; i++){
+		  JobHandle<PixImage> quick = executor.submit(new ImageJob<PixImage>("quick" + i,
+				  () -> new PixImage(4, 4), ImageOperation.identity(), image -> {}));
+		  long until = System.nanoTime() + random.nextInt(200000);
+		  while(System.nanoTime() < until)
+			  Thread.onSpinWait();
+		  boolean cancelled = quick.cancel();
+		  try{
+			  quick.await();
+			  consistent &= !cancelled && quick.getState() == State.SUCCEEDED;
+		  }
+		  catch(CancellationException e){
+			  consistent &= cancelled && quick.getState() == State.CANCELLED;
+		  }
+	  }
+	  doTest(consistent, "cancel() disagreed with the final state of a job.");
+	  executor.shutdown();
+  }
+}
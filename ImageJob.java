@@ -0,0 +1,116 @@
+/* ImageJob.java */
+
+/**
+ *  The ImageJob class describes one independent unit of work for an
+ *  ImageBatchExecutor: a Source that reads the input PixImage, an
+ *  ImageOperation that performs the CPU-bound processing, and a Sink that
+ *  writes the result.  The Source and the Sink are expected to block on I/O;
+ *  the operation is expected to only compute.
+ *
+ *  @param <R> the type of the result handed to the Sink.
+ */
+
+import java.io.IOException;
+
+public class ImageJob<R> {
+
+	private final String name;
+	private final Source source;
+	private final ImageOperation<PixImage, ? extends R> operation;
+	private final Sink<? super R> sink;
+
+  /**
+   *  The Source interface reads the input image of a job.
+   */
+  public interface Source {
+
+	/**
+	 * read() reads the input image of a job.
+	 *
+	 * @return the input image.
+	 * @throws IOException if the image cannot be read.
+	 */
+	PixImage read() throws IOException;
+  }
+
+  /**
+   *  The Sink interface writes the result of a job.
+   *
+   *  @param <R> the type of the result.
+   */
+  public interface Sink<R> {
+
+	/**
+	 * write() writes the result of a job.
+	 *
+	 * @param result the result of the job's operation.
+	 * @throws IOException if the result cannot be written.
+	 */
+	void write(R result) throws IOException;
+  }
+
+  /**
+   * ImageJob() constructs a job with the specified name, input source,
+   * operation chain and output sink.
+   *
+   * @param name the name of the job, used in reports and error messages.
+   * @param source the source of the input image.
+   * @param operation the CPU-bound operation chain applied to the input.
+   * @param sink the sink receiving the output of the operation.
+   */
+  public ImageJob(String name, Source source,
+		  ImageOperation<PixImage, ? extends R> operation, Sink<? super R> sink) {
+	  this.name = name;
+	  this.source = source;
+	  this.operation = operation;
+	  this.sink = sink;
+  }
+
+  /**
+   * getName() returns the name of the job.
+   *
+   * @return the name of the job.
+   */
+  public String getName() {
+	  return name;
+  }
+
+  /**
+   * read() reads the input image from the source of the job.
+   *
+   * @return the input image.
+   * @throws IOException if the image cannot be read.
+   */
+  PixImage read() throws IOException {
+	  return source.read();
+  }
+
+  /**
+   * compute() applies the operation chain of the job to the input image.
+   *
+   * @param image the input image.
+   * @return the output of the operation chain.
+   */
+  R compute(PixImage image) {
+	  return operation.apply(image);
+  }
+
+  /**
+   * write() hands the specified result to the sink of the job.
+   *
+   * @param result the output of the operation chain.
+   * @throws IOException if the result cannot be written.
+   */
+  void write(R result) throws IOException {
+	  sink.write(result);
+  }
+
+  /**
+   * toString() returns the name of the job.
+   *
+   * @return the name of the job.
+   */
+  public String toString() {
+	  return name;
+  }
+}
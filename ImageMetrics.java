@@ -0,0 +1,120 @@
+/* ImageMetrics.java */
+
+/**
+ *  The ImageMetrics class is the switch of the instrumentation of PixImage
+ *  and RunLengthEncoding.  Instrumentation is disabled until a listener is
+ *  added; while it is disabled, each instrumented method only reads one
+ *  static field and skips its measurements, including the calls to
+ *  System.nanoTime().
+ *
+ *  Several listeners may be added at the same time; they are called in the
+ *  order they were added.
+ */
+
+import java.util.Arrays;
+
+public final class ImageMetrics {
+
+	// The listener called by the instrumented methods, or null when the
+	// instrumentation is disabled.
+	private static volatile ImageMetricsListener listener;
+	// The listeners added so far.
+	private static ImageMetricsListener [] listeners = new ImageMetricsListener[0];
+
+  /**
+   *  The Operation enumeration lists the instrumented operations.
+   */
+  public enum Operation { BOX_BLUR, SOBEL_EDGES, RLE_ENCODE, RLE_DECODE, RLE_SET_PIXEL }
+
+  private ImageMetrics() {
+  }
+
+  /**
+   * listener() returns the listener to call from an instrumented method, or
+   * null if the instrumentation is disabled.
+   *
+   * @return the current listener, or null.
+   */
+  static ImageMetricsListener listener() {
+	  return listener;
+  }
+
+  /**
+   * isEnabled() returns true if at least one listener has been added.
+   *
+   * @return true if the instrumentation is enabled.
+   */
+  public static boolean isEnabled() {
+	  return listener != null;
+  }
+
+  /**
+   * addListener() adds the specified listener, enabling the instrumentation.
+   *
+   * @param l the listener to add.
+   */
+  public static synchronized void addListener(ImageMetricsListener l) {
+	  listeners = Arrays.copyOf(listeners, listeners.length+1);
+	  listeners[listeners.length-1] = l;
+	  update();
+  }
+
+  /**
+   * removeListener() removes the specified listener.  The instrumentation is
+   * disabled again when the last listener is removed.
+   *
+   * @param l the listener to remove.
+   */
+  public static synchronized void removeListener(ImageMetricsListener l) {
+	  for(int i=0; i<listeners.length; i++){
+		  if(listeners[i] == l){
+			  ImageMetricsListener [] rest = new ImageMetricsListener[listeners.length-1];
+			  System.arraycopy(listeners, 0, rest, 0, i);
+			  System.arraycopy(listeners, i+1, rest, i, rest.length-i);
+			  listeners = rest;
+			  break;
+		  }
+	  }
+	  update();
+  }
+
+  /**
+   * update() publishes the listener to call: null for no listener, the
+   * listener itself for one, and a broadcasting listener for more.
+   */
+  private static void update() {
+	  if(listeners.length == 0)
+		  listener = null;
+	  else if(listeners.length == 1)
+		  listener = listeners[0];
+	  else
+		  listener = new Broadcast(listeners.clone());
+  }
+
+  /**
+   *  The Broadcast class forwards every measurement to several listeners.
+   */
+  private static class Broadcast implements ImageMetricsListener {
+
+	  private final ImageMetricsListener [] targets;
+
+	  Broadcast(ImageMetricsListener [] targets) {
+		  this.targets = targets;
+	  }
+
+	  public void operationCompleted(Operation op, int width, int height, long nanos) {
+		  for(ImageMetricsListener l : targets)
+			  l.operationCompleted(op, width, height, nanos);
+	  }
+
+	  public void pixelsAllocated(long pixels) {
+		  for(ImageMetricsListener l : targets)
+			  l.pixelsAllocated(pixels);
+	  }
+
+	  public void imageEncoded(int pixels, int[] runLengths, int runCount) {
+		  for(ImageMetricsListener l : targets)
+			  l.imageEncoded(pixels, runLengths, runCount);
+	  }
+  }
+}
@@ -0,0 +1,354 @@
+/* ImageMetricsCollector.java */
+
+/**
+ *  The ImageMetricsCollector class is an ImageMetricsListener that keeps
+ *  running totals of the measurements: the count, total time, maximum time
+ *  and latency histogram of every operation, the number of RGB objects
+ *  allocated by PixImages, and the number of runs, the distribution of run
+ *  lengths and the compression ratio of the run-length encodings.
+ *
+ *  The compression ratio is the number of pixels encoded divided by the
+ *  number of runs produced; a noisy photo has a ratio close to 1.
+ *
+ *  The collector is also a standard MBean, which register() makes visible
+ *  to JMX clients such as jconsole.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class ImageMetricsCollector implements ImageMetricsListener, ImageMetricsCollectorMBean {
+
+	// The name under which register() registers a collector.
+	public static final String OBJECT_NAME = "ImageProcessing:type=ImageMetrics";
+
+	// Number of buckets of the latency and run-length histograms.
+	private static final int BUCKETS = 32;
+
+	private static final ImageMetrics.Operation [] OPERATIONS = ImageMetrics.Operation.values();
+
+	private final LongAdder [] counts = new LongAdder[OPERATIONS.length];
+	private final LongAdder [] totalNanos = new LongAdder[OPERATIONS.length];
+	private final AtomicLong [] maxNanos = new AtomicLong[OPERATIONS.length];
+	private final AtomicLongArray [] latencies = new AtomicLongArray[OPERATIONS.length];
+
+	private final LongAdder pixelsAllocated = new LongAdder();
+	private final LongAdder encodings = new LongAdder();
+	private final LongAdder encodedPixels = new LongAdder();
+	private final LongAdder encodedRuns = new LongAdder();
+	private final AtomicLong maxRuns = new AtomicLong();
+	private volatile double lastRatio;
+	private final AtomicLongArray runLengths = new AtomicLongArray(BUCKETS);
+
+
+  /**
+   * ImageMetricsCollector() constructs a collector with all totals at zero.
+   */
+  public ImageMetricsCollector() {
+	  for(int i=0; i<OPERATIONS.length; i++){
+		  counts[i] = new LongAdder();
+		  totalNanos[i] = new LongAdder();
+		  maxNanos[i] = new AtomicLong();
+		  latencies[i] = new AtomicLongArray(BUCKETS);
+	  }
+  }
+
+  /**
+   * bucket() returns the histogram bucket of the specified value: the number
+   * of bits needed to represent it, capped to the last bucket.
+   */
+  private static int bucket(long value) {
+	  return Math.min(BUCKETS-1, 64 - Long.numberOfLeadingZeros(value));
+  }
+
+  /**
+   * operationCompleted() adds the specified time to the count, total,
+   * maximum and latency histogram of the specified operation.
+   */
+  public void operationCompleted(ImageMetrics.Operation op, int width, int height, long nanos) {
+	  int i = op.ordinal();
+	  counts[i].increment();
+	  totalNanos[i].add(nanos);
+	  maxNanos[i].accumulateAndGet(nanos, Math::max);
+	  latencies[i].incrementAndGet(bucket(nanos/1000));
+  }
+
+  /**
+   * pixelsAllocated() adds the specified number of pixels to the
+   * allocation count.
+   */
+  public void pixelsAllocated(long pixels) {
+	  pixelsAllocated.add(pixels);
+  }
+
+  /**
+   * imageEncoded() adds the specified encoding to the run statistics and
+   * the lengths of its runs to the run-length histogram.
+   */
+  public void imageEncoded(int pixels, int[] lengths, int runCount) {
+	  encodings.increment();
+	  encodedPixels.add(pixels);
+	  encodedRuns.add(runCount);
+	  maxRuns.accumulateAndGet(runCount, Math::max);
+	  lastRatio = runCount == 0 ? 0 : (double) pixels / runCount;
+	  for(int i=0; i<runCount; i++)
+		  runLengths.incrementAndGet(bucket(lengths[i])-1);
+  }
+
+  /**
+   * getOperationNames() returns the names of the operations, in the order
+   * of the per-operation arrays.
+   *
+   * @return the names of the ImageMetrics.Operation constants.
+   */
+  public String[] getOperationNames() {
+	  String [] names = new String[OPERATIONS.length];
+	  for(int i=0; i<names.length; i++)
+		  names[i] = OPERATIONS[i].name();
+	  return names;
+  }
+
+  /**
+   * getOperationCounts() returns the number of times each operation
+   * completed.
+   *
+   * @return the counts, indexed as getOperationNames().
+   */
+  public long[] getOperationCounts() {
+	  long [] result = new long[OPERATIONS.length];
+	  for(int i=0; i<result.length; i++)
+		  result[i] = counts[i].sum();
+	  return result;
+  }
+
+  /**
+   * getOperationTotalNanos() returns the total time spent in each
+   * operation, in nanoseconds.
+   *
+   * @return the total times, indexed as getOperationNames().
+   */
+  public long[] getOperationTotalNanos() {
+	  long [] result = new long[OPERATIONS.length];
+	  for(int i=0; i<result.length; i++)
+		  result[i] = totalNanos[i].sum();
+	  return result;
+  }
+
+  /**
+   * getOperationMaxNanos() returns the longest time a single run of each
+   * operation took, in nanoseconds.
+   *
+   * @return the maximum times, indexed as getOperationNames().
+   */
+  public long[] getOperationMaxNanos() {
+	  long [] result = new long[OPERATIONS.length];
+	  for(int i=0; i<result.length; i++)
+		  result[i] = maxNanos[i].get();
+	  return result;
+  }
+
+  /**
+   * getLatencyHistogram() returns the latency histogram of the specified
+   * operation.
+   *
+   * @param operation the name of an ImageMetrics.Operation.
+   * @return the latency histogram of the operation.
+   */
+  public long[] getLatencyHistogram(String operation) {
+	  return toArray(latencies[ImageMetrics.Operation.valueOf(operation).ordinal()]);
+  }
+
+  /**
+   * getPixelsAllocated() returns the number of pixels allocated by
+   * PixImages.
+   *
+   * @return the number of pixels allocated.
+   */
+  public long getPixelsAllocated() {
+	  return pixelsAllocated.sum();
+  }
+
+  /**
+   * getEncodings() returns the number of run-length encodings made.
+   *
+   * @return the number of encodings.
+   */
+  public long getEncodings() {
+	  return encodings.sum();
+  }
+
+  /**
+   * getEncodedPixels() returns the number of pixels run-length encoded.
+   *
+   * @return the number of pixels encoded.
+   */
+  public long getEncodedPixels() {
+	  return encodedPixels.sum();
+  }
+
+  /**
+   * getEncodedRuns() returns the number of runs the encodings produced.
+   *
+   * @return the number of runs produced.
+   */
+  public long getEncodedRuns() {
+	  return encodedRuns.sum();
+  }
+
+  /**
+   * getMaxRunsPerEncoding() returns the largest number of runs produced by
+   * a single encoding.
+   *
+   * @return the largest number of runs of an encoding.
+   */
+  public long getMaxRunsPerEncoding() {
+	  return maxRuns.get();
+  }
+
+  /**
+   * getCompressionRatio() returns the number of pixels encoded divided by
+   * the number of runs produced, over all encodings.
+   *
+   * @return the compression ratio, or 0 if nothing was encoded.
+   */
+  public double getCompressionRatio() {
+	  long runs = encodedRuns.sum();
+	  return runs == 0 ? 0 : (double) encodedPixels.sum() / runs;
+  }
+
+  /**
+   * getLastCompressionRatio() returns the compression ratio of the last
+   * encoding.
+   *
+   * @return the compression ratio of the last encoding, or 0.
+   */
+  public double getLastCompressionRatio() {
+	  return lastRatio;
+  }
+
+  /**
+   * getRunLengthHistogram() returns the histogram of the lengths of the
+   * runs produced.
+   *
+   * @return the run-length histogram.
+   */
+  public long[] getRunLengthHistogram() {
+	  return toArray(runLengths);
+  }
+
+  /**
+   * reset() sets all totals back to zero.
+   */
+  public void reset() {
+	  for(int i=0; i<OPERATIONS.length; i++){
+		  counts[i].reset();
+		  totalNanos[i].reset();
+		  maxNanos[i].set(0);
+		  for(int b=0; b<BUCKETS; b++)
+			  latencies[i].set(b, 0);
+	  }
+	  pixelsAllocated.reset();
+	  encodings.reset();
+	  encodedPixels.reset();
+	  encodedRuns.reset();
+	  maxRuns.set(0);
+	  lastRatio = 0;
+	  for(int b=0; b<BUCKETS; b++)
+		  runLengths.set(b, 0);
+  }
+
+  /**
+   * toArray() returns a copy of the values of the specified array.
+   */
+  private static long[] toArray(AtomicLongArray a) {
+	  long [] result = new long[a.length()];
+	  for(int i=0; i<result.length; i++)
+		  result[i] = a.get(i);
+	  return result;
+  }
+
+  /**
+   * register() creates a collector, adds it as a listener to ImageMetrics
+   * and registers it with the platform MBean server under OBJECT_NAME.
+   *
+   * @return the registered collector.
+   * @throws JMException if the collector cannot be registered, for example
+   * because another collector is already registered.
+   */
+  public static ImageMetricsCollector register() throws JMException {
+	  ImageMetricsCollector collector = new ImageMetricsCollector();
+	  ManagementFactory.getPlatformMBeanServer().registerMBean(collector,
+			  new ObjectName(OBJECT_NAME));
+	  ImageMetrics.addListener(collector);
+	  return collector;
+  }
+
+  /**
+   * unregister() removes the specified collector from ImageMetrics and from
+   * the platform MBean server.
+   *
+   * @param collector a collector returned by register().
+   * @throws JMException if the collector is not registered.
+   */
+  public static void unregister(ImageMetricsCollector collector) throws JMException {
+	  ImageMetrics.removeListener(collector);
+	  ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+  }
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() checks the totals collected while blurring, encoding and
+   * decoding a small image.
+   */
+  public static void main(String[] args) throws JMException {
+
+	  ImageMetricsCollector collector = register();
+	  PixImage image = new PixImage(4, 3);
+	  image.setPixel(0, 0, (short) 9, (short) 9, (short) 9);
+	  RunLengthEncoding rle = new RunLengthEncoding(image);
+	  rle.toPixImage();
+	  rle.setPixel(1, 1, (short) 5, (short) 5, (short) 5);
+	  rle.setPixel(1, 1, (short) 5, (short) 5, (short) 5);
+	  image.boxBlur(2);
+	  unregister(collector);
+	  new PixImage(5, 5);
+
+	  System.out.println("Testing the operation counts.");
+	  long [] counts = collector.getOperationCounts();
+	  doTest(counts[ImageMetrics.Operation.BOX_BLUR.ordinal()] == 1 &&
+			  counts[ImageMetrics.Operation.RLE_ENCODE.ordinal()] == 1 &&
+			  counts[ImageMetrics.Operation.RLE_DECODE.ordinal()] == 1 &&
+			  counts[ImageMetrics.Operation.RLE_SET_PIXEL.ordinal()] == 2 &&
+			  counts[ImageMetrics.Operation.SOBEL_EDGES.ordinal()] == 0,
+			  "Incorrect operation counts: " + java.util.Arrays.toString(counts));
+
+	  System.out.println("Testing the allocation count.");
+	  doTest(collector.getPixelsAllocated() == 4*12,
+			  "Incorrect allocation count: " + collector.getPixelsAllocated());
+
+	  System.out.println("Testing the run statistics.");
+	  long [] histogram = collector.getRunLengthHistogram();
+	  doTest(collector.getEncodedRuns() == 2 && histogram[0] == 1 && histogram[3] == 1 &&
+			  collector.getCompressionRatio() == 6.0 && !ImageMetrics.isEnabled(),
+			  "Incorrect run statistics: " + java.util.Arrays.toString(histogram));
+  }
+}
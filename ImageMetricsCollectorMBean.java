@@ -0,0 +1,121 @@
+/* ImageMetricsCollectorMBean.java */
+
+/**
+ *  The ImageMetricsCollectorMBean interface is the JMX management interface
+ *  of an ImageMetricsCollector.  Per-operation attributes are arrays indexed
+ *  in the order of getOperationNames().  Latency histograms have one bucket
+ *  per power of two microseconds: bucket i counts the operations that took
+ *  at least 2^(i-1) and less than 2^i microseconds.  The run-length histogram
+ *  has one bucket per power of two: bucket i counts the runs whose length is
+ *  at least 2^i and less than 2^(i+1).
+ */
+
+public interface ImageMetricsCollectorMBean {
+
+  /**
+   * getOperationNames() returns the names of the operations, in the order
+   * of the per-operation arrays.
+   *
+   * @return the names of the ImageMetrics.Operation constants.
+   */
+  String[] getOperationNames();
+
+  /**
+   * getOperationCounts() returns the number of times each operation
+   * completed.
+   *
+   * @return the counts, indexed as getOperationNames().
+   */
+  long[] getOperationCounts();
+
+  /**
+   * getOperationTotalNanos() returns the total time spent in each
+   * operation, in nanoseconds.
+   *
+   * @return the total times, indexed as getOperationNames().
+   */
+  long[] getOperationTotalNanos();
+
+  /**
+   * getOperationMaxNanos() returns the longest time a single run of each
+   * operation took, in nanoseconds.
+   *
+   * @return the maximum times, indexed as getOperationNames().
+   */
+  long[] getOperationMaxNanos();
+
+  /**
+   * getLatencyHistogram() returns the latency histogram of the specified
+   * operation.
+   *
+   * @param operation the name of an ImageMetrics.Operation.
+   * @return the latency histogram of the operation.
+   */
+  long[] getLatencyHistogram(String operation);
+
+  /**
+   * getPixelsAllocated() returns the number of pixels allocated by
+   * PixImages.
+   *
+   * @return the number of pixels allocated.
+   */
+  long getPixelsAllocated();
+
+  /**
+   * getEncodings() returns the number of run-length encodings made.
+   *
+   * @return the number of encodings.
+   */
+  long getEncodings();
+
+  /**
+   * getEncodedPixels() returns the number of pixels run-length encoded.
+   *
+   * @return the number of pixels encoded.
+   */
+  long getEncodedPixels();
+
+  /**
+   * getEncodedRuns() returns the number of runs the encodings produced.
+   *
+   * @return the number of runs produced.
+   */
+  long getEncodedRuns();
+
+  /**
+   * getMaxRunsPerEncoding() returns the largest number of runs produced by
+   * a single encoding.
+   *
+   * @return the largest number of runs of an encoding.
+   */
+  long getMaxRunsPerEncoding();
+
+  /**
+   * getCompressionRatio() returns the number of pixels encoded divided by
+   * the number of runs produced, over all encodings.
+   *
+   * @return the compression ratio, or 0 if nothing was encoded.
+   */
+  double getCompressionRatio();
+
+  /**
+   * getLastCompressionRatio() returns the compression ratio of the last
+   * encoding.
+   *
+   * @return the compression ratio of the last encoding, or 0.
+   */
+  double getLastCompressionRatio();
+
+  /**
+   * getRunLengthHistogram() returns the histogram of the lengths of the
+   * runs produced.
+   *
+   * @return the run-length histogram.
+   */
+  long[] getRunLengthHistogram();
+
+  /**
+   * reset() sets all totals back to zero.
+   */
+  void reset();
+}
@@ -0,0 +1,42 @@
+/* ImageMetricsListener.java */
+
+/**
+ *  The ImageMetricsListener interface receives the measurements taken by
+ *  PixImage and RunLengthEncoding while instrumentation is enabled.  A
+ *  listener is installed with ImageMetrics.addListener(); its methods are
+ *  called on the thread performing the measured operation, so they must be
+ *  thread-safe and should return quickly.
+ */
+
+public interface ImageMetricsListener {
+
+  /**
+   * operationCompleted() is called after an instrumented operation has
+   * finished.
+   *
+   * @param op the operation.
+   * @param width the width of the image the operation worked on.
+   * @param height the height of the image the operation worked on.
+   * @param nanos the time the operation took, in nanoseconds.
+   */
+  void operationCompleted(ImageMetrics.Operation op, int width, int height, long nanos);
+
+  /**
+   * pixelsAllocated() is called after a PixImage has allocated the RGB
+   * objects of its pixels.
+   *
+   * @param pixels the number of RGB objects allocated.
+   */
+  void pixelsAllocated(long pixels);
+
+  /**
+   * imageEncoded() is called after a PixImage has been run-length encoded.
+   * The run lengths must not be modified or kept after the call returns.
+   *
+   * @param pixels the number of pixels in the encoded image.
+   * @param runLengths an array holding the length of each run in its first
+   * runCount elements.
+   * @param runCount the number of runs in the encoding.
+   */
+  void imageEncoded(int pixels, int[] runLengths, int runCount);
+}
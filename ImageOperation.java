@@ -0,0 +1,84 @@
+/* ImageOperation.java */
+
+/**
+ *  The ImageOperation interface represents one CPU-bound step of an image
+ *  processing job, such as a box blur, an edge detection or a run-length
+ *  encoding.  Operations are chained with then() so that a job can describe
+ *  its whole compute stage as a single ImageOperation; the static methods
+ *  supply the operations already implemented by PixImage and
+ *  RunLengthEncoding.
+ *
+ *  @param <T> the type of the input of the operation.
+ *  @param <R> the type of the output of the operation.
+ */
+
+public interface ImageOperation<T, R> {
+
+  /**
+   * apply() performs the operation on the specified input.
+   *
+   * @param input the input of the operation.
+   * @return the output of the operation.
+   */
+  R apply(T input);
+
+  /**
+   * then() returns an operation that performs "this" operation and then the
+   * specified operation on its output.
+   *
+   * @param next the operation to perform after "this" operation.
+   * @return the chained operation.
+   */
+  default <V> ImageOperation<T, V> then(ImageOperation<? super R, ? extends V> next) {
+	  return input -> next.apply(apply(input));
+  }
+
+  /**
+   * identity() returns an operation whose output is its input.
+   *
+   * @return an operation whose output is its input.
+   */
+  static ImageOperation<PixImage, PixImage> identity() {
+	  return image -> image;
+  }
+
+  /**
+   * boxBlur() returns an operation that box blurs a PixImage the specified
+   * number of iterations.
+   *
+   * @param numIterations the number of iterations of box blurring.
+   * @return an operation performing PixImage.boxBlur(numIterations).
+   */
+  static ImageOperation<PixImage, PixImage> boxBlur(int numIterations) {
+	  return image -> image.boxBlur(numIterations);
+  }
+
+  /**
+   * sobelEdges() returns an operation that applies the Sobel operator to a
+   * PixImage.
+   *
+   * @return an operation performing PixImage.sobelEdges().
+   */
+  static ImageOperation<PixImage, PixImage> sobelEdges() {
+	  return image -> image.sobelEdges();
+  }
+
+  /**
+   * encode() returns an operation that run-length encodes a PixImage.
+   *
+   * @return an operation constructing a RunLengthEncoding of a PixImage.
+   */
+  static ImageOperation<PixImage, RunLengthEncoding> encode() {
+	  return image -> new RunLengthEncoding(image);
+  }
+
+  /**
+   * decode() returns an operation that converts a run-length encoding back
+   * into a PixImage.
+   *
+   * @return an operation performing RunLengthEncoding.toPixImage().
+   */
+  static ImageOperation<RunLengthEncoding, PixImage> decode() {
+	  return rle -> rle.toPixImage();
+  }
+}
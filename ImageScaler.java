@@ -0,0 +1,321 @@
+/* ImageScaler.java */
+
+/**
+ *  The ImageScaler class shrinks images by area averaging:  every output
+ *  pixel is the average of the source pixels it covers, weighted by how much
+ *  of each one it covers, rounded toward zero as boxBlur() rounds.
+ *
+ *  downscale() by an integer factor averages blocks of factor x factor
+ *  pixels; the blocks at the right and bottom edges may be smaller, and are
+ *  averaged over the pixels they hold.  downscale() to an arbitrary size
+ *  weighs the source pixels by their overlap with the output pixel, using
+ *  integer overlaps only.  Both work on PixelPlanes and split the output
+ *  rows into bands filled by the tasks of a ForkJoinPool.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ImageScaler {
+
+	// Smallest number of output pixels computed by one task.
+	static final int MIN_BAND = 1 << 14;
+
+  private ImageScaler() {
+  }
+
+  /**
+   * downscale() returns the specified planes shrunk by the specified
+   * factor:  the output is ceil(width/factor) x ceil(height/factor), and
+   * each output pixel is the average of a block of up to factor x factor
+   * source pixels.  If factor is one or less, the specified planes are
+   * returned.
+   *
+   * @param src the planes to shrink.
+   * @param factor the number of source pixels per output pixel along each
+   * axis.
+   * @return the shrunk planes.
+   */
+  public static PixelPlanes downscale(PixelPlanes src, int factor) {
+	  return downscale(src, factor, ForkJoinPool.commonPool(), MIN_BAND);
+  }
+
+  static PixelPlanes downscale(PixelPlanes src, int factor, ForkJoinPool pool, int band) {
+	  if(factor <= 1)
+		  return src;
+	  int w = (src.width + factor - 1)/factor;
+	  int h = (src.height + factor - 1)/factor;
+	  PixelPlanes dst = new PixelPlanes(w, h);
+	  inBands(w, h, pool, band, (from, to) -> {
+		  long [] sums = new long[w];
+		  blockPlane(src.red, src.width, src.height, dst.red, w, factor, from, to, sums);
+		  blockPlane(src.green, src.width, src.height, dst.green, w, factor, from, to, sums);
+		  blockPlane(src.blue, src.width, src.height, dst.blue, w, factor, from, to, sums);
+	  });
+	  return dst;
+  }
+
+  /**
+   * downscale() returns the specified planes scaled to the specified width
+   * and height.  Each output pixel is the average of the source pixels it
+   * covers, each weighted by the area of its overlap with the output pixel.
+   *
+   * @param src the planes to scale.
+   * @param width the width of the output.
+   * @param height the height of the output.
+   * @return the scaled planes.
+   * @throws IllegalArgumentException if width or height is not positive or
+   * the source is empty.
+   */
+  public static PixelPlanes downscale(PixelPlanes src, int width, int height) {
+	  return downscale(src, width, height, ForkJoinPool.commonPool(), MIN_BAND);
+  }
+
+  static PixelPlanes downscale(PixelPlanes src, int width, int height, ForkJoinPool pool,
+		  int band) {
+	  if(width <= 0 || height <= 0)
+		  throw new IllegalArgumentException("Cannot scale to " + width + "x" + height);
+	  if(src.width <= 0 || src.height <= 0)
+		  throw new IllegalArgumentException("Cannot scale an empty image of " + src.width +
+				  "x" + src.height);
+	  PixelPlanes dst = new PixelPlanes(width, height);
+	  // Measured in units of 1/(sw*width) of the image width, source pixel sx
+	  // covers sx*width ... (sx+1)*width and output pixel x covers
+	  // x*sw ... (x+1)*sw, so all the overlaps are integers.
+	  int sw = src.width;
+	  int [] first = new int[width];
+	  int [] last = new int[width];
+	  for(int x=0; x<width; x++){
+		  first[x] = (int) ((long) x*sw/width);
+		  last[x] = (int) (((long) (x+1)*sw - 1)/width);
+	  }
+	  inBands(width, height, pool, band, (from, to) -> {
+		  long [] sums = new long[width];
+		  areaPlane(src.red, src, dst.red, dst, first, last, from, to, sums);
+		  areaPlane(src.green, src, dst.green, dst, first, last, from, to, sums);
+		  areaPlane(src.blue, src, dst.blue, dst, first, last, from, to, sums);
+	  });
+	  return dst;
+  }
+
+  /**
+   * overlap() returns the length of the overlap of the source pixel i,
+   * which covers i*outputSize ... (i+1)*outputSize, with the output pixel
+   * o, which covers o*sourceSize ... (o+1)*sourceSize.
+   */
+  private static long overlap(int i, int o, int sourceSize, int outputSize) {
+	  long start = Math.max((long) i*outputSize, (long) o*sourceSize);
+	  long end = Math.min((long) (i+1)*outputSize, (long) (o+1)*sourceSize);
+	  return end - start;
+  }
+
+  /**
+   * blockPlane() fills the output rows from..to-1 of one plane with the
+   * averages of blocks of factor x factor source pixels, summing each block
+   * row by row into sums.
+   */
+  static void blockPlane(int[] src, int sw, int sh, int[] dst, int w, int factor,
+		  int from, int to, long[] sums) {
+	  for(int y=from; y<to; y++){
+		  java.util.Arrays.fill(sums, 0);
+		  int y0 = y*factor;
+		  int y1 = Math.min(sh, y0 + factor);
+		  for(int sy=y0; sy<y1; sy++){
+			  int row = sy*sw;
+			  for(int x=0; x<w; x++){
+				  int x1 = Math.min(sw, x*factor + factor);
+				  long sum = 0;
+				  for(int sx=x*factor; sx<x1; sx++)
+					  sum += src[row + sx];
+				  sums[x] += sum;
+			  }
+		  }
+		  for(int x=0; x<w; x++){
+			  int x0 = x*factor;
+			  dst[y*w + x] = (int) (sums[x]/((long) (Math.min(sw, x0 + factor) - x0)*(y1 - y0)));
+		  }
+	  }
+  }
+
+  /**
+   * areaPlane() fills the output rows from..to-1 of one plane with the
+   * overlap-weighted averages of the source pixels.  first[x] and last[x]
+   * are the first and last source columns covered by output column x.
+   */
+  static void areaPlane(int[] src, PixelPlanes source, int[] dst, PixelPlanes output,
+		  int[] first, int[] last, int from, int to, long[] sums) {
+	  int sw = source.width;
+	  int sh = source.height;
+	  int w = output.width;
+	  int h = output.height;
+	  long area = (long) sw*sh;
+	  for(int y=from; y<to; y++){
+		  java.util.Arrays.fill(sums, 0);
+		  int y0 = (int) ((long) y*sh/h);
+		  int y1 = (int) (((long) (y+1)*sh - 1)/h);
+		  for(int sy=y0; sy<=y1; sy++){
+			  long wy = overlap(sy, y, sh, h);
+			  int row = sy*sw;
+			  for(int x=0; x<w; x++){
+				  long sum = 0;
+				  for(int sx=first[x]; sx<=last[x]; sx++)
+					  sum += src[row + sx]*overlap(sx, x, sw, w);
+				  sums[x] += sum*wy;
+			  }
+		  }
+		  for(int x=0; x<w; x++)
+			  dst[y*w + x] = (int) (sums[x]/area);
+	  }
+  }
+
+  /**
+   *  The Band interface fills the output rows from..to-1.
+   */
+  interface Band {
+	  void rows(int from, int to);
+  }
+
+  /**
+   * inBands() fills the h output rows of width w in bands of at least
+   * "band" pixels, running the bands on the specified pool when there are
+   * more than one.
+   */
+  static void inBands(int w, int h, ForkJoinPool pool, int band, Band rows) {
+	  int rowsPerBand = Math.max(1, band/Math.max(1, w));
+	  List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+	  for(int from=0; from<h; from+=rowsPerBand){
+		  int start = from;
+		  int end = Math.min(h, from + rowsPerBand);
+		  tasks.add(new RecursiveAction() {
+			  protected void compute() {
+				  rows.rows(start, end);
+			  }
+		  });
+	  }
+	  if(tasks.size() == 1)
+		  rows.rows(0, h);
+	  else if(tasks.size() > 1)
+		  pool.invoke(new RecursiveAction() {
+			  protected void compute() {
+				  invokeAll(tasks);
+			  }
+		  });
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() checks the downscaling against averages computed pixel by pixel
+   * and builds a mipmap pyramid.
+   */
+  public static void main(String[] args) {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 53;
+	  int height = 38;
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++)
+			  image.setPacked(x, y, random.nextInt(1 << 24));
+	  PixelPlanes planes = PixelPlanes.of(image);
+
+	  System.out.println("Testing downscale() by a factor of 4 with partial blocks.");
+	  PixelPlanes small = downscale(planes, 4, ForkJoinPool.commonPool(), 7);
+	  boolean same = small.width == 14 && small.height == 10;
+	  for(int x=0; x<small.width; x++){
+		  for(int y=0; y<small.height; y++){
+			  int sum = 0;
+			  int count = 0;
+			  for(int sx=4*x; sx<Math.min(width, 4*x + 4); sx++)
+				  for(int sy=4*y; sy<Math.min(height, 4*y + 4); sy++){
+					  sum += image.getGreen(sx, sy);
+					  count++;
+				  }
+			  same &= small.green[y*small.width + x] == sum/count;
+		  }
+	  }
+	  doTest(same, "Incorrect downscale() by a factor of 4.");
+
+	  System.out.println("Testing downscale() to a size dividing the image.");
+	  PixelPlanes even = PixelPlanes.of(image.boxBlur(1));
+	  PixelPlanes cropped = new PixelPlanes(48, 36);
+	  for(int y=0; y<36; y++){
+		  System.arraycopy(even.red, y*width, cropped.red, y*48, 48);
+		  System.arraycopy(even.green, y*width, cropped.green, y*48, 48);
+		  System.arraycopy(even.blue, y*width, cropped.blue, y*48, 48);
+	  }
+	  doTest(downscale(cropped, 12, 9, ForkJoinPool.commonPool(), 5).toPixImage().equals(
+			  downscale(cropped, 4).toPixImage()),
+			  "downscale() to 12x9 differs from downscale() by 4.");
+
+	  System.out.println("Testing downscale() to an arbitrary size.");
+	  PixelPlanes odd = downscale(planes, 20, 15);
+	  long sum = 0;
+	  long total = 0;
+	  for(int i=0; i<planes.blue.length; i++)
+		  total += planes.blue[i];
+	  for(int i=0; i<odd.blue.length; i++)
+		  sum += odd.blue[i];
+	  // Every output pixel covers 53*38/(20*15) source pixels; the truncation
+	  // loses less than one per output pixel.
+	  doTest(Math.abs(sum*width*height/(20*15) - total) <= (long) width*height,
+			  "downscale() to 20x15 does not preserve the mean.");
+
+	  System.out.println("Testing downscale() by a large factor.");
+	  PixelPlanes bright = new PixelPlanes(3000, 3000);
+	  java.util.Arrays.fill(bright.red, 255);
+	  java.util.Arrays.fill(bright.blue, 7);
+	  PixelPlanes dot = downscale(bright, 3000);
+	  doTest(dot.width == 1 && dot.red[0] == 255 && dot.blue[0] == 7 &&
+			  downscale(bright, 1, 1).red[0] == 255,
+			  "downscale() by 3000 overflows: red " + dot.red[0]);
+
+	  System.out.println("Testing downscale() to or from an empty size.");
+	  int rejected = 0;
+	  for(int [] size : new int[][] { { 0, 5 }, { 5, -1 } })
+		  try{
+			  downscale(planes, size[0], size[1]);
+		  }
+		  catch(IllegalArgumentException e){
+			  rejected++;
+		  }
+	  try{
+		  downscale(new PixelPlanes(0, 0), 1, 1);
+	  }
+	  catch(IllegalArgumentException e){
+		  rejected++;
+	  }
+	  doTest(rejected == 3, "downscale() accepted an empty size.");
+
+	  System.out.println("Testing a mipmap pyramid.");
+	  MipmapPyramid pyramid = new MipmapPyramid(image);
+	  PixelPlanes top = pyramid.getLevel(pyramid.size() - 1);
+	  doTest(pyramid.size() == 7 && pyramid.getLevel(1).width == 27 &&
+			  pyramid.getLevel(1).height == 19 && top.width == 1 && top.height == 1 &&
+			  pyramid.getLevel(2).toPixImage().equals(
+					  downscale(downscale(planes, 2), 2).toPixImage()) &&
+			  pyramid.levelFitting(10, 10).width == 7,
+			  "Incorrect mipmap pyramid.");
+  }
+}
@@ -0,0 +1,264 @@
+/* ImageStatistics.java */
+
+/**
+ *  The ImageStatistics class holds the histogram of each color channel of
+ *  an image, from which it derives the minimum, maximum, mean and
+ *  percentiles of each channel.  The histograms are primitive arrays of 256
+ *  counts, one per intensity.
+ *
+ *  The statistics of a PixImage are gathered in parallel, each task counting
+ *  a band of columns into histograms of its own.  The statistics of a
+ *  RunLengthEncoding are gathered from its runs, each color counted once
+ *  with the length of its run as weight, so the cost grows with the number
+ *  of runs, not the number of pixels.
+ */
+
+import java.util.concurrent.ForkJoinPool;
+
+public class ImageStatistics {
+
+	// The channels, as indices of the histograms.
+	public static final int RED = 0, GREEN = 1, BLUE = 2;
+
+	// Smallest number of pixels counted by one task.
+	static final int MIN_BAND = 1 << 16;
+
+	// histograms[c][i] is the number of pixels of intensity i in channel c.
+	private final long [][] histograms = new long[3][256];
+	private long pixels;
+
+
+  private ImageStatistics() {
+  }
+
+  /**
+   * of() returns the statistics of the specified PixImage.
+   *
+   * @param image the image.
+   * @return the statistics of the image.
+   */
+  public static ImageStatistics of(PixImage image) {
+	  return of(image, ForkJoinPool.commonPool(), MIN_BAND);
+  }
+
+  static ImageStatistics of(PixImage image, ForkJoinPool pool, int band) {
+	  ImageStatistics stats = new ImageStatistics();
+	  int width = image.getWidth();
+	  int height = image.getHeight();
+	  // The bands are bands of columns, the way a PixImage stores its pixels.
+	  ImageScaler.inBands(height, width, pool, band, (from, to) -> {
+		  long [][] counts = new long[3][256];
+		  for(int x=from; x<to; x++){
+			  for(int y=0; y<height; y++){
+				  // getPacked() allocates nothing, unlike getRgbAt() on a mapped image.
+				  int p = image.getPacked(x, y);
+				  counts[RED][(p >> 16) & 0xFF]++;
+				  counts[GREEN][(p >> 8) & 0xFF]++;
+				  counts[BLUE][p & 0xFF]++;
+			  }
+		  }
+		  stats.add(counts, (long) (to - from)*height);
+	  });
+	  return stats;
+  }
+
+  /**
+   * of() returns the statistics of the specified run-length encoding,
+   * counting each run once, weighted by its length.
+   *
+   * @param rle the run-length encoding.
+   * @return the statistics of the image the encoding represents.
+   */
+  public static ImageStatistics of(RunLengthEncoding rle) {
+	  ImageStatistics stats = new ImageStatistics();
+	  long [][] counts = stats.histograms;
+	  RunIterator it = rle.iterator();
+	  if(it.size() == 0)
+		  return stats;
+	  int [] run = it.current();
+	  while(true){
+		  counts[RED][run[1]] += run[0];
+		  counts[GREEN][run[2]] += run[0];
+		  counts[BLUE][run[3]] += run[0];
+		  stats.pixels += run[0];
+		  if(!it.hasNext())
+			  break;
+		  run = it.next();
+	  }
+	  return stats;
+  }
+
+  /**
+   * add() adds the specified counts of the specified number of pixels.
+   */
+  private synchronized void add(long[][] counts, long n) {
+	  for(int c=0; c<3; c++)
+		  for(int i=0; i<256; i++)
+			  histograms[c][i] += counts[c][i];
+	  pixels += n;
+  }
+
+  /**
+   * getPixelCount() returns the number of pixels counted.
+   *
+   * @return the number of pixels counted.
+   */
+  public long getPixelCount() {
+	  return pixels;
+  }
+
+  /**
+   * getHistogram() returns the histogram of the specified channel.
+   *
+   * @param channel RED, GREEN or BLUE.
+   * @return a new array of 256 counts, element i being the number of pixels
+   * of intensity i.
+   */
+  public long[] getHistogram(int channel) {
+	  return histograms[channel].clone();
+  }
+
+  /**
+   * getMin() returns the smallest intensity of the specified channel, or
+   * -1 if no pixel was counted.
+   *
+   * @param channel RED, GREEN or BLUE.
+   * @return the smallest intensity of the channel.
+   */
+  public int getMin(int channel) {
+	  long [] h = histograms[channel];
+	  for(int i=0; i<256; i++)
+		  if(h[i] > 0)
+			  return i;
+	  return -1;
+  }
+
+  /**
+   * getMax() returns the largest intensity of the specified channel, or -1
+   * if no pixel was counted.
+   *
+   * @param channel RED, GREEN or BLUE.
+   * @return the largest intensity of the channel.
+   */
+  public int getMax(int channel) {
+	  long [] h = histograms[channel];
+	  for(int i=255; i>=0; i--)
+		  if(h[i] > 0)
+			  return i;
+	  return -1;
+  }
+
+  /**
+   * getMean() returns the mean intensity of the specified channel, or 0 if
+   * no pixel was counted.
+   *
+   * @param channel RED, GREEN or BLUE.
+   * @return the mean intensity of the channel.
+   */
+  public double getMean(int channel) {
+	  if(pixels == 0)
+		  return 0;
+	  long [] h = histograms[channel];
+	  long sum = 0;
+	  for(int i=0; i<256; i++)
+		  sum += i*h[i];
+	  return (double) sum/pixels;
+  }
+
+  /**
+   * getPercentile() returns the smallest intensity of the specified
+   * channel such that at least the specified fraction of the pixels are no
+   * brighter, or -1 if no pixel was counted.  Auto-levels stretches the
+   * intensities between two percentiles, such as 0.01 and 0.99.
+   *
+   * @param channel RED, GREEN or BLUE.
+   * @param fraction a fraction of the pixels, in the range 0...1.
+   * @return the intensity at the percentile.
+   */
+  public int getPercentile(int channel, double fraction) {
+	  long [] h = histograms[channel];
+	  long target = Math.max(1, (long) Math.ceil(fraction*pixels));
+	  long seen = 0;
+	  for(int i=0; i<256; i++){
+		  seen += h[i];
+		  if(seen >= target)
+			  return i;
+	  }
+	  return -1;
+  }
+
+  /**
+   * toString() returns a String representation of these statistics in the
+   * format (pixels, [min, max, mean] of red, green and blue).
+   *
+   * @return a String representation of these statistics.
+   */
+  public String toString() {
+	  StringBuilder s = new StringBuilder("(" + pixels);
+	  for(int c=0; c<3; c++)
+		  s.append(",[").append(getMin(c)).append(',').append(getMax(c)).append(',')
+		  		.append(getMean(c)).append(']');
+	  return s.append(')').toString();
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() compares the statistics of an image gathered in parallel, from
+   * runs and pixel by pixel.
+   */
+  public static void main(String[] args) {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 71;
+	  int height = 44;
+	  PixImage image = new PixImage(width, height);
+	  long [] green = new long[256];
+	  long blueSum = 0;
+	  for(int x=0; x<width; x++){
+		  for(int y=0; y<height; y++){
+			  int p = (x/9 + y/6) % 3 == 0 ? 0x204060 + random.nextInt(50) : 0x10F0A0;
+			  image.setPacked(x, y, p);
+			  green[(p >> 8) & 0xFF]++;
+			  blueSum += p & 0xFF;
+		  }
+	  }
+
+	  System.out.println("Testing the statistics of a PixImage in bands.");
+	  ImageStatistics stats = of(image, ForkJoinPool.commonPool(), 100);
+	  doTest(java.util.Arrays.equals(stats.getHistogram(GREEN), green) &&
+			  stats.getPixelCount() == width*height &&
+			  stats.getMean(BLUE) == (double) blueSum/(width*height) &&
+			  stats.getMin(RED) == 0x10 && stats.getMax(RED) == 0x20 &&
+			  stats.getMax(BLUE) == 0xA0,
+			  "Incorrect statistics of a PixImage: " + stats);
+
+	  System.out.println("Testing the statistics of a run-length encoding.");
+	  ImageStatistics fromRuns = of(new RunLengthEncoding(image));
+	  boolean same = fromRuns.getPixelCount() == stats.getPixelCount();
+	  for(int c=0; c<3; c++)
+		  same &= java.util.Arrays.equals(fromRuns.getHistogram(c), stats.getHistogram(c));
+	  doTest(same && fromRuns.getPercentile(GREEN, 0.5) == stats.getPercentile(GREEN, 0.5) &&
+			  fromRuns.getPercentile(GREEN, 0) == 0x40 && fromRuns.getPercentile(GREEN, 1) == 0xF0,
+			  "Statistics from runs differ: " + fromRuns);
+  }
+}
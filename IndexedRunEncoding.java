@@ -0,0 +1,320 @@
+/* IndexedRunEncoding.java */
+
+/**
+ *  The IndexedRunEncoding class is a run-length encoding of an image with
+ *  few colors.  The distinct colors are held once in a Palette and each run
+ *  is a pair (length, palette index) stored in primitive arrays: the lengths
+ *  in an int array and the indices in a byte array if the palette has at
+ *  most Palette.SMALL_COLORS colors, or in a char array if it has at most
+ *  Palette.MAX_COLORS.  A run thus takes 5 or 6 bytes instead of the Run
+ *  node and RGB object of a RunLengthEncoding.
+ *
+ *  The runs follow the same rules as those of a RunLengthEncoding: they
+ *  cover the pixels in row-major order and no two consecutive runs have the
+ *  same index.
+ */
+
+public class IndexedRunEncoding {
+
+	private int width, height;
+	private Palette palette;
+	private int [] lengths;
+	// Indices of the runs; exactly one of the arrays is not null.
+	private byte [] smallIndices;
+	private char [] indices;
+	private int count;
+
+
+  /**
+   * IndexedRunEncoding() constructs an encoding from runs that are already
+   * indexed.
+   */
+  private IndexedRunEncoding(int width, int height, Palette palette,
+		  int[] lengths, int[] runIndices, int count) {
+	  this.width = width;
+	  this.height = height;
+	  this.palette = palette;
+	  this.count = count;
+	  this.lengths = java.util.Arrays.copyOf(lengths, count);
+	  if(palette.size() <= Palette.SMALL_COLORS){
+		  smallIndices = new byte[count];
+		  for(int i=0; i<count; i++)
+			  smallIndices[i] = (byte) runIndices[i];
+	  }
+	  else{
+		  indices = new char[count];
+		  for(int i=0; i<count; i++)
+			  indices[i] = (char) runIndices[i];
+	  }
+  }
+
+  /**
+   * encode() returns the indexed run-length encoding of the specified packed
+   * pixels in row-major order.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param pixels the packed RGB values of the image, as by RGB.pack().
+   * @return the indexed encoding, or null if the image has more than
+   * Palette.MAX_COLORS distinct colors.
+   */
+  public static IndexedRunEncoding encode(int width, int height, int[] pixels) {
+
+	  Palette palette = new Palette(Palette.MAX_COLORS);
+	  int [] lengths = new int[16];
+	  int [] runIndices = new int[16];
+	  int n = 0;
+	  int currentColor = -1;
+	  for(int p : pixels){
+		  // Equal colors are recognized by an int comparison; the palette is
+		  // only consulted at the start of a run.
+		  if(p == currentColor){
+			  lengths[n-1]++;
+			  continue;
+		  }
+		  int index = palette.add(p);
+		  if(index < 0)
+			  return null;
+		  if(n == lengths.length){
+			  lengths = java.util.Arrays.copyOf(lengths, 2*n);
+			  runIndices = java.util.Arrays.copyOf(runIndices, 2*n);
+		  }
+		  lengths[n] = 1;
+		  runIndices[n] = index;
+		  n++;
+		  currentColor = p;
+	  }
+	  return new IndexedRunEncoding(width, height, palette, lengths, runIndices, n);
+  }
+
+  /**
+   * encode() returns the indexed run-length encoding of the specified
+   * PixImage.
+   *
+   * @param image the image to encode.
+   * @return the indexed encoding, or null if the image has more than
+   * Palette.MAX_COLORS distinct colors.
+   */
+  public static IndexedRunEncoding encode(PixImage image) {
+	  return encode(image.getWidth(), image.getHeight(), image.toPackedArray());
+  }
+
+  /**
+   * encode() returns the indexed form of the specified run-length encoding,
+   * converting it run by run.
+   *
+   * @param rle the run-length encoding to convert.
+   * @return the indexed encoding, or null if the encoding has more than
+   * Palette.MAX_COLORS distinct colors.
+   */
+  public static IndexedRunEncoding encode(RunLengthEncoding rle) {
+	  PackedRuns runs = rle.toPackedRuns();
+	  Palette palette = new Palette(Palette.MAX_COLORS);
+	  int [] runIndices = new int[runs.count];
+	  for(int i=0; i<runs.count; i++){
+		  runIndices[i] = palette.add(runs.colors[i]);
+		  if(runIndices[i] < 0)
+			  return null;
+	  }
+	  return new IndexedRunEncoding(rle.getWidth(), rle.getHeight(), palette,
+			  runs.lengths, runIndices, runs.count);
+  }
+
+  /**
+   * getWidth() returns the width of the encoded image.
+   *
+   * @return the width of the encoded image.
+   */
+  public int getWidth() {
+	  return width;
+  }
+
+  /**
+   * getHeight() returns the height of the encoded image.
+   *
+   * @return the height of the encoded image.
+   */
+  public int getHeight() {
+	  return height;
+  }
+
+  /**
+   * getPalette() returns the palette of the encoded image.
+   *
+   * @return the palette of the encoded image.
+   */
+  public Palette getPalette() {
+	  return palette;
+  }
+
+  /**
+   * getRunCount() returns the number of runs.
+   *
+   * @return the number of runs.
+   */
+  public int getRunCount() {
+	  return count;
+  }
+
+  /**
+   * getRunLength() returns the length of the specified run.
+   *
+   * @param run the number of the run.
+   * @return the length of the run.
+   */
+  public int getRunLength(int run) {
+	  return lengths[run];
+  }
+
+  /**
+   * getRunIndex() returns the palette index of the specified run.
+   *
+   * @param run the number of the run.
+   * @return the palette index of the color of the run.
+   */
+  public int getRunIndex(int run) {
+	  return smallIndices != null ? smallIndices[run] & 0xFF : indices[run];
+  }
+
+  /**
+   * getIndexBits() returns the number of bits each palette index takes.
+   *
+   * @return 8 or 16.
+   */
+  public int getIndexBits() {
+	  return smallIndices != null ? 8 : 16;
+  }
+
+  /**
+   * estimatedBytes() returns the number of bytes taken by the runs and the
+   * palette, without object headers.
+   *
+   * @return the number of bytes taken by the runs and the palette.
+   */
+  public long estimatedBytes() {
+	  return (long) count*(4 + getIndexBits()/8) + 4L*palette.size();
+  }
+
+  /**
+   * toPackedRuns() returns the runs with their colors packed.
+   */
+  PackedRuns toPackedRuns() {
+	  PackedRuns runs = new PackedRuns(count);
+	  for(int i=0; i<count; i++)
+		  runs.append(lengths[i], palette.getColor(getRunIndex(i)));
+	  return runs;
+  }
+
+  /**
+   * toRunLengthEncoding() returns a RunLengthEncoding of the encoded image.
+   *
+   * @return a new RunLengthEncoding of the encoded image.
+   */
+  public RunLengthEncoding toRunLengthEncoding() {
+	  return new RunLengthEncoding(width, height, toPackedRuns());
+  }
+
+  /**
+   * toPixImage() returns a PixImage holding the encoded image.
+   *
+   * @return a new PixImage holding the encoded image.
+   */
+  public PixImage toPixImage() {
+	  PixImage image = new PixImage(width, height);
+	  int position = 0;
+	  for(int i=0; i<count; i++){
+		  int rgb = palette.getColor(getRunIndex(i));
+		  for(int k=0; k<lengths[i]; k++){
+			  image.setPacked(position % width, position / width, rgb);
+			  position++;
+		  }
+	  }
+	  return image;
+  }
+
+  /**
+   * toString() returns a String representation of this encoding in the
+   * format (width, height, palette, [length:index, ...]).
+   *
+   * @return a String representation of this encoding.
+   */
+  public String toString() {
+	  StringBuilder s = new StringBuilder("(" + width + "," + height + "," + palette + ",[");
+	  for(int i=0; i<count; i++){
+		  if(i > 0)
+			  s.append(",");
+		  s.append(lengths[i]).append(":").append(getRunIndex(i));
+	  }
+	  return s.append("])").toString();
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() checks the conversions between PixImage, RunLengthEncoding and
+   * IndexedRunEncoding on images with few and with many colors.
+   */
+  public static void main(String[] args) {
+
+	  PixImage chart = new PixImage(40, 30);
+	  for(int x=0; x<40; x++)
+		  for(int y=0; y<30; y++)
+			  chart.setPacked(x, y, ((x/8) * 0x330000) | ((y/10) * 0x55));
+
+	  System.out.println("Testing encoding of an image with 15 colors.");
+	  IndexedRunEncoding indexed = IndexedRunEncoding.encode(chart);
+	  doTest(indexed.getPalette().size() == 15 && indexed.getIndexBits() == 8 &&
+			  indexed.toPixImage().equals(chart), "Incorrect indexed encoding: " + indexed);
+
+	  System.out.println("Testing conversion to and from RunLengthEncoding.");
+	  RunLengthEncoding rle = new RunLengthEncoding(chart);
+	  IndexedRunEncoding fromRle = IndexedRunEncoding.encode(rle);
+	  doTest(fromRle.getRunCount() == rle.runCount() &&
+			  fromRle.toRunLengthEncoding().toPixImage().equals(chart),
+			  "Incorrect conversion of RLE: " + fromRle);
+
+	  System.out.println("Testing encoding of an image with 1000 colors.");
+	  PixImage many = new PixImage(50, 20);
+	  for(int x=0; x<50; x++)
+		  for(int y=0; y<20; y++)
+			  many.setPacked(x, y, y*50 + x);
+	  IndexedRunEncoding wide = IndexedRunEncoding.encode(many);
+	  doTest(wide.getPalette().size() == 1000 && wide.getIndexBits() == 16 &&
+			  wide.getRunIndex(999) == 999 && wide.toPixImage().equals(many),
+			  "Incorrect 16-bit indexed encoding.");
+
+	  System.out.println("Testing the color limit of a palette.");
+	  doTest(Palette.extract(many, Palette.SMALL_COLORS) == null &&
+			  Palette.extract(chart, Palette.SMALL_COLORS).size() == 15,
+			  "Incorrect color limit.");
+
+	  System.out.println("Testing a palette grown to MAX_COLORS.");
+	  Palette full = new Palette(Palette.MAX_COLORS);
+	  boolean found = true;
+	  for(int c=0; c<Palette.MAX_COLORS; c++)
+		  found &= full.add(c*251) == c;
+	  for(int c=0; c<Palette.MAX_COLORS; c++)
+		  found &= full.indexOf(c*251) == c && full.getColor(c) == c*251;
+	  doTest(found && full.add(0xFFFFFF) == -1 && full.indexOf(1) == -1,
+			  "Incorrect palette of MAX_COLORS colors.");
+  }
+}
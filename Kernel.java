@@ -0,0 +1,319 @@
+/* Kernel.java */
+
+/**
+ *  The Kernel class represents the weights of a convolution:  a rectangle
+ *  of odd width and height, centered on the output pixel, whose weights are
+ *  multiplied by the pixels they cover, summed, and divided by a divisor.
+ *  The weights are stored in row-major order, the weight at column i and
+ *  row j covering the pixel at (x + i - width/2, y + j - height/2); they
+ *  are not mirrored, so SOBEL_X is the west column minus the east column,
+ *  as in PixImage.sobelEdges().
+ *
+ *  A kernel is either an integer kernel, whose weights and divisor are
+ *  integers and whose filtered intensities are rounded toward zero as
+ *  boxBlur() rounds them, or a float kernel, whose filtered intensities are
+ *  rounded to the nearest integer.  A kernel is immutable.
+ *
+ *  When the kernel is constructed, it is checked for separability:  if every
+ *  row of weights is a multiple of one row, the kernel is the product of a
+ *  vertical and a horizontal vector, and Convolution runs it as two 1-D
+ *  passes of width + height multiplications per pixel instead of
+ *  width*height.  Integer kernels are separated into integer vectors, so the
+ *  passes are exact.
+ */
+
+public class Kernel {
+
+	// Relative error tolerated when separating a float kernel.
+	static final double SEPARABLE_TOLERANCE = 1e-6;
+
+	public static final Kernel BOX_3 = of(3, 3, 9, 1, 1, 1, 1, 1, 1, 1, 1, 1);
+	public static final Kernel SOBEL_X = of(3, 3, 1, 1, 0, -1, 2, 0, -2, 1, 0, -1);
+	public static final Kernel SOBEL_Y = of(3, 3, 1, 1, 2, 1, 0, 0, 0, -1, -2, -1);
+	public static final Kernel PREWITT_X = of(3, 3, 1, 1, 0, -1, 1, 0, -1, 1, 0, -1);
+	public static final Kernel PREWITT_Y = of(3, 3, 1, 1, 1, 1, 0, 0, 0, -1, -1, -1);
+	public static final Kernel SCHARR_X = of(3, 3, 1, 3, 0, -3, 10, 0, -10, 3, 0, -3);
+	public static final Kernel SCHARR_Y = of(3, 3, 1, 3, 10, 3, 0, 0, 0, -3, -10, -3);
+	public static final Kernel LAPLACIAN = of(3, 3, 1, 0, 1, 0, 1, -4, 1, 0, 1, 0);
+	public static final Kernel SHARPEN = of(3, 3, 1, 0, -1, 0, -1, 5, -1, 0, -1, 0);
+
+	private final int width, height;
+	private final float [] weights;
+	private final float divisor;
+	private final boolean integer;
+	// The vertical and horizontal vectors whose product is the kernel, or
+	// null if it is not separable.
+	private final float [] column, row;
+
+
+  private Kernel(int width, int height, float[] weights, float divisor, boolean integer) {
+	  if(width < 1 || height < 1 || width % 2 == 0 || height % 2 == 0)
+		  throw new IllegalArgumentException("A kernel is " + width + "x" + height +
+				  ", not odd by odd");
+	  if(weights.length != width*height)
+		  throw new IllegalArgumentException(weights.length + " weights for a " + width + "x" +
+				  height + " kernel");
+	  if(divisor == 0)
+		  throw new IllegalArgumentException("The divisor of a kernel is zero");
+	  this.width = width;
+	  this.height = height;
+	  this.weights = weights;
+	  this.divisor = divisor;
+	  this.integer = integer;
+	  float [][] factors = integer ? separateIntegers() : separateFloats();
+	  column = factors == null ? null : factors[0];
+	  row = factors == null ? null : factors[1];
+  }
+
+  /**
+   * of() returns an integer kernel of the specified size, divisor and
+   * weights.
+   *
+   * @param width the width of the kernel, odd.
+   * @param height the height of the kernel, odd.
+   * @param divisor the divisor of the weighted sums, not zero.
+   * @param weights the width*height weights in row-major order.
+   * @return the kernel.
+   * @throws IllegalArgumentException if the size is even, the number of
+   * weights is wrong or the divisor is zero.
+   */
+  public static Kernel of(int width, int height, int divisor, int... weights) {
+	  float [] w = new float[weights.length];
+	  for(int i=0; i<w.length; i++)
+		  w[i] = weights[i];
+	  return new Kernel(width, height, w, divisor, true);
+  }
+
+  /**
+   * of() returns a float kernel of the specified size and weights, with a
+   * divisor of one.
+   *
+   * @param width the width of the kernel, odd.
+   * @param height the height of the kernel, odd.
+   * @param weights the width*height weights in row-major order.
+   * @return the kernel.
+   * @throws IllegalArgumentException if the size is even or the number of
+   * weights is wrong.
+   */
+  public static Kernel of(int width, int height, float... weights) {
+	  return new Kernel(width, height, weights.clone(), 1, false);
+  }
+
+  /**
+   * box() returns the integer kernel averaging the square of the specified
+   * radius around each pixel.
+   *
+   * @param radius the radius of the square, at least zero.
+   * @return the box kernel.
+   */
+  public static Kernel box(int radius) {
+	  int side = 2*radius + 1;
+	  int [] weights = new int[side*side];
+	  java.util.Arrays.fill(weights, 1);
+	  return of(side, side, side*side, weights);
+  }
+
+  /**
+   * gaussian() returns the float kernel of a Gaussian of the specified
+   * standard deviation, truncated at three deviations and normalized so
+   * that its weights sum to one.
+   *
+   * @param sigma the standard deviation, in pixels, greater than zero.
+   * @return the Gaussian kernel.
+   */
+  public static Kernel gaussian(double sigma) {
+	  if(!(sigma > 0))
+		  throw new IllegalArgumentException("The deviation " + sigma + " is not positive");
+	  int radius = (int) Math.ceil(3*sigma);
+	  int side = 2*radius + 1;
+	  double [] g = new double[side];
+	  double sum = 0;
+	  for(int i=0; i<side; i++){
+		  g[i] = Math.exp(-(double) (i - radius)*(i - radius)/(2*sigma*sigma));
+		  sum += g[i];
+	  }
+	  float [] weights = new float[side*side];
+	  for(int j=0; j<side; j++)
+		  for(int i=0; i<side; i++)
+			  weights[j*side + i] = (float) (g[j]*g[i]/(sum*sum));
+	  return new Kernel(side, side, weights, 1, false);
+  }
+
+  /**
+   * separateIntegers() returns the integer column and row vectors whose
+   * product is the kernel, or null if there are none.  The row is a row of
+   * the kernel divided by the greatest common divisor of its weights, so
+   * that every other row, if the kernel is separable, is an integer multiple
+   * of it.
+   */
+  private float[][] separateIntegers() {
+	  int pr = nonZeroRow();
+	  if(pr < 0)
+		  return null;
+	  long g = 0;
+	  for(int i=0; i<width; i++)
+		  g = gcd(g, Math.abs((long) weights[pr*width + i]));
+	  float [] r = new float[width];
+	  int pc = -1;
+	  for(int i=0; i<width; i++){
+		  r[i] = weights[pr*width + i]/g;
+		  if(pc < 0 && r[i] != 0)
+			  pc = i;
+	  }
+	  float [] c = new float[height];
+	  for(int j=0; j<height; j++){
+		  long w = (long) weights[j*width + pc];
+		  if(w % (long) r[pc] != 0)
+			  return null;
+		  c[j] = w/(long) r[pc];
+		  for(int i=0; i<width; i++)
+			  if((long) weights[j*width + i] != (long) c[j]*(long) r[i])
+				  return null;
+	  }
+	  return new float[][] { c, r };
+  }
+
+  /**
+   * separateFloats() returns column and row vectors whose product is the
+   * kernel within SEPARABLE_TOLERANCE of its largest weight, or null if
+   * there are none.
+   */
+  private float[][] separateFloats() {
+	  int pivot = 0;
+	  for(int k=1; k<weights.length; k++)
+		  if(Math.abs(weights[k]) > Math.abs(weights[pivot]))
+			  pivot = k;
+	  double max = Math.abs(weights[pivot]);
+	  if(max == 0)
+		  return null;
+	  int pr = pivot/width;
+	  int pc = pivot % width;
+	  float [] c = new float[height];
+	  float [] r = new float[width];
+	  for(int j=0; j<height; j++)
+		  c[j] = weights[j*width + pc];
+	  for(int i=0; i<width; i++)
+		  r[i] = (float) ((double) weights[pr*width + i]/weights[pivot]);
+	  for(int j=0; j<height; j++)
+		  for(int i=0; i<width; i++)
+			  if(Math.abs(weights[j*width + i] - (double) c[j]*r[i]) > SEPARABLE_TOLERANCE*max)
+				  return null;
+	  return new float[][] { c, r };
+  }
+
+  /**
+   * nonZeroRow() returns the index of the first row holding a non-zero
+   * weight, or -1 if every weight is zero.
+   */
+  private int nonZeroRow() {
+	  for(int k=0; k<weights.length; k++)
+		  if(weights[k] != 0)
+			  return k/width;
+	  return -1;
+  }
+
+  /**
+   * gcd() returns the greatest common divisor of a and b, or a if b is zero.
+   */
+  private static long gcd(long a, long b) {
+	  while(b != 0){
+		  long t = a % b;
+		  a = b;
+		  b = t;
+	  }
+	  return a;
+  }
+
+  /**
+   * getWidth() returns the width of the kernel.
+   *
+   * @return the width of the kernel.
+   */
+  public int getWidth() {
+	  return width;
+  }
+
+  /**
+   * getHeight() returns the height of the kernel.
+   *
+   * @return the height of the kernel.
+   */
+  public int getHeight() {
+	  return height;
+  }
+
+  /**
+   * getWeight() returns the weight at the specified column and row.
+   *
+   * @param i the column, in the range 0...width-1.
+   * @param j the row, in the range 0...height-1.
+   * @return the weight.
+   */
+  public float getWeight(int i, int j) {
+	  return weights[j*width + i];
+  }
+
+  /**
+   * getDivisor() returns the divisor of the weighted sums.
+   *
+   * @return the divisor.
+   */
+  public float getDivisor() {
+	  return divisor;
+  }
+
+  /**
+   * isInteger() returns true if the kernel is an integer kernel, whose
+   * filtered intensities are rounded toward zero.
+   *
+   * @return true if the kernel is an integer kernel.
+   */
+  public boolean isInteger() {
+	  return integer;
+  }
+
+  /**
+   * isSeparable() returns true if the kernel is the product of a vertical
+   * and a horizontal vector.
+   *
+   * @return true if the kernel is separable.
+   */
+  public boolean isSeparable() {
+	  return row != null;
+  }
+
+  /**
+   * weights() returns the weights in row-major order; the array is shared.
+   */
+  float[] weights() {
+	  return weights;
+  }
+
+  /**
+   * column() returns the vertical vector of a separable kernel; the array is
+   * shared.
+   */
+  float[] column() {
+	  return column;
+  }
+
+  /**
+   * row() returns the horizontal vector of a separable kernel; the array is
+   * shared.
+   */
+  float[] row() {
+	  return row;
+  }
+
+  /**
+   * getTotal() returns the sum of the weights.
+   *
+   * @return the sum of the weights.
+   */
+  public float getTotal() {
+	  float total = 0;
+	  for(float w : weights)
+		  total += w;
+	  return total;
+  }
+}
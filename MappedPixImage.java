@@ -0,0 +1,203 @@
+/* MappedPixImage.java */
+
+/**
+ *  The MappedPixImage class is a PixImage whose pixels are bytes of a
+ *  buffer, usually a region of a file mapped by RawImageIO.map(), rather
+ *  than RGB objects.  Reading or setting a pixel reads or writes the buffer
+ *  directly, so a mapped file is viewed and changed without copying it, and
+ *  pages of the file are only read when their pixels are touched.
+ *
+ *  The bytes are laid out as RawImageIO.Layout describes.  Because the
+ *  pixels are not RGB objects, getRgbAt() returns a copy of a pixel:  to
+ *  change a pixel, use setPixel() or setPacked().  Changes to a writable
+ *  mapping reach the file when the system writes the pages back, or at once
+ *  on force().
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+
+public class MappedPixImage extends PixImage {
+
+	private final RawImageIO.Layout layout;
+	// The pixels, from index 0 of the buffer.
+	private final ByteBuffer bytes;
+	// The number of pixels, which is the distance between planes.
+	private final int pixels;
+	// The mapped file, or null if the bytes are not a mapped file.
+	private final Path path;
+
+
+  /**
+   * MappedPixImage() constructs a PixImage of the specified width and height
+   * viewing the specified bytes, which hold 3*width*height bytes from index
+   * 0 in the specified layout.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param layout the layout of the bytes.
+   * @param bytes the pixels.
+   * @param path the file the bytes are mapped from, or null.
+   */
+  MappedPixImage(int width, int height, RawImageIO.Layout layout, ByteBuffer bytes, Path path) {
+	  super(width, height, null);
+	  this.layout = layout;
+	  this.bytes = bytes;
+	  this.pixels = width*height;
+	  this.path = path;
+  }
+
+  /**
+   * getLayout() returns the layout of the pixels in the buffer.
+   *
+   * @return the layout of the pixels.
+   */
+  public RawImageIO.Layout getLayout() {
+	  return layout;
+  }
+
+  /**
+   * getPath() returns the file the pixels are mapped from, or null.
+   */
+  Path getPath() {
+	  return path;
+  }
+
+  /**
+   * getBytes() returns a view of the buffer holding the pixels, positioned
+   * at the first byte and limited after the last.
+   */
+  ByteBuffer getBytes() {
+	  ByteBuffer view = bytes.duplicate();
+	  view.clear().limit(3*pixels);
+	  return view;
+  }
+
+  /**
+   * index() returns the index in the buffer of the specified channel (0 for
+   * red, 1 for green, 2 for blue) of the pixel at coordinate (x, y).
+   */
+  private int index(int x, int y, int channel) {
+	  if(x < 0 || x >= getWidth() || y < 0 || y >= getHeight())
+		  throw new IndexOutOfBoundsException("(" + x + "," + y + ") is outside the image");
+	  int i = y*getWidth() + x;
+	  return layout == RawImageIO.Layout.PLANAR ? channel*pixels + i : 3*i + channel;
+  }
+
+  /**
+   * getRed() returns the red intensity of the pixel at coordinate (x, y).
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the red intensity of the pixel at coordinate (x, y).
+   */
+  public short getRed(int x, int y) {
+	  return (short) (bytes.get(index(x, y, 0)) & 0xFF);
+  }
+
+  /**
+   * getGreen() returns the green intensity of the pixel at coordinate (x, y).
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the green intensity of the pixel at coordinate (x, y).
+   */
+  public short getGreen(int x, int y) {
+	  return (short) (bytes.get(index(x, y, 1)) & 0xFF);
+  }
+
+  /**
+   * getBlue() returns the blue intensity of the pixel at coordinate (x, y).
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the blue intensity of the pixel at coordinate (x, y).
+   */
+  public short getBlue(int x, int y) {
+	  return (short) (bytes.get(index(x, y, 2)) & 0xFF);
+  }
+
+  /**
+   * getRgbAt() returns a new RGB object holding the intensities of the pixel
+   * at coordinate (x, y).  Changing it does not change the image.
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return a copy of the pixel at coordinate (x, y).
+   */
+  public RGB getRgbAt(int x, int y) {
+	  return RGB.unpack(getPacked(x, y));
+  }
+
+  /**
+   * getPacked() returns the red, green and blue intensities of the pixel at
+   * coordinate (x, y) packed into an int as by RGB.pack().
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the packed RGB value 0xRRGGBB of the pixel at coordinate (x, y).
+   */
+  public int getPacked(int x, int y) {
+	  int i = index(x, y, 0);
+	  int step = layout == RawImageIO.Layout.PLANAR ? pixels : 1;
+	  return ((bytes.get(i) & 0xFF) << 16) | ((bytes.get(i + step) & 0xFF) << 8) |
+			  (bytes.get(i + 2*step) & 0xFF);
+  }
+
+  /**
+   * setPacked() sets the pixel at coordinate (x, y) to the red, green and
+   * blue intensities packed into an int as by RGB.pack().
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @param rgb the packed RGB value 0xRRGGBB of the pixel.
+   * @throws java.nio.ReadOnlyBufferException if the image is read-only.
+   */
+  public void setPacked(int x, int y, int rgb) {
+	  int i = index(x, y, 0);
+	  int step = layout == RawImageIO.Layout.PLANAR ? pixels : 1;
+	  bytes.put(i, (byte) (rgb >> 16));
+	  bytes.put(i + step, (byte) (rgb >> 8));
+	  bytes.put(i + 2*step, (byte) rgb);
+  }
+
+  /**
+   * setPixel() sets the pixel at coordinate (x, y) to specified red, green,
+   * and blue intensities.
+   *
+   * If any of the three color intensities is NOT in the range 0...255, then
+   * this method does NOT change any of the pixel intensities.
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @param red the new red intensity for the pixel at coordinate (x, y).
+   * @param green the new green intensity for the pixel at coordinate (x, y).
+   * @param blue the new blue intensity for the pixel at coordinate (x, y).
+   * @throws java.nio.ReadOnlyBufferException if the image is read-only.
+   */
+  public void setPixel(int x, int y, short red, short green, short blue) {
+	  if ((red<0 || red>255) || (green<0 || green>255) || (blue<0 || blue>255))
+		  return;
+	  setPacked(x, y, (red << 16) | (green << 8) | blue);
+  }
+
+  /**
+   * toPackedArray() returns the pixels of "this" MappedPixImage packed as by
+   * RGB.pack(), in row-major order, reading the buffer in bulk.
+   *
+   * @return a new array of width*height packed RGB values.
+   */
+  public int[] toPackedArray() {
+	  return RawImageIO.toPacked(getBytes(), layout, pixels);
+  }
+
+  /**
+   * force() writes any changes to a mapped file to the storage device.  It
+   * does nothing if the buffer is not mapped from a file.
+   */
+  public void force() {
+	  if(bytes instanceof MappedByteBuffer)
+		  ((MappedByteBuffer) bytes).force();
+  }
+}
@@ -0,0 +1,113 @@
+/* MipmapPyramid.java */
+
+/**
+ *  The MipmapPyramid class holds the levels of a mipmap pyramid:  level 0 is
+ *  the image itself, and each further level is the level before it halved
+ *  by ImageScaler.downscale(), until a level of 1 x 1 pixel.  Each level is
+ *  made from the one before it, so the whole pyramid costs about 4/3 of a
+ *  single pass over the image, and the rows of each level are filled in
+ *  parallel.
+ *
+ *  levels() produces the same levels one at a time without keeping them,
+ *  for callers that write each level out as soon as it is ready.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class MipmapPyramid implements Iterable<PixelPlanes> {
+
+	private final List<PixelPlanes> levels = new ArrayList<PixelPlanes>();
+
+
+  /**
+   * MipmapPyramid() constructs the pyramid of the specified image.
+   *
+   * @param image the image at level 0.
+   */
+  public MipmapPyramid(PixImage image) {
+	  this(PixelPlanes.of(image));
+  }
+
+  /**
+   * MipmapPyramid() constructs the pyramid of the specified planes, which
+   * become level 0 without being copied.
+   *
+   * @param base the planes at level 0.
+   */
+  public MipmapPyramid(PixelPlanes base) {
+	  Iterator<PixelPlanes> it = levels(base);
+	  while(it.hasNext())
+		  levels.add(it.next());
+  }
+
+  /**
+   * levels() returns an iterator over the levels of the pyramid of the
+   * specified planes, starting with the planes themselves.  Each level is
+   * computed when next() is called, from the level returned before it.
+   *
+   * @param base the planes at level 0.
+   * @return an iterator over the levels of the pyramid.
+   */
+  public static Iterator<PixelPlanes> levels(PixelPlanes base) {
+	  return new Iterator<PixelPlanes>() {
+		  private PixelPlanes last;
+
+		  public boolean hasNext() {
+			  return last == null || last.width > 1 || last.height > 1;
+		  }
+
+		  public PixelPlanes next() {
+			  if(!hasNext())
+				  throw new NoSuchElementException();
+			  last = last == null ? base : ImageScaler.downscale(last, 2);
+			  return last;
+		  }
+	  };
+  }
+
+  /**
+   * size() returns the number of levels.
+   *
+   * @return the number of levels.
+   */
+  public int size() {
+	  return levels.size();
+  }
+
+  /**
+   * getLevel() returns the specified level.
+   *
+   * @param level the level, 0 being the full image.
+   * @return the planes of the level.
+   */
+  public PixelPlanes getLevel(int level) {
+	  return levels.get(level);
+  }
+
+  /**
+   * levelFitting() returns the largest level no wider and no higher than
+   * the specified size, or the 1 x 1 level if none is that small.
+   *
+   * @param maxWidth the largest width allowed.
+   * @param maxHeight the largest height allowed.
+   * @return the planes of the largest level that fits.
+   */
+  public PixelPlanes levelFitting(int maxWidth, int maxHeight) {
+	  for(PixelPlanes level : levels)
+		  if(level.width <= maxWidth && level.height <= maxHeight)
+			  return level;
+	  return levels.get(levels.size() - 1);
+  }
+
+  /**
+   * iterator() returns an iterator over the levels, from level 0.
+   *
+   * @return an iterator over the levels.
+   */
+  public Iterator<PixelPlanes> iterator() {
+	  return levels.iterator();
+  }
+}
@@ -0,0 +1,123 @@
+/* PackBits.java */
+
+/**
+ *  The PackBits class compresses and expands bytes in the PackBits scheme
+ *  of TIFF compression 32773.  The compressed data is a sequence of
+ *  packets, each starting with a signed header byte n:
+ *
+ *    0 ... 127    the next n+1 bytes are copied literally;
+ *   -127 ... -1   the next byte is repeated 1-n times;
+ *   -128          no operation.
+ *
+ *  A packet never covers more than MAX_PACKET bytes.  TIFF requires each
+ *  row to be compressed separately, so that no packet crosses a row.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class PackBits {
+
+	// Largest number of bytes covered by one packet.
+	public static final int MAX_PACKET = 128;
+
+  private PackBits() {
+  }
+
+  /**
+   * maxEncodedLength() returns the largest number of bytes encode() may
+   * write for the specified number of bytes.
+   *
+   * @param length the number of bytes to compress.
+   * @return the largest compressed length.
+   */
+  public static int maxEncodedLength(int length) {
+	  return length + (length + MAX_PACKET - 1)/MAX_PACKET;
+  }
+
+  /**
+   * encode() compresses the bytes from..to-1 of src into dst.  Three or
+   * more equal bytes become a repeat packet; other bytes are gathered into
+   * literal packets.
+   *
+   * @param src the bytes to compress.
+   * @param from the index of the first byte.
+   * @param to the index after the last byte.
+   * @param dst the buffer receiving the packets.
+   */
+  public static void encode(byte[] src, int from, int to, ByteBuffer dst) {
+	  int i = from;
+	  while(i < to){
+		  int run = 1;
+		  while(i + run < to && run < MAX_PACKET && src[i + run] == src[i])
+			  run++;
+		  if(run >= 3){
+			  encodeRepeat(src[i], run, dst);
+			  i += run;
+			  continue;
+		  }
+		  // A literal packet, ending before the next three equal bytes.
+		  int start = i;
+		  while(i < to && i - start < MAX_PACKET){
+			  if(i + 2 < to && src[i] == src[i+1] && src[i] == src[i+2])
+				  break;
+			  i++;
+		  }
+		  dst.put((byte) (i - start - 1));
+		  dst.put(src, start, i - start);
+	  }
+  }
+
+  /**
+   * encodeRepeat() writes the specified byte repeated the specified number
+   * of times, in as many repeat packets as the length needs; a single byte
+   * left over becomes a literal packet.
+   *
+   * @param value the byte to repeat.
+   * @param length the number of repetitions.
+   * @param dst the buffer receiving the packets.
+   */
+  public static void encodeRepeat(byte value, int length, ByteBuffer dst) {
+	  while(length > 0){
+		  int n = Math.min(length, MAX_PACKET);
+		  if(n == 1)
+			  dst.put((byte) 0);
+		  else
+			  dst.put((byte) (1 - n));
+		  dst.put(value);
+		  length -= n;
+	  }
+  }
+
+  /**
+   * decode() expands packets from src into the bytes from..to-1 of dst.
+   * Packets are read until the bytes are filled.
+   *
+   * @param src the buffer holding the packets.
+   * @param dst the array receiving the bytes.
+   * @param from the index of the first byte to fill.
+   * @param to the index after the last byte to fill.
+   * @throws IOException if the packets end early or overflow the bytes.
+   */
+  public static void decode(ByteBuffer src, byte[] dst, int from, int to) throws IOException {
+	  int i = from;
+	  while(i < to){
+		  if(!src.hasRemaining())
+			  throw new IOException("PackBits data ends " + (to - i) + " bytes early");
+		  int n = src.get();
+		  if(n >= 0){
+			  if(i + n + 1 > to || src.remaining() < n + 1)
+				  throw new IOException("Corrupt PackBits literal packet");
+			  src.get(dst, i, n + 1);
+			  i += n + 1;
+		  }
+		  else if(n != -128){
+			  if(i + 1 - n > to || !src.hasRemaining())
+				  throw new IOException("Corrupt PackBits repeat packet");
+			  byte value = src.get();
+			  java.util.Arrays.fill(dst, i, i + 1 - n, value);
+			  i += 1 - n;
+		  }
+	  }
+  }
+}
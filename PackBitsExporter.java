@@ -0,0 +1,213 @@
+/* PackBitsExporter.java */
+
+/**
+ *  The PackBitsExporter class writes a RunLengthEncoding as a TIFF file
+ *  compressed with PackBits, in one pass over its runs and without decoding
+ *  any pixel.  The image is stored with red, green and blue in separate
+ *  planes (PlanarConfiguration 2), where a run of pixels of one color is a
+ *  run of equal bytes in each plane and so becomes a PackBits repeat packet
+ *  directly.  With the samples of a pixel together, a run of pixels would
+ *  be a repeated three-byte pattern, which PackBits cannot express.
+ *
+ *  Each run is split where it crosses the end of a row, since PackBits
+ *  packets may not cross rows, and every repeat packet covers at most 128
+ *  bytes.  Within a plane, consecutive runs whose colors share that plane's
+ *  intensity are merged, and runs too short for a repeat packet are
+ *  gathered into literal packets.  The three planes of a strip are built
+ *  side by side and written as soon as the strip is complete.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+public class PackBitsExporter {
+
+	// Shortest run of equal bytes written as a repeat packet.
+	static final int MIN_REPEAT = 3;
+
+  private PackBitsExporter() {
+  }
+
+  /**
+   *  The PlaneEncoder class compresses the bytes of one plane of a strip,
+   *  fed as runs of equal bytes, into PackBits packets.
+   */
+  private static class PlaneEncoder {
+
+	  final ByteBuffer out;
+	  // The pending run of equal bytes.
+	  private byte value;
+	  private int length;
+	  // The pending bytes of a literal packet.
+	  private final byte [] literal = new byte[PackBits.MAX_PACKET];
+	  private int literalLength;
+
+	  PlaneEncoder(int capacity) {
+		  out = ByteBuffer.allocate(capacity);
+	  }
+
+	  /**
+	   * feed() adds a run of the specified number of the specified byte.
+	   */
+	  void feed(byte b, int n) {
+		  if(length > 0 && b == value){
+			  length += n;
+			  return;
+		  }
+		  flushRun();
+		  value = b;
+		  length = n;
+	  }
+
+	  /**
+	   * flushRun() writes the pending run as repeat packets, or adds it to
+	   * the pending literal packet if it is short.
+	   */
+	  private void flushRun() {
+		  if(length >= MIN_REPEAT){
+			  flushLiteral();
+			  PackBits.encodeRepeat(value, length, out);
+		  }
+		  else
+			  for(int i=0; i<length; i++){
+				  if(literalLength == literal.length)
+					  flushLiteral();
+				  literal[literalLength++] = value;
+			  }
+		  length = 0;
+	  }
+
+	  /**
+	   * flushLiteral() writes the pending literal packet.
+	   */
+	  private void flushLiteral() {
+		  if(literalLength > 0){
+			  out.put((byte) (literalLength - 1));
+			  out.put(literal, 0, literalLength);
+			  literalLength = 0;
+		  }
+	  }
+
+	  /**
+	   * endRow() writes every pending packet, so that no packet crosses the
+	   * end of the row.
+	   */
+	  void endRow() {
+		  flushRun();
+		  flushLiteral();
+	  }
+  }
+
+  /**
+   * write() writes the specified run-length encoding to the specified file
+   * as a planar PackBits TIFF image in strips of the specified number of
+   * rows.
+   *
+   * @param rle the run-length encoding to write.
+   * @param path the file to write.
+   * @param rowsPerStrip the number of rows per strip.
+   * @throws IOException if the file cannot be written.
+   */
+  public static void write(RunLengthEncoding rle, Path path, int rowsPerStrip) throws IOException {
+	  int width = rle.getWidth();
+	  int height = rle.getHeight();
+	  try(TiffWriter writer = TiffWriter.planar(path, width, height, rowsPerStrip)) {
+		  int rows = writer.getRowsPerStrip();
+		  PlaneEncoder [] planes = new PlaneEncoder[3];
+		  for(int p=0; p<3; p++)
+			  planes[p] = new PlaneEncoder(rows*PackBits.maxEncodedLength(width));
+
+		  RunIterator it = rle.iterator();
+		  int [] run = it.current();
+		  int left = run[0];
+		  for(int y=0; y<height; y++){
+			  // Feed the runs of the row, split at its end.
+			  int filled = 0;
+			  while(filled < width){
+				  if(left == 0){
+					  run = it.next();
+					  left = run[0];
+				  }
+				  int n = Math.min(left, width - filled);
+				  for(int p=0; p<3; p++)
+					  planes[p].feed((byte) run[p+1], n);
+				  filled += n;
+				  left -= n;
+			  }
+			  for(int p=0; p<3; p++)
+				  planes[p].endRow();
+
+			  if((y + 1) % rows == 0 || y == height - 1){
+				  for(int p=0; p<3; p++){
+					  ByteBuffer out = planes[p].out;
+					  out.flip();
+					  writer.writeStrip(p, y / rows, out);
+					  out.clear();
+				  }
+			  }
+		  }
+	  }
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() exports encodings with long and short runs and reads them back.
+   */
+  public static void main(String[] args) throws IOException {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 300;
+	  int height = 41;
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++)
+			  image.setPacked(x, y, (x/40 + y/7) % 4 == 0 ? random.nextInt(1 << 24) :
+				  (x/40 + y/7) % 4 == 1 ? 0x3366FF : 0x33AA00);
+	  RunLengthEncoding rle = new RunLengthEncoding(image);
+	  Path dir = java.nio.file.Files.createTempDirectory("packbits");
+
+	  System.out.println("Testing a planar PackBits export.");
+	  Path exported = dir.resolve("exported.tif");
+	  write(rle, exported, 6);
+	  RunLengthEncoding read = TiffReader.readRunLengthEncoding(exported);
+	  doTest(read.toPixImage().equals(image), "The exported image does not read back.");
+
+	  System.out.println("Testing the size of the export against uncompressed strips.");
+	  Path plain = dir.resolve("plain.tif");
+	  TiffWriter.write(rle, plain, TiffWriter.NONE, 6);
+	  doTest(java.nio.file.Files.size(exported) < java.nio.file.Files.size(plain),
+			  "The export is not smaller than the uncompressed image.");
+
+	  System.out.println("Testing the export of a single-color image.");
+	  Path flat = dir.resolve("flat.tif");
+	  write(new RunLengthEncoding(width, height), flat, 1000);
+	  doTest(TiffReader.readPixImage(flat).equals(new PixImage(width, height)) &&
+			  java.nio.file.Files.size(flat) < 3*height*6 + 300,
+			  "The single-color export is incorrect.");
+
+	  for(Path p : new Path[] { exported, plain, flat })
+		  java.nio.file.Files.delete(p);
+	  java.nio.file.Files.delete(dir);
+  }
+}
@@ -0,0 +1,112 @@
+/* PackedRuns.java */
+
+/**
+ *  The PackedRuns class is a growable list of runs held in two primitive
+ *  arrays:  run i covers lengths[i] pixels of the packed RGB color
+ *  colors[i], as by RGB.pack().  It is used internally to build and take
+ *  apart run-length encodings without creating a Run and an RGB object per
+ *  run.
+ *
+ *  append() merges a run into the last one when their colors are equal, so
+ *  a PackedRuns built only with append() never has two consecutive runs of
+ *  the same color.
+ */
+
+import java.util.Arrays;
+
+class PackedRuns {
+
+	int [] lengths;
+	int [] colors;
+	// Number of runs in use at the start of the arrays.
+	int count;
+	// Total number of pixels covered by the runs.
+	long pixels;
+
+
+  /**
+   *  PackedRuns() constructs an empty list of runs with room for the
+   *  specified number of runs before it grows.
+   */
+  PackedRuns(int capacity) {
+	  capacity = Math.max(1, capacity);
+	  lengths = new int[capacity];
+	  colors = new int[capacity];
+  }
+
+  /**
+   *  append() adds a run of the specified length and packed color to the
+   *  end of the list, merging it into the last run if the colors are equal.
+   *  A run of length zero is ignored.
+   */
+  void append(int length, int color) {
+	  if(length <= 0)
+		  return;
+	  pixels += length;
+	  if(count > 0 && colors[count-1] == color){
+		  lengths[count-1] += length;
+		  return;
+	  }
+	  if(count == lengths.length){
+		  int capacity = lengths.length + (lengths.length >> 1) + 1;
+		  lengths = Arrays.copyOf(lengths, capacity);
+		  colors = Arrays.copyOf(colors, capacity);
+	  }
+	  lengths[count] = length;
+	  colors[count] = color;
+	  count++;
+  }
+
+  /**
+   *  appendAll() appends the specified runs in order, merging the first of
+   *  them into the last run of "this" list if the colors are equal.
+   */
+  void appendAll(PackedRuns runs) {
+	  for(int i=0; i<runs.count; i++)
+		  append(runs.lengths[i], runs.colors[i]);
+  }
+
+  /**
+   *  appendRange() appends the pixels from..to-1 of the specified runs,
+   *  clipping the runs at both ends.  offsets holds the first pixel of each
+   *  run, as by RunDecoder.runOffsets(); the run covering "from" is found by
+   *  binary search, so the cost grows with the number of runs in the range.
+   */
+  void appendRange(PackedRuns runs, int[] offsets, int from, int to) {
+	  if(from >= to)
+		  return;
+	  int r = Arrays.binarySearch(offsets, 0, runs.count, from);
+	  if(r < 0)
+		  r = -r - 2;
+	  while(from < to){
+		  int end = Math.min(to, offsets[r] + runs.lengths[r]);
+		  append(end - from, runs.colors[r]);
+		  from = end;
+		  r++;
+	  }
+  }
+
+  /**
+   *  trim() shrinks the arrays to the number of runs in use.
+   */
+  void trim() {
+	  if(lengths.length != count){
+		  lengths = Arrays.copyOf(lengths, count);
+		  colors = Arrays.copyOf(colors, count);
+	  }
+  }
+
+  /**
+   *  toString() returns a String representation of this list in the format
+   *  [length:color, ...] with the colors in hexadecimal.
+   */
+  public String toString() {
+	  StringBuilder s = new StringBuilder("[");
+	  for(int i=0; i<count; i++){
+		  if(i > 0)
+			  s.append(", ");
+		  s.append(lengths[i]).append(':').append(Integer.toHexString(colors[i]));
+	  }
+	  return s.append(']').toString();
+  }
+}
@@ -0,0 +1,183 @@
+/* Palette.java */
+
+/**
+ *  The Palette class is an exact, ordered table of the distinct colors of an
+ *  image.  Each color is held packed as by RGB.pack() and is identified by
+ *  its index in the table, in the order the colors were first met in
+ *  row-major order.  The lookup from a color to its index is an
+ *  open-addressing hash table of ints, so no object is created per pixel;
+ *  it starts small and doubles whenever it would be more than half full.
+ *
+ *  A palette holds at most MAX_COLORS colors, the number of indices that
+ *  fit in 16 bits; an image using at most SMALL_COLORS colors has indices
+ *  that fit in 8 bits.
+ */
+
+public class Palette {
+
+	// Largest number of colors a palette may hold.
+	public static final int MAX_COLORS = 65536;
+	// Largest number of colors whose indices fit in a byte.
+	public static final int SMALL_COLORS = 256;
+
+	// Marks an empty slot of the hash table; no packed color has a bit
+	// above the lowest 24 set.
+	private static final int EMPTY = -1;
+	// Number of slots of the hash table of a new palette.
+	private static final int INITIAL_SLOTS = 32;
+
+	private int [] colors;
+	private int size;
+	// Open-addressing hash table; keys[i] is a color or EMPTY and values[i]
+	// is its index.
+	private int [] keys;
+	private int [] values;
+	private final int maxColors;
+
+
+  /**
+   * Palette() constructs an empty palette that will hold at most the
+   * specified number of colors.
+   *
+   * @param maxColors the largest number of colors, at most MAX_COLORS.
+   */
+  public Palette(int maxColors) {
+	  this.maxColors = Math.min(maxColors, MAX_COLORS);
+	  colors = new int[Math.min(this.maxColors, 16)];
+	  keys = new int[INITIAL_SLOTS];
+	  values = new int[keys.length];
+	  java.util.Arrays.fill(keys, EMPTY);
+  }
+
+  /**
+   * grow() doubles the hash table and inserts the colors again.
+   */
+  private void grow() {
+	  keys = new int[2*keys.length];
+	  values = new int[keys.length];
+	  java.util.Arrays.fill(keys, EMPTY);
+	  for(int index=0; index<size; index++){
+		  int i = slot(colors[index]);
+		  keys[i] = colors[index];
+		  values[i] = index;
+	  }
+  }
+
+  /**
+   * slot() returns the slot of the hash table holding the specified color,
+   * or the empty slot where it would be inserted.
+   */
+  private int slot(int rgb) {
+	  int mask = keys.length - 1;
+	  int i = (rgb * 0x9E3779B1) >>> 7 & mask;
+	  while(keys[i] != EMPTY && keys[i] != rgb)
+		  i = (i + 1) & mask;
+	  return i;
+  }
+
+  /**
+   * add() returns the index of the specified color, adding it to the
+   * palette if it is not there yet.
+   *
+   * @param rgb the packed RGB value of the color.
+   * @return the index of the color, or -1 if the palette is full and does
+   * not contain the color.
+   */
+  public int add(int rgb) {
+	  int i = slot(rgb);
+	  if(keys[i] == rgb)
+		  return values[i];
+	  if(size == maxColors)
+		  return -1;
+	  if(size == colors.length)
+		  colors = java.util.Arrays.copyOf(colors, Math.min(maxColors, 2*size));
+	  // Keep the table at most half full.
+	  if(2*(size + 1) > keys.length){
+		  grow();
+		  i = slot(rgb);
+	  }
+	  keys[i] = rgb;
+	  values[i] = size;
+	  colors[size] = rgb;
+	  return size++;
+  }
+
+  /**
+   * indexOf() returns the index of the specified color.
+   *
+   * @param rgb the packed RGB value of the color.
+   * @return the index of the color, or -1 if the palette does not contain it.
+   */
+  public int indexOf(int rgb) {
+	  int i = slot(rgb);
+	  return keys[i] == rgb ? values[i] : -1;
+  }
+
+  /**
+   * getColor() returns the packed RGB value of the color at the specified
+   * index.
+   *
+   * @param index the index of the color.
+   * @return the packed RGB value of the color.
+   */
+  public int getColor(int index) {
+	  return colors[index];
+  }
+
+  /**
+   * size() returns the number of colors in the palette.
+   *
+   * @return the number of colors in the palette.
+   */
+  public int size() {
+	  return size;
+  }
+
+  /**
+   * extract() returns the palette of the specified packed pixels.
+   *
+   * @param pixels the packed RGB values of an image.
+   * @param maxColors the largest number of colors accepted.
+   * @return the palette of the pixels, or null if they have more than
+   * maxColors distinct colors.
+   */
+  public static Palette extract(int[] pixels, int maxColors) {
+	  Palette palette = new Palette(maxColors);
+	  int previous = EMPTY;
+	  for(int p : pixels){
+		  // Neighbouring pixels are usually equal; skip the lookup for them.
+		  if(p != previous && palette.add(p) < 0)
+			  return null;
+		  previous = p;
+	  }
+	  return palette;
+  }
+
+  /**
+   * extract() returns the palette of the specified PixImage.
+   *
+   * @param image the image.
+   * @param maxColors the largest number of colors accepted.
+   * @return the palette of the image, or null if it has more than maxColors
+   * distinct colors.
+   */
+  public static Palette extract(PixImage image, int maxColors) {
+	  return extract(image.toPackedArray(), maxColors);
+  }
+
+  /**
+   * toString() returns a String representation of this Palette in the
+   * format [color, ...] with the colors in hexadecimal.
+   *
+   * @return a String representation of this Palette.
+   */
+  public String toString() {
+	  StringBuilder s = new StringBuilder("[");
+	  for(int i=0; i<size; i++){
+		  if(i > 0)
+			  s.append(",");
+		  s.append(Integer.toHexString(colors[i]));
+	  }
+	  return s.append("]").toString();
+  }
+}
@@ -11,6 +11,8 @@ public class PixImage {
 	private int width, height;
 	// The array of RGB values.
 	private RGB [][] rgbs;
+	// Side of the square tiles in which the geometric transforms copy pixels.
+	static final int TRANSFORM_TILE = 32;
 
 
   /**
@@ -27,6 +29,26 @@ public class PixImage {
 	  for(int i=0; i<width; i++)
 		  for(int j=0; j<height; j++)
 			  rgbs[i][j] = new RGB();
+
+	  ImageMetricsListener metrics = ImageMetrics.listener();
+	  if(metrics != null)
+		  metrics.pixelsAllocated((long) width*height);
+  }
+
+  /**
+   * PixImage() (with three parameters) constructs a PixImage of the
+   * specified width and height around the specified pixels, without copying
+   * them.  A subclass keeping its pixels elsewhere, such as MappedPixImage,
+   * passes null and overrides every accessor.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param rgbs the pixels, rgbs[x][y] being the pixel at (x, y), or null.
+   */
+  PixImage(int width, int height, RGB[][] rgbs) {
+	  this.width = width;
+	  this.height = height;
+	  this.rgbs = rgbs;
   }
  
   /**
@@ -55,7 +77,7 @@ public class PixImage {
    * @return the red intensity of the pixel at coordinate (x, y).
    */
   public short getRed(int x, int y) {
-	  return rgbs[x][y].getRGB()[0];
+	  return rgbs[x][y].getRed();
   }
 
   /**
@@ -66,7 +88,7 @@ public class PixImage {
    * @return the green intensity of the pixel at coordinate (x, y).
    */
   public short getGreen(int x, int y) {
-	  return rgbs[x][y].getRGB()[1];
+	  return rgbs[x][y].getGreen();
   }
 
   /**
@@ -77,7 +99,7 @@ public class PixImage {
    * @return the blue intensity of the pixel at coordinate (x, y).
    */
   public short getBlue(int x, int y) {
-	  return rgbs[x][y].getRGB()[2];
+	  return rgbs[x][y].getBlue();
   }
   
   /**
@@ -91,6 +113,64 @@ public class PixImage {
 	  return rgbs[x][y];
   }
 
+  /**
+   * getPacked() returns the red, green and blue intensities of the pixel at
+   * coordinate (x, y) packed into an int as by RGB.pack().
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the packed RGB value 0xRRGGBB of the pixel at coordinate (x, y).
+   */
+  public int getPacked(int x, int y) {
+	  return rgbs[x][y].pack();
+  }
+
+  /**
+   * setPacked() sets the pixel at coordinate (x, y) to the red, green and
+   * blue intensities packed into an int as by RGB.pack().
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @param rgb the packed RGB value 0xRRGGBB of the pixel.
+   */
+  public void setPacked(int x, int y, int rgb) {
+	  rgbs[x][y].setRGB((short)((rgb >> 16) & 0xFF), (short)((rgb >> 8) & 0xFF),
+			  (short)(rgb & 0xFF));
+  }
+
+  /**
+   * toPackedArray() returns the pixels of "this" PixImage packed as by
+   * RGB.pack(), in row-major order:  the pixel at coordinate (x, y) is at
+   * index y*width + x.
+   *
+   * @return a new array of width*height packed RGB values.
+   */
+  public int[] toPackedArray() {
+	  int [] pixels = new int[width*height];
+	  for(int y=0; y<height; y++)
+		  for(int x=0; x<width; x++)
+			  pixels[y*width + x] = getPacked(x, y);
+	  return pixels;
+  }
+
+  /**
+   * fromPackedArray() constructs a PixImage of the specified width and
+   * height from packed RGB values in row-major order.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param pixels the packed RGB values, the pixel at coordinate (x, y) at
+   * index y*width + x.
+   * @return a new PixImage holding the specified pixels.
+   */
+  public static PixImage fromPackedArray(int width, int height, int[] pixels) {
+	  PixImage image = new PixImage(width, height);
+	  for(int y=0; y<height; y++)
+		  for(int x=0; x<width; x++)
+			  image.setPacked(x, y, pixels[y*width + x]);
+	  return image;
+  }
+
   /**
    * setPixel() sets the pixel at coordinate (x, y) to specified red, green,
    * and blue intensities.
@@ -161,122 +241,196 @@ public class PixImage {
    * @return a blurred version of "this" PixImage.
    */
   public PixImage boxBlur(int numIterations) {
+	  if(numIterations <= 0)
+		  return this;
+	  PixImage result = new PixImage(width, height);
+	  boxBlurInto(result, numIterations,
+			  numIterations > 1 ? new PixImage(width, height) : null);
+	  return result;
+  }
 
-	  if(numIterations>0){
-		  
-		  // The PixImage resulted from a pass of blurring.
-		  PixImage result = new PixImage(width, height);
-		  // The version of PixImage prior to the most recent 
-		  // result.
-		  PixImage previous = new PixImage(width, height);
+  /**
+   * boxBlurInto() blurs "this" PixImage as boxBlur() does, writing the
+   * result into dst rather than a new PixImage.  The passes alternate
+   * between dst and scratch, ordered so that the last one writes dst, and
+   * no object is allocated; with images taken from a PixImagePool, a loop
+   * blurring many images allocates nothing per image.
+   *
+   * If numIterations is zero or negative, "this" PixImage is copied into
+   * dst, which then holds what boxBlur() would return.
+   *
+   * @param dst the image receiving the result, of the size of "this".
+   * @param numIterations the number of iterations of box blurring.
+   * @param scratch an image of the size of "this" holding intermediate
+   * passes, overwritten; it may be null if numIterations is at most one.
+   * @throws IllegalArgumentException if dst or scratch has the wrong size or
+   * is "this", or if scratch is missing or is dst.
+   */
+  public void boxBlurInto(PixImage dst, int numIterations, PixImage scratch) {
+	  checkOutput(dst);
+	  if(numIterations > 1){
+		  checkOutput(scratch);
+		  if(scratch == dst)
+			  throw new IllegalArgumentException("The scratch image is the output image");
+	  }
+	  if(numIterations <= 0){
 		  for(int x=0; x<width; x++)
-			  for(int y=0; y<height; y++){
-				  previous.setPixel(x, y, rgbs[x][y].getRGB()[0], 
-							rgbs[x][y].getRGB()[1], 
-						  	rgbs[x][y].getRGB()[2]);
-			  }
+			  for(int y=0; y<height; y++)
+				  dst.setPacked(x, y, getPacked(x, y));
+		  return;
+	  }
 
-		  for(int n=0; n<numIterations; n++){
-
-			// Interior pixels
-			  for(int x=1; x<width-1; x++)
-				  for(int y=1; y<height-1; y++){
-					  RGB init = new RGB((short)0, (short)0, (short)0);
-					  for(int i=-1; i<=1; i++)
-						  for(int j=-1; j<=1; j++){
-							  init = RGB.add(init, previous.getRgbAt(x+i,y+j));
-						  }
-					  init = RGB.divide(init, 9);
-					  result.setPixel(x, y, init.getRGB()[0],
-							  	init.getRGB()[1],
-							  	init.getRGB()[2]);
+	  ImageMetricsListener metrics = ImageMetrics.listener();
+	  long start = metrics == null ? 0 : System.nanoTime();
+
+	  PixImage previous = this;
+	  for(int n=0; n<numIterations; n++){
+		  // Counting back from the last pass, which writes dst.
+		  PixImage next = (numIterations - 1 - n) % 2 == 0 ? dst : scratch;
+		  blurPass(previous, next);
+		  previous = next;
+	  }
+
+	  if(metrics != null)
+		  metrics.operationCompleted(ImageMetrics.Operation.BOX_BLUR, width, height,
+				  System.nanoTime() - start);
+  }
+
+  /**
+   * checkOutput() checks that the specified image can receive the output of
+   * a filter of "this" PixImage.
+   */
+  private void checkOutput(PixImage image) {
+	  if(image == null)
+		  throw new IllegalArgumentException("Missing output image");
+	  if(image == this)
+		  throw new IllegalArgumentException("The output image is the input image");
+	  if(image.width != width || image.height != height)
+		  throw new IllegalArgumentException("The output image is " + image.width + "x" +
+				  image.height + ", not " + width + "x" + height);
+  }
+
+  /**
+   * blurPass() sets each pixel of dst to the average of the pixels of src
+   * in the 3x3 square around it, counting only the pixels inside the image,
+   * with quotients rounded toward zero.
+   */
+  private static void blurPass(PixImage src, PixImage dst) {
+	  int width = src.width;
+	  int height = src.height;
+	  for(int x=0; x<width; x++){
+		  int x0 = Math.max(0, x - 1);
+		  int x1 = Math.min(width - 1, x + 1);
+		  for(int y=0; y<height; y++){
+			  int y0 = Math.max(0, y - 1);
+			  int y1 = Math.min(height - 1, y + 1);
+			  int red = 0, green = 0, blue = 0;
+			  for(int i=x0; i<=x1; i++)
+				  for(int j=y0; j<=y1; j++){
+					  int p = src.getPacked(i, j);
+					  red += (p >> 16) & 0xFF;
+					  green += (p >> 8) & 0xFF;
+					  blue += p & 0xFF;
 				  }
-			  
-			// Horizontal edges
-			  for(int x=1; x<width-1; x++){
-				  
-				  // North edge
-				  RGB init = new RGB((short)0, (short)0, (short)0);
-				  for(int i=-1; i<=1; i++)
-					  for(int j=0; j<=1; j++){
-						  init = RGB.add(init, previous.getRgbAt(x+i,0+j));
-					  }
-				  init = RGB.divide(init, 6);
-				  result.setPixel(x, 0, init.getRGB()[0],
-						  	init.getRGB()[1],
-						  	init.getRGB()[2]);
-				  
-				// South edge
-				  init = new RGB((short)0, (short)0, (short)0);
-				  for(int i=-1; i<=1; i++)
-					  for(int j=0; j<=1; j++){
-						  init = RGB.add(init, previous.getRgbAt(x+i,height-1-j));
-					  }
-				  init = RGB.divide(init, 6);
-				  result.setPixel(x, height-1, init.getRGB()[0],
-						  	       init.getRGB()[1],
-						  	       init.getRGB()[2]);
-			  }
-			  
-			// Vertical edges
-			  for(int y=1; y<height-1; y++){
-				  
-				  // West edge
-				  RGB init = new RGB((short)0, (short)0, (short)0);
-				  for(int i=0; i<=1; i++)
-					  for(int j=-1; j<=1; j++){
-						  init = RGB.add(init, previous.getRgbAt(0+i,y+j));
-					  }
-				  init = RGB.divide(init, 6);
-				  result.setPixel(0, y, init.getRGB()[0],
-						  	init.getRGB()[1],
-						  	init.getRGB()[2]);
-				  
-				// East edge
-				  init = new RGB((short)0, (short)0, (short)0);
-				  for(int i=0; i<=1; i++)
-					  for(int j=-1; j<=1; j++){
-						  init = RGB.add(init, previous.getRgbAt(width-1-i,y+j));
-					  }
-				  init = RGB.divide(init, 6);
-				  result.setPixel(width-1, y, init.getRGB()[0],
-						  	      init.getRGB()[1],
-						  	      init.getRGB()[2]);
-			  }
-			  
-			// Corners
-			  RGB nw = new RGB((short)0, (short)0, (short)0); // NW corner
-			  RGB ne = new RGB((short)0, (short)0, (short)0); // NE corner
-			  RGB se = new RGB((short)0, (short)0, (short)0); // SE corner
-			  RGB sw = new RGB((short)0, (short)0, (short)0); // SW corner
-			  for(int i=0; i<=1; i++)
-				  for(int j=0; j<=1; j++){
-					  nw = RGB.add(nw, previous.getRgbAt(i,j));
-					  ne = RGB.add(ne, previous.getRgbAt(width-1-i,j));
-					  se = RGB.add(se, previous.getRgbAt(width-1-i,height-1-j));
-					  sw = RGB.add(sw, previous.getRgbAt(i,height-1-j));
+			  int count = (x1 - x0 + 1)*(y1 - y0 + 1);
+			  dst.setPacked(x, y, ((red/count) << 16) | ((green/count) << 8) | (blue/count));
+		  }
+	  }
+  }
+
+  /**
+   * boxBlurInPlace() blurs "this" PixImage as boxBlur() does, overwriting
+   * its pixels.  Besides the image, it needs only two rows of packed
+   * pixels:  the unblurred copies of the row being blurred and of the row
+   * above it, since the row below is not blurred yet.  A render loop
+   * blurring its frame buffer thus allocates no image.
+   *
+   * If numIterations is zero or negative, "this" PixImage is left
+   * unchanged, just as boxBlur() then returns it and boxBlurInto() copies
+   * it.
+   *
+   * @param numIterations the number of iterations of box blurring.
+   */
+  public void boxBlurInPlace(int numIterations) {
+	  if(numIterations <= 0)
+		  return;
+
+	  ImageMetricsListener metrics = ImageMetrics.listener();
+	  long start = metrics == null ? 0 : System.nanoTime();
+	  int [] above = new int[width];
+	  int [] current = new int[width];
+	  for(int n=0; n<numIterations; n++)
+		  blurPassInPlace(above, current);
+
+	  if(metrics != null)
+		  metrics.operationCompleted(ImageMetrics.Operation.BOX_BLUR, width, height,
+				  System.nanoTime() - start);
+  }
+
+  /**
+   * blurPassInPlace() performs one iteration of box blurring of "this"
+   * PixImage a row at a time, using the two specified rows of width
+   * elements to keep the unblurred pixels the next rows still need.
+   */
+  private void blurPassInPlace(int[] above, int[] current) {
+	  for(int x=0; x<width; x++)
+		  current[x] = getPacked(x, 0);
+	  for(int y=0; y<height; y++){
+		  // above holds row y-1 and current row y as they were before this
+		  // pass; row y+1 is still unblurred in the image.
+		  boolean hasAbove = y > 0;
+		  boolean hasBelow = y < height - 1;
+		  int rows = 1 + (hasAbove ? 1 : 0) + (hasBelow ? 1 : 0);
+		  for(int x=0; x<width; x++){
+			  int x0 = Math.max(0, x - 1);
+			  int x1 = Math.min(width - 1, x + 1);
+			  int red = 0, green = 0, blue = 0;
+			  for(int i=x0; i<=x1; i++){
+				  int p = current[i];
+				  red += (p >> 16) & 0xFF;
+				  green += (p >> 8) & 0xFF;
+				  blue += p & 0xFF;
+				  if(hasAbove){
+					  p = above[i];
+					  red += (p >> 16) & 0xFF;
+					  green += (p >> 8) & 0xFF;
+					  blue += p & 0xFF;
 				  }
-			  nw = RGB.divide(nw, 4);
-			  ne = RGB.divide(ne, 4);
-			  se = RGB.divide(se, 4);
-			  sw = RGB.divide(sw, 4);
-			  result.setPixel(0, 0, nw.getRGB()[0], nw.getRGB()[1], nw.getRGB()[2]);
-			  result.setPixel(width-1, 0, ne.getRGB()[0], ne.getRGB()[1], ne.getRGB()[2]);
-			  result.setPixel(width-1,height-1, se.getRGB()[0], se.getRGB()[1], se.getRGB()[2]);
-			  result.setPixel(0, height-1, sw.getRGB()[0], sw.getRGB()[1], sw.getRGB()[2]);
-			  
-			// Update the previous version of the PixImage.
-			  for(int x=0; x<width; x++)
-				  for(int y=0; y<height; y++){
-					  previous.setPixel(x, y, result.getRed(x,y), 
-							  	  result.getGreen(x,y),  
-							  	  result.getBlue(x,y));
+				  if(hasBelow){
+					  p = getPacked(i, y + 1);
+					  red += (p >> 16) & 0xFF;
+					  green += (p >> 8) & 0xFF;
+					  blue += p & 0xFF;
 				  }
-		  } 
-		return result;
+			  }
+			  int count = rows*(x1 - x0 + 1);
+			  setPacked(x, y, ((red/count) << 16) | ((green/count) << 8) | (blue/count));
+		  }
+		  int [] swap = above;
+		  above = current;
+		  current = swap;
+		  if(hasBelow)
+			  for(int x=0; x<width; x++)
+				  current[x] = getPacked(x, y + 1);
 	  }
-	  
-	  return this;
+  }
+
+  /**
+   * gaussianBlur() returns a version of "this" PixImage blurred by an
+   * approximate Gaussian of the specified standard deviation, computed by
+   * GaussianBlur as three box blurs of sliding windows.  Its cost does not
+   * depend on sigma, whereas boxBlur() with many iterations, the usual way
+   * to approximate a wide Gaussian, costs a pass per iteration.
+   *
+   * If sigma is zero or negative, "this" PixImage is returned (not a copy).
+   *
+   * @param sigma the standard deviation of the Gaussian, in pixels.
+   * @return a blurred version of "this" PixImage.
+   */
+  public PixImage gaussianBlur(double sigma) {
+	  if(!(sigma > 0))
+		  return this;
+	  return GaussianBlur.blur(PixelPlanes.of(this), sigma).toPixImage();
   }
 
   /**
@@ -288,7 +442,7 @@ public class PixImage {
    * intensity we want to compute.
    * @return the intensity of the output pixel.
    */
-  private static short mag2gray(long mag) {
+  static short mag2gray(long mag) {
     short intensity = (short) (30.0 * Math.log(1.0 + (double) mag) - 256.0);
 
     // Ensure the returned intensity is in the range 0...255, regardless of
@@ -301,111 +455,6 @@ public class PixImage {
     return intensity;
   }
 
-  /**
-   *
-   * The Coordinates class is a container class holding
-   * two integer values x and y as the x- and y-coordinates
-   */
-  private class Coordinates{
-	  
-	  int x, y;
-	  
-	  /**
-	   * Coordinates() (with two parameters) constructs the coordinate
-	   * representation of a specified point.
-	   * 
-	   * @param x The x-coordinate of the point.
-	   * @param y The y-coordinate of the point.
-	   */
-	  public Coordinates(int x, int y){
-		  this.x = x;
-		  this.y = y;
-	  }
-	  
-	  public String toString(){
-		  return("(" + x + "," + y + ")");
-	  }
-  }
-  
-  /**
-   *  getNeighbors() returns the neighbors of the pixel including itself
-   *  for gradient calculations. If the pixel is on a boundary, getNeighbors()
-   *  creates the virtual neighbors by reflecting the actual neighbors of the 
-   *  pixel across the boundary. For example, the pixel (-1,2) is treated as 
-   *  if it had the same RGB intensity as (0,2) and (1, height) is treated as 
-   *  if it had the same RGB intensity as (1, height-1).
-   * 
-   *  @param x the x-coordinate of the pixel.
-   *  @param y the y-coordinate of the pixel.
-   *  @return a 3-by-3 array of the neighbors of the pixel including itself in 
-   *  the center.
-   */
-  private Coordinates[][] getNeighbors(int x, int y){
-	  
-	  Coordinates[][] neighbors = new Coordinates[3][3];
-	  for(int j=0; j<3; j++){
-		  for(int i=0; i<3; i++){
-			  
-			  int a = x+i-1;
-			  int b = y+j-1;
-			  
-			// Reflects across a boundary 
-			  if(a==-1)
-				  a = 0;
-			  if(a==width)
-				  a = width-1;
-			  if(b==-1)
-				  b = 0;
-			  if(b==height)
-				  b = height-1;
-			  
-			  neighbors[i][j] = new Coordinates(a,b);
-		  }
-	  }
-
-	  return(neighbors);
-  }
-
-  /**
-   * gx() returns the intensity gradient in the x-direction
-   * at (x,y).
-   *  
-   * @param intensity an array of intensities of the pixel (x,y)
-   * and its surrounding neighbors. 
-   * @return the intensity gradient in the x-direction at (x,y).
-   */
-  private int gx(short [][] intensity){
-	  
-	int gx = 0;
-	int [][] sobelX = {{1,2,1},{0,0,0},{-1,-2,-1}};
-	for(int j=0; j<3; j++){
-		for(int i=0; i<3; i++){
-			gx += sobelX[i][j]*intensity[i][j];
-		}
-	}
-	return gx;
-  }
- 
-  /**
-   * gy() returns the intensity gradient in the y-direction
-   * at (x,y).
-   *  
-   * @param intensity an array of intensities of the pixel (x,y)
-   * and its surrounding neighbors. 
-   * @return the intensity gradient in the y-direction at (x,y).
-   */
-  private int gy(short [][] intensity){
-	
-	int gy = 0;
-	int [][] sobelY = {{1,0,-1},{2,0,-2},{1,0,-1}};
-	for(int j=0; j<3; j++){
-		for(int i=0; i<3; i++){
-			gy += sobelY[i][j]*intensity[i][j];
-		}
-	}
-	return gy;
-  }
-
   /**
    * sobelEdges() applies the Sobel operator, identifying edges in "this"
    * image.  The Sobel operator computes a magnitude that represents how
@@ -422,56 +471,218 @@ public class PixImage {
    * Whiter pixels represent stronger edges.
    */
   public PixImage sobelEdges() {
+	  PixImage result = new PixImage(width, height);
+	  sobelEdgesInto(result);
+	  return result;
+  }
+
+  /**
+   * sobelEdgesInto() applies the Sobel operator as sobelEdges() does,
+   * writing the grayscale result into dst rather than a new PixImage, and
+   * allocating nothing.
+   *
+   * A pixel beyond the boundary is treated as if it had the intensities of
+   * the nearest pixel of the image; for example, the pixel (-1,2) is
+   * treated as (0,2) and (1, height) as (1, height-1).
+   *
+   * @param dst the image receiving the result, of the size of "this".
+   * @throws IllegalArgumentException if dst has the wrong size or is "this".
+   */
+  public void sobelEdgesInto(PixImage dst) {
+	  checkOutput(dst);
+	  ImageMetricsListener metrics = ImageMetrics.listener();
+	  long start = metrics == null ? 0 : System.nanoTime();
 
-	  PixImage result = new PixImage(width, height);  
-	  
 	  for(int x=0; x<width; x++){
+		  int xm = Math.max(0, x - 1);
+		  int xp = Math.min(width - 1, x + 1);
 		  for(int y=0; y<height; y++){
+			  int ym = Math.max(0, y - 1);
+			  int yp = Math.min(height - 1, y + 1);
+			  // The eight neighbors, clamped to the image.
+			  int nw = getPacked(xm, ym), n = getPacked(x, ym), ne = getPacked(xp, ym);
+			  int w = getPacked(xm, y), e = getPacked(xp, y);
+			  int sw = getPacked(xm, yp), s = getPacked(x, yp), se = getPacked(xp, yp);
+
+			  long energy = 0;
+			  for(int shift=16; shift>=0; shift-=8){
+				  int a = (nw >> shift) & 0xFF, b = (n >> shift) & 0xFF, c = (ne >> shift) & 0xFF;
+				  int d = (w >> shift) & 0xFF, f = (e >> shift) & 0xFF;
+				  int g = (sw >> shift) & 0xFF, h = (s >> shift) & 0xFF, i = (se >> shift) & 0xFF;
+				  // West column minus east column, north row minus south row.
+				  int gx = (a + 2*d + g) - (c + 2*f + i);
+				  int gy = (a + 2*b + c) - (g + 2*h + i);
+				  energy += gx*gx + gy*gy;
+			  }
+
+			  int gray = mag2gray(energy);
+			  dst.setPacked(x, y, (gray << 16) | (gray << 8) | gray);
+		  }
+	  }
 
-			  // Finds the nine neighbors of the pixels at (x,y).
-			  Coordinates [][] neighbors = getNeighbors(x,y);
-			  
-			  short [][] redIntensity = new short[3][3];
-			  short [][] greenIntensity = new short[3][3];
-			  short [][] blueIntensity = new short[3][3];
-			  // Finds the red, green and blue intensity of each neighbor.
-			  for(int j=0; j<3; j++){
-				  for(int i=0; i<3; i++){
-					  int a = neighbors[i][j].x;
-					  int b = neighbors[i][j].y;
-					  redIntensity[i][j] = getRed(a, b);
-					  greenIntensity[i][j] = getGreen(a, b);
-					  blueIntensity[i][j] = getBlue(a, b);
+	  if(metrics != null)
+		  metrics.operationCompleted(ImageMetrics.Operation.SOBEL_EDGES, width, height,
+				  System.nanoTime() - start);
+  }
+
+  /**
+   * cannyEdges() returns the edges of "this" PixImage found by the Canny
+   * detector of CannyEdges:  white on edges one pixel thin, black
+   * elsewhere.  The thresholds are on the square root of the energy
+   * sobelEdges() computes.
+   *
+   * @param low the low threshold; weaker pixels are never on an edge.
+   * @param high the high threshold; stronger pixels start an edge.
+   * @return a new black and white PixImage of the edges.
+   */
+  public PixImage cannyEdges(double low, double high) {
+	  return CannyEdges.detect(this, low, high);
+  }
+
+  /**
+   * sobelGradients() returns the raw Sobel gradients and energies of "this"
+   * PixImage, the numbers sobelEdges() maps to grayscale, for callers that
+   * need them rather than the image.  GradientField.toEdgeImage() returns
+   * the image sobelEdges() would.
+   *
+   * @param channels the way the gradients of the colors are combined.
+   * @return the gradient field.
+   */
+  public GradientField sobelGradients(GradientField.Channels channels) {
+	  return GradientField.of(PixelPlanes.of(this), channels);
+  }
+
+  /**
+   * transform() returns a new PixImage holding "this" PixImage with its
+   * x-coordinates mirrored if flipX is true, then its y-coordinates
+   * mirrored if flipY is true, then its axes swapped if swap is true.
+   *
+   * The pixels are copied in TRANSFORM_TILE x TRANSFORM_TILE tiles, so that
+   * when the axes are swapped both the columns read and the rows written
+   * stay in the cache while a tile is copied.
+   */
+  private PixImage transform(boolean flipX, boolean flipY, boolean swap) {
+	  PixImage result = swap ? new PixImage(height, width) : new PixImage(width, height);
+	  for(int bx=0; bx<width; bx+=TRANSFORM_TILE){
+		  int ex = Math.min(width, bx + TRANSFORM_TILE);
+		  for(int by=0; by<height; by+=TRANSFORM_TILE){
+			  int ey = Math.min(height, by + TRANSFORM_TILE);
+			  for(int x=bx; x<ex; x++){
+				  int tx = flipX ? width - 1 - x : x;
+				  for(int y=by; y<ey; y++){
+					  int ty = flipY ? height - 1 - y : y;
+					  if(swap)
+						  result.setPacked(ty, tx, getPacked(x, y));
+					  else
+						  result.setPacked(tx, ty, getPacked(x, y));
 				  }
 			  }
-			  
-			  // Calculates gx for the red, green and blue intensity at (x,y).
-			  int gxRed = gx(redIntensity);
-			  int gxGreen = gx(greenIntensity);
-			  int gxBlue = gx(blueIntensity);
-
-			  // Calculates gy for the red, green and blue intensity at (x,y).
-			  int gyRed = gy(redIntensity);
-			  int gyGreen = gy(greenIntensity);
-			  int gyBlue = gy(blueIntensity);
-			  
-			  // Calculates the energy at (x,y).
-			  long energy = gxRed*gxRed + gyRed*gyRed + 
-					  gxGreen*gxGreen + gyGreen*gyGreen + 
-					    gxBlue*gxBlue + gyBlue*gyBlue;
-
-			  
-			  // Calculates the gray scale of the energy.
-			  short grayScale = mag2gray(energy);
-			  
-			  // Set the gray-scaled energy value as the pixel of
-			  // result at (x,y).
-			  result.setPixel(x, y, grayScale, grayScale, grayScale);
 		  }
-	  }	  
+	  }
 	  return result;
   }
 
+  /**
+   * transpose() returns a new PixImage in which the pixel at coordinate
+   * (y, x) is the pixel at coordinate (x, y) of "this" PixImage.
+   *
+   * @return the transpose of "this" PixImage.
+   */
+  public PixImage transpose() {
+	  return transform(false, false, true);
+  }
+
+  /**
+   * rotate90() returns a new PixImage holding "this" PixImage rotated by 90
+   * degrees clockwise.
+   *
+   * @return "this" PixImage rotated by 90 degrees clockwise.
+   */
+  public PixImage rotate90() {
+	  return transform(false, true, true);
+  }
+
+  /**
+   * rotate180() returns a new PixImage holding "this" PixImage rotated by
+   * 180 degrees.
+   *
+   * @return "this" PixImage rotated by 180 degrees.
+   */
+  public PixImage rotate180() {
+	  return transform(true, true, false);
+  }
+
+  /**
+   * rotate270() returns a new PixImage holding "this" PixImage rotated by 90
+   * degrees counterclockwise.
+   *
+   * @return "this" PixImage rotated by 90 degrees counterclockwise.
+   */
+  public PixImage rotate270() {
+	  return transform(true, false, true);
+  }
+
+  /**
+   * flipHorizontal() returns a new PixImage holding "this" PixImage
+   * mirrored left to right.
+   *
+   * @return "this" PixImage mirrored left to right.
+   */
+  public PixImage flipHorizontal() {
+	  return transform(true, false, false);
+  }
+
+  /**
+   * flipVertical() returns a new PixImage holding "this" PixImage mirrored
+   * top to bottom.
+   *
+   * @return "this" PixImage mirrored top to bottom.
+   */
+  public PixImage flipVertical() {
+	  return transform(false, true, false);
+  }
+
+  /**
+   * downscale() returns a new PixImage holding "this" PixImage shrunk by the
+   * specified factor, each pixel the average of a block of up to
+   * factor x factor pixels as by ImageScaler.downscale().  If factor is one
+   * or less, "this" PixImage is returned (not a copy).
+   *
+   * @param factor the number of pixels of "this" per output pixel along each
+   * axis.
+   * @return "this" PixImage shrunk by the factor.
+   */
+  public PixImage downscale(int factor) {
+	  if(factor <= 1)
+		  return this;
+	  return ImageScaler.downscale(PixelPlanes.of(this), factor).toPixImage();
+  }
+
+  /**
+   * downscale() returns a new PixImage holding "this" PixImage scaled to the
+   * specified width and height by area averaging, as by
+   * ImageScaler.downscale().
+   *
+   * @param width the width of the output.
+   * @param height the height of the output.
+   * @return "this" PixImage scaled to the specified size.
+   */
+  public PixImage downscale(int width, int height) {
+	  return ImageScaler.downscale(PixelPlanes.of(this), width, height).toPixImage();
+  }
+
+  /**
+   * convolve() returns a new PixImage holding "this" PixImage filtered with
+   * the specified kernel as by Convolution.filter().
+   *
+   * @param kernel the kernel.
+   * @param mode the handling of pixels beyond the boundary.
+   * @return the filtered image.
+   */
+  public PixImage convolve(Kernel kernel, Convolution.EdgeMode mode) {
+	  return Convolution.filter(PixelPlanes.of(this), kernel, mode).toPixImage();
+  }
+
   /**
    * doTest() checks whether the condition is true and prints the given error
    * message if it is not.
@@ -602,7 +813,75 @@ public class PixImage {
            array2PixImage(new int[][] { { 122, 143, 74 },
                                         { 74, 143, 122 } })),
            "Incorrect Sobel:\n" + image2.sobelEdges());
-           
+
+    System.out.println("Testing geometric transforms on a 45x70 image.");
+    java.util.Random random = new java.util.Random(61);
+    PixImage image3 = new PixImage(45, 70);
+    for (int x = 0; x < 45; x++) {
+      for (int y = 0; y < 70; y++) {
+        image3.setPacked(x, y, random.nextInt(1 << 24));
+      }
+    }
+    PixImage transposed = image3.transpose();
+    PixImage rotated90 = image3.rotate90();
+    PixImage rotated180 = image3.rotate180();
+    PixImage rotated270 = image3.rotate270();
+    PixImage flippedH = image3.flipHorizontal();
+    PixImage flippedV = image3.flipVertical();
+    boolean same = transposed.getWidth() == 70 && rotated90.getHeight() == 45;
+    for (int x = 0; x < 45; x++) {
+      for (int y = 0; y < 70; y++) {
+        int p = image3.getPacked(x, y);
+        same &= transposed.getPacked(y, x) == p &&
+                rotated90.getPacked(69 - y, x) == p &&
+                rotated180.getPacked(44 - x, 69 - y) == p &&
+                rotated270.getPacked(y, 44 - x) == p &&
+                flippedH.getPacked(44 - x, y) == p &&
+                flippedV.getPacked(x, 69 - y) == p;
+      }
+    }
+    doTest(same && rotated90.rotate270().equals(image3) &&
+           transposed.transpose().equals(image3),
+           "Incorrect geometric transforms.");
+
+    System.out.println("Testing filters into output images.");
+    PixImage blurred = new PixImage(45, 70);
+    PixImage scratch = new PixImage(45, 70);
+    image3.boxBlurInto(blurred, 3, scratch);
+    boolean filtered = blurred.equals(image3.boxBlur(3));
+    image3.boxBlurInto(blurred, 0, null);
+    filtered &= blurred.equals(image3);
+    image1.boxBlur(2).sobelEdgesInto(blurred = new PixImage(3, 3));
+    doTest(filtered && blurred.equals(image1.boxBlur(2).sobelEdges()),
+           "Incorrect filters into output images.");
+
+    System.out.println("Testing blurring in place.");
+    boolean inPlace = image1.boxBlur(0) == image1;
+    int [][] sizes = { { 45, 70 }, { 1, 5 }, { 6, 1 }, { 2, 2 } };
+    for (int[] size : sizes) {
+      PixImage image = new PixImage(size[0], size[1]);
+      for (int x = 0; x < size[0]; x++) {
+        for (int y = 0; y < size[1]; y++) {
+          image.setPacked(x, y, random.nextInt(1 << 24));
+        }
+      }
+      PixImage expected = image.boxBlur(3);
+      image.boxBlurInPlace(3);
+      inPlace &= image.equals(expected);
+      image.boxBlurInPlace(0);
+      inPlace &= image.equals(expected);
+    }
+    doTest(inPlace, "Incorrect blurring in place.");
+
+    System.out.println("Testing a box blur kernel.");
+    doTest(image3.convolve(Kernel.BOX_3, Convolution.EdgeMode.NEIGHBOURS)
+           .equals(image3.boxBlur(1)), "Incorrect box blur kernel.");
+
+    System.out.println("Testing a Gaussian blur.");
+    PixImage soft = image3.gaussianBlur(4);
+    doTest(image3.gaussianBlur(0) == image3 && soft.getWidth() == 45 &&
+           soft.getHeight() == 70 && !soft.equals(image3),
+           "Incorrect Gaussian blur.");
   }
 }
 
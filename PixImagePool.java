@@ -0,0 +1,156 @@
+/* PixImagePool.java */
+
+/**
+ *  The PixImagePool class keeps released PixImages for reuse, by width and
+ *  height.  A PixImage holds an RGB object per pixel, so constructing one is
+ *  as costly as the filters run on it; a service that filters image after
+ *  image into output and scratch images taken from a pool, as by
+ *  boxBlurInto() and sobelEdgesInto(), allocates no pixel once the pool
+ *  holds an image of each size it sees.
+ *
+ *  An acquired image holds whatever its last user left in it.  The pool
+ *  may be used by several threads at once.
+ */
+
+public class PixImagePool {
+
+	// The released images, keyed by width in the high half and height in the low half.
+	private final BufferPool<PixImage> images;
+
+
+  /**
+   * PixImagePool() constructs an empty pool keeping up to the specified
+   * number of idle images of each size.
+   *
+   * @param maxIdle the largest number of idle images kept per size.
+   */
+  public PixImagePool(int maxIdle) {
+	  images = new BufferPool<>(key -> new PixImage((int) (key >>> 32), (int) key), maxIdle);
+  }
+
+  /**
+   * key() returns the key of the images of the specified size.
+   */
+  private static long key(int width, int height) {
+	  return ((long) width << 32) | (height & 0xFFFFFFFFL);
+  }
+
+  /**
+   * acquire() returns an idle image of the specified size, or a new one if
+   * the pool holds none.  The pixels of a reused image are not cleared.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @return an image of the specified size.
+   */
+  public PixImage acquire(int width, int height) {
+	  return images.acquire(key(width, height));
+  }
+
+  /**
+   * release() returns the specified image to the pool.  The caller must not
+   * use it afterwards.
+   *
+   * @param image an image, usually acquired from the pool.
+   * @throws IllegalArgumentException if the image is a subclass of PixImage,
+   * such as a MappedPixImage, whose pixels are not its own.
+   */
+  public void release(PixImage image) {
+	  if(image.getClass() != PixImage.class)
+		  throw new IllegalArgumentException("Cannot pool a " + image.getClass().getName());
+	  images.release(key(image.getWidth(), image.getHeight()), image);
+  }
+
+  /**
+   * getAllocations() returns the number of images the pool has constructed.
+   *
+   * @return the number of images constructed.
+   */
+  public long getAllocations() {
+	  return images.getAllocations();
+  }
+
+  /**
+   * clear() drops every idle image.
+   */
+  public void clear() {
+	  images.clear();
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() runs a loop of filters on pooled images and checks the results
+   * and the number of images constructed.
+   */
+  public static void main(String[] args) {
+
+	  java.util.Random random = new java.util.Random(61);
+	  PixImagePool pool = new PixImagePool(2);
+
+	  System.out.println("Testing filters into pooled images.");
+	  boolean same = true;
+	  for(int n=0; n<20; n++){
+		  int width = n % 2 == 0 ? 13 : 7;
+		  int height = n % 2 == 0 ? 9 : 11;
+		  PixImage image = new PixImage(width, height);
+		  for(int x=0; x<width; x++)
+			  for(int y=0; y<height; y++)
+				  image.setPacked(x, y, random.nextInt(1 << 24));
+
+		  PixImage blurred = pool.acquire(width, height);
+		  PixImage scratch = pool.acquire(width, height);
+		  image.boxBlurInto(blurred, 1 + n % 4, scratch);
+		  same &= blurred.equals(image.boxBlur(1 + n % 4));
+		  pool.release(scratch);
+		  PixImage edges = pool.acquire(width, height);
+		  blurred.sobelEdgesInto(edges);
+		  same &= edges.equals(blurred.sobelEdges());
+		  pool.release(edges);
+		  pool.release(blurred);
+	  }
+	  doTest(same, "Filters into pooled images differ from the filters.");
+	  doTest(pool.getAllocations() == 4,
+			  "The pool constructed " + pool.getAllocations() + " images for two sizes.");
+
+	  System.out.println("Testing mismatched output images.");
+	  PixImage image = new PixImage(4, 5);
+	  int rejected = 0;
+	  PixImage [][] wrong = { { image, null }, { new PixImage(5, 4), null },
+			  { new PixImage(4, 5), null } };
+	  for(PixImage [] args2 : wrong){
+		  try{
+			  image.boxBlurInto(args2[0], 2, args2[1]);
+		  }
+		  catch(IllegalArgumentException e){
+			  rejected++;
+		  }
+	  }
+	  try{
+		  image.sobelEdgesInto(image);
+	  }
+	  catch(IllegalArgumentException e){
+		  rejected++;
+	  }
+	  doTest(rejected == 4, "Only " + rejected + " of 4 bad output images were rejected.");
+  }
+}
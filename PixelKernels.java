@@ -0,0 +1,360 @@
+/* PixelKernels.java */
+
+/**
+ *  The PixelKernels class holds the inner loops of the box blur, the Sobel
+ *  operator and run-boundary detection over primitive pixel layouts:
+ *  PixelPlanes for the convolutions and packed RGB arrays for the runs.
+ *
+ *  Each kernel has two implementations that produce identical results.
+ *  The vectorized one is written as branch-free loops over whole rows with
+ *  no division, which HotSpot's C2 compiler turns into SIMD instructions
+ *  (SSE, AVX2 or AVX-512, whichever the processor has), and scans runs with
+ *  Arrays.mismatch(), which the JDK implements with vector compares.  The
+ *  scalar one computes each output pixel on its own, as PixImage does.  The
+ *  vectorized implementation is used unless the system property
+ *  "pixelkernels.scalar" is set to true.
+ */
+
+import java.util.Arrays;
+
+public class PixelKernels {
+
+	// True if the vectorized implementations are used.
+	public static final boolean VECTORIZED = !Boolean.getBoolean("pixelkernels.scalar");
+
+	// Multiplying a sum of at most 9 intensities by RECIPROCAL[d] and
+	// shifting right by 16 bits divides it by d, rounding toward zero.
+	private static final int [] RECIPROCAL = new int[10];
+
+	static {
+		for(int d=1; d<RECIPROCAL.length; d++)
+			RECIPROCAL[d] = 65536/d + 1;
+	}
+
+  private PixelKernels() {
+  }
+
+  /**
+   * boxBlur() returns the planes of a blurred version of the specified
+   * planes, with the same results as PixImage.boxBlur():  each intensity is
+   * the average of the neighbors that lie inside the image, rounded toward
+   * zero.  If numIterations is zero or negative, the specified planes are
+   * returned.
+   *
+   * @param src the planes to blur.
+   * @param numIterations the number of iterations of box blurring.
+   * @return a blurred version of the planes.
+   */
+  public static PixelPlanes boxBlur(PixelPlanes src, int numIterations) {
+	  return boxBlur(src, numIterations, VECTORIZED);
+  }
+
+  static PixelPlanes boxBlur(PixelPlanes src, int numIterations, boolean vectorized) {
+	  if(numIterations <= 0)
+		  return src;
+	  int w = src.width;
+	  int h = src.height;
+	  PixelPlanes a = new PixelPlanes(w, h);
+	  PixelPlanes b = numIterations > 1 ? new PixelPlanes(w, h) : null;
+	  int [] rowSum = new int[w];
+	  int [][] mul = reciprocals(w);
+
+	  PixelPlanes from = src;
+	  PixelPlanes to = a;
+	  for(int n=0; n<numIterations; n++){
+		  if(vectorized){
+			  blurPlane(from.red, to.red, w, h, rowSum, mul);
+			  blurPlane(from.green, to.green, w, h, rowSum, mul);
+			  blurPlane(from.blue, to.blue, w, h, rowSum, mul);
+		  }
+		  else{
+			  blurPlaneScalar(from.red, to.red, w, h);
+			  blurPlaneScalar(from.green, to.green, w, h);
+			  blurPlaneScalar(from.blue, to.blue, w, h);
+		  }
+		  from = to;
+		  to = to == a ? b : a;
+	  }
+	  return from;
+  }
+
+  /**
+   * reciprocals() returns, for each number of real neighbors in a column
+   * (1, 2 or 3), the reciprocal of the neighbor count of every pixel of a
+   * row of the specified width.
+   */
+  static int[][] reciprocals(int w) {
+	  int [][] mul = new int[4][w];
+	  for(int vertical=1; vertical<=3; vertical++){
+		  for(int x=0; x<w; x++){
+			  int horizontal = w == 1 ? 1 : (x == 0 || x == w-1) ? 2 : 3;
+			  mul[vertical][x] = RECIPROCAL[vertical*horizontal];
+		  }
+	  }
+	  return mul;
+  }
+
+  /**
+   * blurPlane() performs one iteration of box blurring of one plane.  For
+   * every row, the intensities of the row and its real neighbor rows are
+   * summed column by column into rowSum, then each output is the sum of
+   * three neighboring column sums multiplied by the reciprocal of its
+   * neighbor count.
+   */
+  static void blurPlane(int[] src, int[] dst, int w, int h, int[] rowSum, int[][] mul) {
+	  for(int y=0; y<h; y++){
+		  int row = y*w;
+		  System.arraycopy(src, row, rowSum, 0, w);
+		  int vertical = 1;
+		  if(y > 0){
+			  int above = row - w;
+			  for(int x=0; x<w; x++)
+				  rowSum[x] += src[above + x];
+			  vertical++;
+		  }
+		  if(y < h-1){
+			  int below = row + w;
+			  for(int x=0; x<w; x++)
+				  rowSum[x] += src[below + x];
+			  vertical++;
+		  }
+		  int [] m = mul[vertical];
+		  if(w == 1){
+			  dst[row] = (rowSum[0]*m[0]) >>> 16;
+			  continue;
+		  }
+		  dst[row] = ((rowSum[0] + rowSum[1])*m[0]) >>> 16;
+		  for(int x=1; x<w-1; x++)
+			  dst[row + x] = ((rowSum[x-1] + rowSum[x] + rowSum[x+1])*m[x]) >>> 16;
+		  dst[row + w-1] = ((rowSum[w-2] + rowSum[w-1])*m[w-1]) >>> 16;
+	  }
+  }
+
+  /**
+   * blurPlaneScalar() performs one iteration of box blurring of one plane,
+   * one output pixel at a time.
+   */
+  static void blurPlaneScalar(int[] src, int[] dst, int w, int h) {
+	  for(int y=0; y<h; y++){
+		  for(int x=0; x<w; x++){
+			  int sum = 0;
+			  int count = 0;
+			  for(int j=Math.max(0, y-1); j<=Math.min(h-1, y+1); j++){
+				  for(int i=Math.max(0, x-1); i<=Math.min(w-1, x+1); i++){
+					  sum += src[j*w + i];
+					  count++;
+				  }
+			  }
+			  dst[y*w + x] = sum/count;
+		  }
+	  }
+  }
+
+  /**
+   * sobelEnergy() stores in the specified array the energy computed by the
+   * Sobel operator at every pixel of the specified planes, as
+   * PixImage.sobelEdges() does before mapping it to a grayscale intensity:
+   * the sum over the three colors of the squared x- and y-gradients, with
+   * the neighbors outside the image replaced by the nearest pixel.
+   *
+   * @param src the planes.
+   * @param energy an array of at least width*height elements receiving the
+   * energies in row-major order.
+   */
+  public static void sobelEnergy(PixelPlanes src, int[] energy) {
+	  sobelEnergy(src, energy, VECTORIZED);
+  }
+
+  static void sobelEnergy(PixelPlanes src, int[] energy, boolean vectorized) {
+	  int w = src.width;
+	  int h = src.height;
+	  Arrays.fill(energy, 0, w*h, 0);
+	  if(vectorized){
+		  int [] smooth = new int[w];
+		  int [] diff = new int[w];
+		  sobelPlane(src.red, energy, w, h, smooth, diff);
+		  sobelPlane(src.green, energy, w, h, smooth, diff);
+		  sobelPlane(src.blue, energy, w, h, smooth, diff);
+	  }
+	  else{
+		  sobelPlaneScalar(src.red, energy, w, h);
+		  sobelPlaneScalar(src.green, energy, w, h);
+		  sobelPlaneScalar(src.blue, energy, w, h);
+	  }
+  }
+
+  /**
+   * sobelPlane() adds the energy of one plane to the specified energies.
+   * For every row, the vertical parts of the two Sobel kernels are applied
+   * column by column first:  smooth[x] is the (1,2,1)-weighted sum of the
+   * column and diff[x] the difference between the rows above and below.
+   * The horizontal parts then combine neighboring columns.
+   */
+  static void sobelPlane(int[] src, int[] energy, int w, int h, int[] smooth, int[] diff) {
+	  for(int y=0; y<h; y++){
+		  int row = y*w;
+		  int above = Math.max(0, y-1)*w;
+		  int below = Math.min(h-1, y+1)*w;
+		  for(int x=0; x<w; x++){
+			  int a = src[above + x];
+			  int b = src[below + x];
+			  smooth[x] = a + 2*src[row + x] + b;
+			  diff[x] = a - b;
+		  }
+		  // Left and right borders, whose missing neighbor is the border
+		  // pixel itself.
+		  int last = w-1;
+		  int right = Math.min(1, last);
+		  int gx = smooth[0] - smooth[right];
+		  int gy = 3*diff[0] + diff[right];
+		  energy[row] += gx*gx + gy*gy;
+		  if(w > 1){
+			  gx = smooth[last-1] - smooth[last];
+			  gy = diff[last-1] + 3*diff[last];
+			  energy[row + last] += gx*gx + gy*gy;
+		  }
+		  for(int x=1; x<last; x++){
+			  int gxi = smooth[x-1] - smooth[x+1];
+			  int gyi = diff[x-1] + 2*diff[x] + diff[x+1];
+			  energy[row + x] += gxi*gxi + gyi*gyi;
+		  }
+	  }
+  }
+
+  /**
+   * sobelPlaneScalar() adds the energy of one plane to the specified
+   * energies, one pixel at a time.
+   */
+  static void sobelPlaneScalar(int[] src, int[] energy, int w, int h) {
+	  for(int y=0; y<h; y++){
+		  for(int x=0; x<w; x++){
+			  int gx = 0;
+			  int gy = 0;
+			  for(int j=-1; j<=1; j++){
+				  for(int i=-1; i<=1; i++){
+					  int a = Math.min(w-1, Math.max(0, x+i));
+					  int b = Math.min(h-1, Math.max(0, y+j));
+					  int p = src[b*w + a];
+					  // The kernels of PixImage.gx() and PixImage.gy().
+					  gx += -i*(2 - j*j)*p;
+					  gy += -j*(2 - i*i)*p;
+				  }
+			  }
+			  energy[y*w + x] += gx*gx + gy*gy;
+		  }
+	  }
+  }
+
+  /**
+   * sobelEdges() returns the grayscale planes of the edges of the specified
+   * planes, with the same results as PixImage.sobelEdges().
+   *
+   * @param src the planes.
+   * @return new planes whose three colors are the grayscale edge strengths.
+   */
+  public static PixelPlanes sobelEdges(PixelPlanes src) {
+	  return sobelEdges(src, VECTORIZED);
+  }
+
+  static PixelPlanes sobelEdges(PixelPlanes src, boolean vectorized) {
+	  int [] energy = new int[src.width*src.height];
+	  sobelEnergy(src, energy, vectorized);
+	  for(int i=0; i<energy.length; i++)
+		  energy[i] = PixImage.mag2gray(energy[i]);
+	  return new PixelPlanes(src.width, src.height, energy, energy.clone(), energy.clone());
+  }
+
+  /**
+   * nextRunBoundary() returns the index of the first packed color in
+   * pixels[from+1...to-1] that differs from pixels[from], or "to" if they
+   * are all equal.
+   *
+   * @param pixels packed RGB values, as by RGB.pack().
+   * @param from the index of the first pixel of the run.
+   * @param to the index after the last pixel that may belong to the run.
+   * @return the index of the first pixel after the run.
+   */
+  public static int nextRunBoundary(int[] pixels, int from, int to) {
+	  return nextRunBoundary(pixels, from, to, VECTORIZED);
+  }
+
+  static int nextRunBoundary(int[] pixels, int from, int to, boolean vectorized) {
+	  if(to - from <= 1)
+		  return to;
+	  if(vectorized){
+		  // Comparing the range with itself shifted by one finds the first
+		  // pixel that differs from its predecessor, several pixels per
+		  // instruction.
+		  int k = Arrays.mismatch(pixels, from + 1, to, pixels, from, to - 1);
+		  return k < 0 ? to : from + 1 + k;
+	  }
+	  int color = pixels[from];
+	  int i = from + 1;
+	  while(i < to && pixels[i] == color)
+		  i++;
+	  return i;
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() checks that both implementations of every kernel give the same
+   * results as PixImage on random images of several shapes.
+   */
+  public static void main(String[] args) {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int [][] shapes = { { 2, 2 }, { 3, 3 }, { 2, 3 }, { 17, 5 }, { 64, 33 }, { 129, 70 } };
+	  for(int [] shape : shapes){
+		  int w = shape[0];
+		  int h = shape[1];
+		  PixImage image = new PixImage(w, h);
+		  for(int x=0; x<w; x++)
+			  for(int y=0; y<h; y++)
+				  image.setPacked(x, y, random.nextInt(1 << 24));
+		  PixelPlanes planes = PixelPlanes.of(image);
+
+		  System.out.println("Testing the blur kernels on a " + w + "x" + h + " image.");
+		  PixImage expected = image.boxBlur(3);
+		  doTest(boxBlur(planes, 3, true).toPixImage().equals(expected) &&
+				  boxBlur(planes, 3, false).toPixImage().equals(expected),
+				  "Blur kernels differ from PixImage.boxBlur() on " + w + "x" + h);
+
+		  System.out.println("Testing the Sobel kernels on a " + w + "x" + h + " image.");
+		  expected = image.sobelEdges();
+		  doTest(sobelEdges(planes, true).toPixImage().equals(expected) &&
+				  sobelEdges(planes, false).toPixImage().equals(expected),
+				  "Sobel kernels differ from PixImage.sobelEdges() on " + w + "x" + h);
+	  }
+
+	  System.out.println("Testing the run-boundary kernels.");
+	  int [] pixels = new int[1000];
+	  for(int i=0; i<pixels.length; i++)
+		  pixels[i] = random.nextInt(8) == 0 ? random.nextInt(3) : (i > 0 ? pixels[i-1] : 0);
+	  boolean same = true;
+	  for(int from=0; from<pixels.length; from++)
+		  for(int to=from; to<=Math.min(pixels.length, from + 40); to++)
+			  same &= nextRunBoundary(pixels, from, to, true) ==
+					  nextRunBoundary(pixels, from, to, false);
+	  doTest(same, "Run-boundary kernels differ.");
+  }
+}
@@ -0,0 +1,119 @@
+/* PixelPlanes.java */
+
+/**
+ *  The PixelPlanes class holds an image as three planes of primitive
+ *  intensities, one per color, each in row-major order:  the intensities of
+ *  the pixel at coordinate (x, y) are red[y*width + x], green[y*width + x]
+ *  and blue[y*width + x].  Unlike a PixImage, whose pixels are separate RGB
+ *  objects, the planes can be walked by the tight loops of PixelKernels.
+ */
+
+public class PixelPlanes {
+
+	final int width, height;
+	final int [] red, green, blue;
+
+
+  /**
+   * PixelPlanes() (with two parameters) constructs planes of the specified
+   * width and height with every intensity zero.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   */
+  public PixelPlanes(int width, int height) {
+	  this(width, height, new int[width*height], new int[width*height],
+			  new int[width*height]);
+  }
+
+  /**
+   * PixelPlanes() (with five parameters) constructs planes of the specified
+   * width and height around the specified arrays, without copying them.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param red the red intensities in row-major order.
+   * @param green the green intensities in row-major order.
+   * @param blue the blue intensities in row-major order.
+   */
+  public PixelPlanes(int width, int height, int[] red, int[] green, int[] blue) {
+	  this.width = width;
+	  this.height = height;
+	  this.red = red;
+	  this.green = green;
+	  this.blue = blue;
+  }
+
+  /**
+   * of() returns the planes of the specified PixImage.
+   *
+   * @param image the image.
+   * @return new planes holding the intensities of the image.
+   */
+  public static PixelPlanes of(PixImage image) {
+	  PixelPlanes planes = new PixelPlanes(image.getWidth(), image.getHeight());
+	  planes.readFrom(image);
+	  return planes;
+  }
+
+  /**
+   * readFrom() copies the intensities of the specified PixImage, which must
+   * have the same width and height, into "this".
+   *
+   * @param image the image to copy.
+   */
+  public void readFrom(PixImage image) {
+	  for(int y=0; y<height; y++){
+		  int row = y*width;
+		  for(int x=0; x<width; x++){
+			  int p = image.getPacked(x, y);
+			  red[row + x] = (p >> 16) & 0xFF;
+			  green[row + x] = (p >> 8) & 0xFF;
+			  blue[row + x] = p & 0xFF;
+		  }
+	  }
+  }
+
+  /**
+   * writeTo() copies the intensities of "this" into the specified PixImage,
+   * which must have the same width and height.
+   *
+   * @param image the image to overwrite.
+   */
+  public void writeTo(PixImage image) {
+	  for(int y=0; y<height; y++){
+		  int row = y*width;
+		  for(int x=0; x<width; x++)
+			  image.setPacked(x, y, (red[row + x] << 16) | (green[row + x] << 8) | blue[row + x]);
+	  }
+  }
+
+  /**
+   * toPixImage() returns a PixImage holding the intensities of "this".
+   *
+   * @return a new PixImage holding the intensities of "this".
+   */
+  public PixImage toPixImage() {
+	  PixImage image = new PixImage(width, height);
+	  writeTo(image);
+	  return image;
+  }
+
+  /**
+   * getWidth() returns the width of the image.
+   *
+   * @return the width of the image.
+   */
+  public int getWidth() {
+	  return width;
+  }
+
+  /**
+   * getHeight() returns the height of the image.
+   *
+   * @return the height of the image.
+   */
+  public int getHeight() {
+	  return height;
+  }
+}
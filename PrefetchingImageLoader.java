@@ -0,0 +1,396 @@
+/* PrefetchingImageLoader.java */
+
+/**
+ *  The PrefetchingImageLoader class reads a sequence of raw RGB files, as
+ *  written by RawImageIO, and hands their pixels to a consumer one file at
+ *  a time, in order.  While the consumer works on one image, the next files
+ *  are already being read with AsynchronousFileChannel and decoded on the
+ *  threads of the channels, so the reads overlap the consumer's computation
+ *  instead of alternating with it.  At most "depth" files are read ahead.
+ *
+ *  The bytes read and the decoded pixels live in buffers taken from
+ *  BufferPools and given back as soon as they are no longer needed, so a
+ *  batch of images of a few sizes allocates its buffers once per size
+ *  rather than once per file.  The bytes are read into direct buffers,
+ *  which the channels fill without an intermediate copy.
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+public class PrefetchingImageLoader {
+
+	private final int depth;
+	// Direct buffers of file bytes, by length.
+	private final BufferPool<ByteBuffer> bytePool;
+	// Arrays of packed pixels, by number of pixels.
+	private final BufferPool<int[]> pixelPool;
+
+
+  /**
+   *  The Source class names a raw RGB file and its dimensions.
+   */
+  public static class Source {
+
+	  final Path path;
+	  final int width, height;
+	  final RawImageIO.Layout layout;
+
+	  /**
+	   * Source() constructs a source reading the specified raw file.
+	   *
+	   * @param path the raw file.
+	   * @param width the width of the image.
+	   * @param height the height of the image.
+	   * @param layout the layout of the file.
+	   */
+	  public Source(Path path, int width, int height, RawImageIO.Layout layout) {
+		  this.path = path;
+		  this.width = width;
+		  this.height = height;
+		  this.layout = layout;
+	  }
+  }
+
+  /**
+   *  The Image class holds the decoded pixels of one file while the
+   *  consumer handles it.  The pixels array belongs to the loader and is
+   *  reused for a later file once the consumer returns, so the consumer
+   *  must copy anything it keeps, for example with toPixImage() or
+   *  toRunLengthEncoding().
+   */
+  public static class Image {
+
+	  private final Path path;
+	  private final int width, height;
+	  private final int [] pixels;
+
+	  Image(Path path, int width, int height, int[] pixels) {
+		  this.path = path;
+		  this.width = width;
+		  this.height = height;
+		  this.pixels = pixels;
+	  }
+
+	  /**
+	   * getPath() returns the file the image was read from.
+	   *
+	   * @return the file.
+	   */
+	  public Path getPath() {
+		  return path;
+	  }
+
+	  /**
+	   * getWidth() returns the width of the image.
+	   *
+	   * @return the width of the image.
+	   */
+	  public int getWidth() {
+		  return width;
+	  }
+
+	  /**
+	   * getHeight() returns the height of the image.
+	   *
+	   * @return the height of the image.
+	   */
+	  public int getHeight() {
+		  return height;
+	  }
+
+	  /**
+	   * getPixels() returns the pixels packed as by RGB.pack(), in row-major
+	   * order.  The array is only valid until the consumer returns.
+	   *
+	   * @return the packed pixels.
+	   */
+	  public int[] getPixels() {
+		  return pixels;
+	  }
+
+	  /**
+	   * toPixImage() returns a new PixImage holding the pixels.
+	   *
+	   * @return a new PixImage.
+	   */
+	  public PixImage toPixImage() {
+		  return PixImage.fromPackedArray(width, height, pixels);
+	  }
+
+	  /**
+	   * toRunLengthEncoding() returns the run-length encoding of the pixels.
+	   *
+	   * @return a new run-length encoding.
+	   */
+	  public RunLengthEncoding toRunLengthEncoding() {
+		  return RunEncoder.encode(width, height, pixels);
+	  }
+  }
+
+  /**
+   *  The Consumer interface handles the images of a PrefetchingImageLoader.
+   */
+  public interface Consumer {
+
+	/**
+	 * accept() handles one image.
+	 *
+	 * @param image the image, valid until accept() returns.
+	 * @throws IOException if the image cannot be handled.
+	 */
+	void accept(Image image) throws IOException;
+  }
+
+  /**
+   * PrefetchingImageLoader() constructs a loader reading up to the specified
+   * number of files ahead of the consumer.
+   *
+   * @param depth the number of files read ahead, at least one.
+   * @throws IllegalArgumentException if depth is less than one.
+   */
+  public PrefetchingImageLoader(int depth) {
+	  if(depth < 1)
+		  throw new IllegalArgumentException("Prefetch depth " + depth + " is less than one");
+	  this.depth = depth;
+	  bytePool = new BufferPool<>(length -> ByteBuffer.allocateDirect((int) length), depth);
+	  // The consumer holds one more array while depth files are read ahead.
+	  pixelPool = new BufferPool<>(pixels -> new int[(int) pixels], depth + 1);
+  }
+
+  /**
+   * load() reads the specified files and hands their images to the
+   * specified consumer in order, reading ahead while the consumer works.  It
+   * returns once every image has been consumed, or throws at the first file
+   * that cannot be read, after waiting for the reads still in flight.
+   *
+   * @param sources the files to read.
+   * @param consumer the consumer of the images.
+   * @throws IOException if a file cannot be read or the consumer throws.
+   */
+  public void load(Iterable<Source> sources, Consumer consumer) throws IOException {
+	  Iterator<Source> next = sources.iterator();
+	  ArrayDeque<CompletableFuture<Image>> pending = new ArrayDeque<>();
+	  try{
+		  while(pending.size() < depth && next.hasNext())
+			  pending.add(start(next.next()));
+		  while(!pending.isEmpty()){
+			  Image image = await(pending.poll());
+			  // Keep the reads going while the consumer works.
+			  if(next.hasNext())
+				  pending.add(start(next.next()));
+			  try{
+				  consumer.accept(image);
+			  }
+			  finally{
+				  pixelPool.release(image.pixels.length, image.pixels);
+			  }
+		  }
+	  }
+	  finally{
+		  // Let the reads in flight finish, so their buffers return to the pools.
+		  for(CompletableFuture<Image> f : pending){
+			  Image image = f.handle((i, t) -> i).join();
+			  if(image != null)
+				  pixelPool.release(image.pixels.length, image.pixels);
+		  }
+	  }
+  }
+
+  /**
+   * await() waits for the specified image and returns it, rethrowing the
+   * exception that failed it.
+   */
+  private static Image await(CompletableFuture<Image> future) throws IOException {
+	  try{
+		  return future.get();
+	  }
+	  catch(InterruptedException e){
+		  Thread.currentThread().interrupt();
+		  throw new InterruptedIOException("Interrupted while loading images");
+	  }
+	  catch(ExecutionException e){
+		  if(e.getCause() instanceof IOException)
+			  throw (IOException) e.getCause();
+		  throw new IOException(e.getCause());
+	  }
+  }
+
+  /**
+   * start() starts reading the specified file and returns the future image.
+   * The file is read into a pooled direct buffer, then decoded into a
+   * pooled pixel array on the thread completing the last read.
+   */
+  private CompletableFuture<Image> start(Source source) {
+	  CompletableFuture<Image> future = new CompletableFuture<>();
+	  int length;
+	  AsynchronousFileChannel channel;
+	  try{
+		  length = RawImageIO.byteLength(source.width, source.height);
+		  channel = AsynchronousFileChannel.open(source.path, StandardOpenOption.READ);
+	  }
+	  catch(IOException | RuntimeException e){
+		  future.completeExceptionally(e);
+		  return future;
+	  }
+	  ByteBuffer bytes = bytePool.acquire(length);
+	  bytes.clear().limit(length);
+
+	  CompletionHandler<Integer, Void> handler = new CompletionHandler<Integer, Void>() {
+		  public void completed(Integer n, Void unused) {
+			  if(n < 0)
+				  failed(new IOException(source.path + " holds fewer than " + length + " bytes"),
+						  null);
+			  else if(bytes.hasRemaining())
+				  channel.read(bytes, bytes.position(), null, this);
+			  else{
+				  close();
+				  int [] pixels = pixelPool.acquire(source.width*source.height);
+				  try{
+					  bytes.flip();
+					  RawImageIO.toPacked(bytes, source.layout, pixels.length, pixels);
+					  future.complete(new Image(source.path, source.width, source.height, pixels));
+				  }
+				  catch(RuntimeException e){
+					  future.completeExceptionally(e);
+				  }
+				  finally{
+					  bytePool.release(length, bytes);
+				  }
+			  }
+		  }
+
+		  public void failed(Throwable t, Void unused) {
+			  close();
+			  bytePool.release(length, bytes);
+			  future.completeExceptionally(t);
+		  }
+
+		  private void close() {
+			  try{
+				  channel.close();
+			  }
+			  catch(IOException e){
+				  // The file was only read; nothing is lost.
+			  }
+		  }
+	  };
+	  try{
+		  channel.read(bytes, 0, null, handler);
+	  }
+	  catch(RuntimeException e){
+		  handler.failed(e, null);
+	  }
+	  return future;
+  }
+
+  /**
+   * getPixelAllocations() returns the number of pixel arrays allocated so
+   * far; the rest of the images reused a pooled array.
+   */
+  long getPixelAllocations() {
+	  return pixelPool.getAllocations();
+  }
+
+  /**
+   * getByteAllocations() returns the number of byte buffers allocated so
+   * far.
+   */
+  long getByteAllocations() {
+	  return bytePool.getAllocations();
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() loads raw files of two sizes and checks the images, their order
+   * and the reuse of the buffers.
+   */
+  public static void main(String[] args) throws IOException {
+
+	  java.util.Random random = new java.util.Random(61);
+	  Path dir = java.nio.file.Files.createTempDirectory("prefetch");
+	  java.util.List<Source> sources = new java.util.ArrayList<>();
+	  java.util.List<PixImage> expected = new java.util.ArrayList<>();
+	  for(int n=0; n<12; n++){
+		  int width = n % 2 == 0 ? 31 : 17;
+		  int height = n % 2 == 0 ? 20 : 9;
+		  RawImageIO.Layout layout = n % 3 == 0 ? RawImageIO.Layout.PLANAR :
+			  RawImageIO.Layout.INTERLEAVED;
+		  PixImage image = new PixImage(width, height);
+		  for(int x=0; x<width; x++)
+			  for(int y=0; y<height; y++)
+				  image.setPacked(x, y, x < width/2 ? 0x102030 : random.nextInt(1 << 24));
+		  Path path = dir.resolve("image" + n + ".rgb");
+		  RawImageIO.write(image, path, layout);
+		  sources.add(new Source(path, width, height, layout));
+		  expected.add(image);
+	  }
+
+	  System.out.println("Testing the images and their order.");
+	  PrefetchingImageLoader loader = new PrefetchingImageLoader(3);
+	  java.util.List<PixImage> loaded = new java.util.ArrayList<>();
+	  java.util.List<RunLengthEncoding> encoded = new java.util.ArrayList<>();
+	  loader.load(sources, image -> {
+		  loaded.add(image.toPixImage());
+		  encoded.add(image.toRunLengthEncoding());
+	  });
+	  boolean same = loaded.size() == expected.size();
+	  for(int n=0; same && n<expected.size(); n++)
+		  same = loaded.get(n).equals(expected.get(n)) &&
+				  encoded.get(n).toPixImage().equals(expected.get(n));
+	  doTest(same, "The loaded images differ from the files.");
+
+	  System.out.println("Testing the reuse of the buffers.");
+	  loader.load(sources, image -> { });
+	  doTest(loader.getPixelAllocations() <= 2*4 && loader.getByteAllocations() <= 2*3,
+			  "The loader allocated " + loader.getPixelAllocations() + " pixel arrays and " +
+			  loader.getByteAllocations() + " byte buffers for two sizes.");
+
+	  System.out.println("Testing a file that is too short.");
+	  java.util.List<Source> bad = new java.util.ArrayList<>(sources);
+	  Source first = sources.get(0);
+	  bad.add(2, new Source(first.path, first.width, first.height + 1, first.layout));
+	  int [] consumed = new int[1];
+	  boolean failed = false;
+	  try{
+		  loader.load(bad, image -> consumed[0]++);
+	  }
+	  catch(IOException e){
+		  failed = true;
+	  }
+	  doTest(failed && consumed[0] == 2, "A short file was not reported in order.");
+
+	  for(Source s : sources)
+		  java.nio.file.Files.delete(s.path);
+	  java.nio.file.Files.delete(dir);
+  }
+}
@@ -63,6 +63,56 @@ public class RGB {
 		return rgb;
 	}
 	
+	/**
+	 * getRed() returns the red intensity of this, without allocating.
+	 * 
+	 * @return The red intensity.
+	 */
+	public short getRed(){
+		return red;
+	}
+	
+	/**
+	 * getGreen() returns the green intensity of this, without allocating.
+	 * 
+	 * @return The green intensity.
+	 */
+	public short getGreen(){
+		return green;
+	}
+	
+	/**
+	 * getBlue() returns the blue intensity of this, without allocating.
+	 * 
+	 * @return The blue intensity.
+	 */
+	public short getBlue(){
+		return blue;
+	}
+	
+	/**
+	 * pack() returns the red, green and blue intensities of this packed
+	 * into the lower 24 bits of an int, red in the highest byte.  Two RGB
+	 * objects are equal if and only if their packed values are equal.
+	 * 
+	 * @return The packed RGB value 0xRRGGBB.
+	 */
+	public int pack(){
+		return (red << 16) | (green << 8) | blue;
+	}
+	
+	/**
+	 * unpack() returns a new RGB object having the intensities of the 
+	 * specified packed RGB value.
+	 * 
+	 * @param rgb A packed RGB value 0xRRGGBB as returned by pack().
+	 * @return A new RGB object having the specified intensities.
+	 */
+	public static RGB unpack(int rgb){
+		return new RGB((short)((rgb >> 16) & 0xFF), (short)((rgb >> 8) & 0xFF), 
+				(short)(rgb & 0xFF));
+	}
+	
 	/**
 	 * equals() returns true if this is identical to the 
 	 * specified RGB object.
@@ -96,9 +146,9 @@ public class RGB {
 	 * RGB values.
 	 */
 	public static RGB add(RGB p1, RGB p2){
-		short r = (short) (p1.getRGB()[0]+p2.getRGB()[0]);
-		short g = (short) (p1.getRGB()[1]+p2.getRGB()[1]);
-		short b = (short) (p1.getRGB()[2]+p2.getRGB()[2]);
+		short r = (short) (p1.getRed()+p2.getRed());
+		short g = (short) (p1.getGreen()+p2.getGreen());
+		short b = (short) (p1.getBlue()+p2.getBlue());
 		return new RGB(r,g,b);
 	}
 	
@@ -112,9 +162,9 @@ public class RGB {
 	 * RGB values.
 	 */
 	public static RGB divide(RGB p1, int d){
-		short r = (short)(p1.getRGB()[0]/d);
-		short g = (short)(p1.getRGB()[1]/d);
-		short b = (short)(p1.getRGB()[2]/d);
+		short r = (short)(p1.getRed()/d);
+		short g = (short)(p1.getGreen()/d);
+		short b = (short)(p1.getBlue()/d);
 		return new RGB(r,g,b);
 	}
 }
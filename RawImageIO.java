@@ -0,0 +1,436 @@
+/* RawImageIO.java */
+
+/**
+ *  The RawImageIO class reads and writes raw RGB files:  files holding only
+ *  the intensities of the pixels, one byte each, in row-major order and in
+ *  one of the layouts Layout lists.  The width and height are not stored and
+ *  must be known to the reader.
+ *
+ *  The files are accessed through FileChannel.map(), so the intensities
+ *  are copied between the page cache and the image in bulk, a row at a
+ *  time, with no read or write call per pixel.  map() goes further and
+ *  returns a MappedPixImage whose pixels are the mapped file itself, with
+ *  nothing copied at all.
+ *
+ *  A mapping covers at most Integer.MAX_VALUE bytes, so a file may hold at
+ *  most about 715 million pixels.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class RawImageIO {
+
+	// Largest number of pixels converted in one bulk copy.
+	static final int CHUNK = 1 << 12;
+
+
+  /**
+   *  The Layout enumeration lists the orders of the bytes of a raw file.
+   *  INTERLEAVED stores the red, green and blue intensities of each pixel
+   *  together; PLANAR stores every red intensity, then every green, then
+   *  every blue.
+   */
+  public enum Layout { INTERLEAVED, PLANAR }
+
+  private RawImageIO() {
+  }
+
+  /**
+   * byteLength() returns the number of bytes of a raw file of the specified
+   * width and height.
+   *
+   * @throws IllegalArgumentException if the size is negative or the file
+   * would be too large to map.
+   */
+  static int byteLength(int width, int height) {
+	  long length = 3L*width*height;
+	  if(width < 0 || height < 0 || length > Integer.MAX_VALUE)
+		  throw new IllegalArgumentException("Cannot map a " + width + "x" + height + " image");
+	  return (int) length;
+  }
+
+  /**
+   * map() maps the first length bytes of the specified file, which must
+   * hold them unless writable is true, in which case the file is created
+   * or extended as needed.
+   */
+  private static MappedByteBuffer map(Path path, int length, boolean writable) throws IOException {
+	  StandardOpenOption [] options = writable ?
+			  new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE,
+					  StandardOpenOption.CREATE } :
+			  new StandardOpenOption[] { StandardOpenOption.READ };
+	  // The mapping stays valid after the channel is closed.
+	  try(FileChannel channel = FileChannel.open(path, options)) {
+		  if(!writable && channel.size() < length)
+			  throw new IOException(path + " holds " + channel.size() + " bytes, not " + length);
+		  return channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+				  0, length);
+	  }
+  }
+
+  /**
+   * map() returns a MappedPixImage of the specified width and height whose
+   * pixels are the bytes of the specified raw file.  If writable is true,
+   * changes to the image change the file, which is created or extended to
+   * the size of the image if it is shorter; otherwise the image is
+   * read-only, and the file must hold the whole image.
+   *
+   * @param path the raw file.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param layout the layout of the file.
+   * @param writable whether changes to the image are written to the file.
+   * @return an image viewing the file.
+   * @throws IOException if the file cannot be mapped or is too short.
+   */
+  public static MappedPixImage map(Path path, int width, int height, Layout layout,
+		  boolean writable) throws IOException {
+	  return new MappedPixImage(width, height, layout,
+			  map(path, byteLength(width, height), writable), path);
+  }
+
+  /**
+   * getPixels() reads the specified number of pixels, starting with the
+   * pixel at index from in row-major order, from bytes of the specified
+   * layout holding the specified number of pixels, packing them as by
+   * RGB.pack() into packed.
+   */
+  static void getPixels(ByteBuffer src, Layout layout, int pixels, int from, int count,
+		  int[] packed, byte[] scratch) {
+	  if(layout == Layout.INTERLEAVED){
+		  src.get(3*from, scratch, 0, 3*count);
+		  for(int i=0, b=0; i<count; i++, b+=3)
+			  packed[i] = ((scratch[b] & 0xFF) << 16) | ((scratch[b+1] & 0xFF) << 8) |
+					  (scratch[b+2] & 0xFF);
+	  }
+	  else{
+		  java.util.Arrays.fill(packed, 0, count, 0);
+		  for(int c=0; c<3; c++){
+			  src.get(c*pixels + from, scratch, 0, count);
+			  int shift = 16 - 8*c;
+			  for(int i=0; i<count; i++)
+				  packed[i] |= (scratch[i] & 0xFF) << shift;
+		  }
+	  }
+  }
+
+  /**
+   * putPixels() writes the specified number of packed pixels, starting with
+   * the pixel at index from in row-major order, into bytes of the specified
+   * layout holding the specified number of pixels.
+   */
+  static void putPixels(ByteBuffer dst, Layout layout, int pixels, int from, int count,
+		  int[] packed, byte[] scratch) {
+	  if(layout == Layout.INTERLEAVED){
+		  for(int i=0, b=0; i<count; i++, b+=3){
+			  scratch[b] = (byte) (packed[i] >> 16);
+			  scratch[b+1] = (byte) (packed[i] >> 8);
+			  scratch[b+2] = (byte) packed[i];
+		  }
+		  dst.put(3*from, scratch, 0, 3*count);
+	  }
+	  else{
+		  for(int c=0; c<3; c++){
+			  int shift = 16 - 8*c;
+			  for(int i=0; i<count; i++)
+				  scratch[i] = (byte) (packed[i] >> shift);
+			  dst.put(c*pixels + from, scratch, 0, count);
+		  }
+	  }
+  }
+
+  /**
+   * toPacked() returns the specified number of pixels held in bytes of the
+   * specified layout, packed as by RGB.pack() in row-major order.
+   */
+  static int[] toPacked(ByteBuffer src, Layout layout, int pixels) {
+	  int [] result = new int[pixels];
+	  toPacked(src, layout, pixels, result);
+	  return result;
+  }
+
+  /**
+   * toPacked() packs the specified number of pixels held in bytes of the
+   * specified layout as by RGB.pack() into the first elements of dst, in
+   * row-major order.
+   */
+  static void toPacked(ByteBuffer src, Layout layout, int pixels, int[] dst) {
+	  int [] packed = new int[CHUNK];
+	  byte [] scratch = new byte[3*CHUNK];
+	  for(int from=0; from<pixels; from+=CHUNK){
+		  int count = Math.min(CHUNK, pixels - from);
+		  getPixels(src, layout, pixels, from, count, packed, scratch);
+		  System.arraycopy(packed, 0, dst, from, count);
+	  }
+  }
+
+  /**
+   * read() reads a PixImage of the specified width and height from the
+   * specified raw file, a row at a time.
+   *
+   * @param path the raw file.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param layout the layout of the file.
+   * @return a new PixImage holding the pixels of the file.
+   * @throws IOException if the file cannot be read or is too short.
+   */
+  public static PixImage read(Path path, int width, int height, Layout layout) throws IOException {
+	  ByteBuffer src = map(path, byteLength(width, height), false);
+	  PixImage image = new PixImage(width, height);
+	  int [] row = new int[width];
+	  byte [] scratch = new byte[3*width];
+	  for(int y=0; y<height; y++){
+		  getPixels(src, layout, width*height, y*width, width, row, scratch);
+		  for(int x=0; x<width; x++)
+			  image.setPacked(x, y, row[x]);
+	  }
+	  return image;
+  }
+
+  /**
+   * readPlanes() reads PixelPlanes of the specified width and height from
+   * the specified raw file.  The planes are primitive arrays, so they are
+   * filled in bulk with no object per pixel.
+   *
+   * @param path the raw file.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param layout the layout of the file.
+   * @return new planes holding the intensities of the file.
+   * @throws IOException if the file cannot be read or is too short.
+   */
+  public static PixelPlanes readPlanes(Path path, int width, int height, Layout layout)
+		  throws IOException {
+	  int pixels = width*height;
+	  ByteBuffer src = map(path, byteLength(width, height), false);
+	  PixelPlanes planes = new PixelPlanes(width, height);
+	  byte [] scratch = new byte[3*CHUNK];
+	  for(int from=0; from<pixels; from+=CHUNK){
+		  int count = Math.min(CHUNK, pixels - from);
+		  if(layout == Layout.INTERLEAVED){
+			  src.get(3*from, scratch, 0, 3*count);
+			  for(int i=0, b=0; i<count; i++, b+=3){
+				  planes.red[from + i] = scratch[b] & 0xFF;
+				  planes.green[from + i] = scratch[b+1] & 0xFF;
+				  planes.blue[from + i] = scratch[b+2] & 0xFF;
+			  }
+		  }
+		  else{
+			  int [][] dst = { planes.red, planes.green, planes.blue };
+			  for(int c=0; c<3; c++){
+				  src.get(c*pixels + from, scratch, 0, count);
+				  for(int i=0; i<count; i++)
+					  dst[c][from + i] = scratch[i] & 0xFF;
+			  }
+		  }
+	  }
+	  return planes;
+  }
+
+  /**
+   * write() writes the specified PixImage to the specified raw file, which
+   * is created or replaced.  A MappedPixImage of the same layout is copied
+   * as a single block of bytes.  A MappedPixImage cannot be written to the
+   * file it is mapped from, which replacing would truncate under it.
+   *
+   * @param image the image to write.
+   * @param path the raw file.
+   * @param layout the layout of the file.
+   * @throws IOException if the file cannot be written.
+   * @throws IllegalArgumentException if the image is mapped from the file.
+   */
+  public static void write(PixImage image, Path path, Layout layout) throws IOException {
+	  int width = image.getWidth();
+	  int height = image.getHeight();
+	  if(image instanceof MappedPixImage){
+		  Path mapped = ((MappedPixImage) image).getPath();
+		  if(mapped != null && Files.exists(path) && Files.isSameFile(mapped, path))
+			  throw new IllegalArgumentException("The image is mapped from " + path +
+					  " and cannot be written to it");
+	  }
+	  MappedByteBuffer dst = create(path, byteLength(width, height));
+	  if(image instanceof MappedPixImage && ((MappedPixImage) image).getLayout() == layout)
+		  dst.put(((MappedPixImage) image).getBytes());
+	  else{
+		  int [] row = new int[width];
+		  byte [] scratch = new byte[3*width];
+		  for(int y=0; y<height; y++){
+			  for(int x=0; x<width; x++)
+				  row[x] = image.getPacked(x, y);
+			  putPixels(dst, layout, width*height, y*width, width, row, scratch);
+		  }
+	  }
+	  dst.force();
+  }
+
+  /**
+   * write() writes the specified PixelPlanes to the specified raw file,
+   * which is created or replaced.
+   *
+   * @param planes the planes to write.
+   * @param path the raw file.
+   * @param layout the layout of the file.
+   * @throws IOException if the file cannot be written.
+   */
+  public static void write(PixelPlanes planes, Path path, Layout layout) throws IOException {
+	  int pixels = planes.width*planes.height;
+	  MappedByteBuffer dst = create(path, byteLength(planes.width, planes.height));
+	  byte [] scratch = new byte[3*CHUNK];
+	  for(int from=0; from<pixels; from+=CHUNK){
+		  int count = Math.min(CHUNK, pixels - from);
+		  if(layout == Layout.INTERLEAVED){
+			  for(int i=0, b=0; i<count; i++, b+=3){
+				  scratch[b] = (byte) planes.red[from + i];
+				  scratch[b+1] = (byte) planes.green[from + i];
+				  scratch[b+2] = (byte) planes.blue[from + i];
+			  }
+			  dst.put(3*from, scratch, 0, 3*count);
+		  }
+		  else{
+			  int [][] src = { planes.red, planes.green, planes.blue };
+			  for(int c=0; c<3; c++){
+				  for(int i=0; i<count; i++)
+					  scratch[i] = (byte) src[c][from + i];
+				  dst.put(c*pixels + from, scratch, 0, count);
+			  }
+		  }
+	  }
+	  dst.force();
+  }
+
+  /**
+   * create() creates or truncates the specified file and maps its first
+   * length bytes for writing.
+   */
+  private static MappedByteBuffer create(Path path, int length) throws IOException {
+	  try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+			  StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+			  StandardOpenOption.TRUNCATE_EXISTING)) {
+		  return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+	  }
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() writes an image in both layouts and reads it back by copying and
+   * by mapping.
+   */
+  public static void main(String[] args) throws IOException {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 37;
+	  int height = 23;
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++)
+			  image.setPacked(x, y, random.nextInt(1 << 24));
+	  Path dir = java.nio.file.Files.createTempDirectory("raw");
+	  Path interleaved = dir.resolve("interleaved.rgb");
+	  Path planar = dir.resolve("planar.rgb");
+
+	  System.out.println("Testing an interleaved raw file.");
+	  write(image, interleaved, Layout.INTERLEAVED);
+	  byte [] bytes = java.nio.file.Files.readAllBytes(interleaved);
+	  int p = image.getPacked(5, 2);
+	  int i = 3*(2*width + 5);
+	  doTest(bytes.length == 3*width*height && (bytes[i] & 0xFF) == (p >> 16) &&
+			  (bytes[i+2] & 0xFF) == (p & 0xFF) &&
+			  read(interleaved, width, height, Layout.INTERLEAVED).equals(image) &&
+			  readPlanes(interleaved, width, height, Layout.INTERLEAVED).toPixImage().equals(image),
+			  "Incorrect interleaved raw file.");
+
+	  System.out.println("Testing a planar raw file written from planes.");
+	  write(PixelPlanes.of(image), planar, Layout.PLANAR);
+	  bytes = java.nio.file.Files.readAllBytes(planar);
+	  i = 2*width + 5;
+	  doTest(bytes.length == 3*width*height && (bytes[i] & 0xFF) == (p >> 16) &&
+			  (bytes[width*height + i] & 0xFF) == ((p >> 8) & 0xFF) &&
+			  read(planar, width, height, Layout.PLANAR).equals(image),
+			  "Incorrect planar raw file.");
+
+	  System.out.println("Testing read-only mapped images.");
+	  MappedPixImage mapped = map(interleaved, width, height, Layout.INTERLEAVED, false);
+	  MappedPixImage mappedPlanar = map(planar, width, height, Layout.PLANAR, false);
+	  boolean readOnly = false;
+	  try {
+		  mapped.setPacked(0, 0, 0);
+	  } catch (java.nio.ReadOnlyBufferException e) {
+		  readOnly = true;
+	  }
+	  doTest(readOnly && mapped.equals(image) && mappedPlanar.equals(image) &&
+			  java.util.Arrays.equals(mappedPlanar.toPackedArray(), image.toPackedArray()) &&
+			  mapped.boxBlur(2).equals(image.boxBlur(2)) &&
+			  mappedPlanar.sobelEdges().equals(image.sobelEdges()),
+			  "Incorrect read-only mapped images.");
+
+	  System.out.println("Testing a writable mapped image.");
+	  MappedPixImage writable = map(planar, width, height, Layout.PLANAR, true);
+	  writable.setPacked(36, 22, 0x123456);
+	  writable.setPixel(0, 1, (short) 7, (short) 300, (short) 9);
+	  writable.force();
+	  image.setPacked(36, 22, 0x123456);
+	  doTest(read(planar, width, height, Layout.PLANAR).equals(image) &&
+			  mappedPlanar.getPacked(36, 22) == 0x123456,
+			  "Incorrect writable mapped image.");
+
+	  System.out.println("Testing copies between layouts.");
+	  Path copy = dir.resolve("copy.rgb");
+	  write(mappedPlanar, copy, Layout.INTERLEAVED);
+	  boolean copied = read(copy, width, height, Layout.INTERLEAVED).equals(image);
+	  write(mappedPlanar, copy, Layout.PLANAR);
+	  copied &= java.util.Arrays.equals(java.nio.file.Files.readAllBytes(copy),
+			  java.nio.file.Files.readAllBytes(planar));
+	  doTest(copied, "Incorrect copies between layouts.");
+
+	  System.out.println("Testing a mapped image written to its own file.");
+	  boolean refused = false;
+	  try {
+		  write(writable, planar, Layout.INTERLEAVED);
+	  } catch (IllegalArgumentException e) {
+		  refused = true;
+	  }
+	  doTest(refused && writable.equals(image) &&
+			  java.nio.file.Files.size(planar) == 3L*width*height,
+			  "A mapped image was written over its own file.");
+
+	  System.out.println("Testing a raw file that is too short.");
+	  boolean rejected = false;
+	  try {
+		  map(interleaved, width, height + 1, Layout.INTERLEAVED, false);
+	  } catch (IOException e) {
+		  rejected = true;
+	  }
+	  doTest(rejected, "A short raw file was mapped.");
+
+	  for(Path f : new Path[] { interleaved, planar, copy })
+		  java.nio.file.Files.delete(f);
+	  java.nio.file.Files.delete(dir);
+  }
+}
@@ -0,0 +1,231 @@
+/* RunDecoder.java */
+
+/**
+ *  The RunDecoder class expands run-length encodings into pixels in
+ *  parallel.  The position of a run in the image is only known once the
+ *  lengths of all the runs before it have been added up, so the decoder
+ *  first computes the start offset of every run with a parallel prefix sum.
+ *  The pixels are then split into chunks; each ForkJoinPool task finds the
+ *  run covering the start of its chunk by binary search and fills its chunk
+ *  run by run, independently of the other tasks.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class RunDecoder {
+
+	// Smallest number of pixels filled by one task.
+	static final int MIN_CHUNK = 1 << 16;
+
+  private RunDecoder() {
+  }
+
+  /**
+   * runOffsets() returns the index of the first pixel of every run:
+   * element i is the sum of the lengths of runs 0...i-1.
+   *
+   * @param runs the runs.
+   * @return a new array of runs.count offsets.
+   */
+  static int[] runOffsets(PackedRuns runs) {
+	  int [] offsets = new int[runs.count];
+	  if(runs.count > 1)
+		  System.arraycopy(runs.lengths, 0, offsets, 1, runs.count - 1);
+	  Arrays.parallelPrefix(offsets, Integer::sum);
+	  return offsets;
+  }
+
+  /**
+   * decodeParallel() writes the packed RGB values, as by RGB.pack(), of the
+   * specified run-length encoding into the specified array in row-major
+   * order.
+   *
+   * @param rle the run-length encoding to decode.
+   * @param pixels an array of at least width*height elements.
+   */
+  public static void decodeParallel(RunLengthEncoding rle, int[] pixels) {
+	  PackedRuns runs = rle.toPackedRuns();
+	  decodeParallel(runs, runOffsets(runs), pixels, null, 0, ForkJoinPool.commonPool(),
+			  chunkSize(rle.getWidth()*rle.getHeight(), ForkJoinPool.commonPool()));
+  }
+
+  /**
+   * toPackedArrayParallel() returns the packed RGB values, as by
+   * RGB.pack(), of the specified run-length encoding in row-major order.
+   *
+   * @param rle the run-length encoding to decode.
+   * @return a new array of width*height packed RGB values.
+   */
+  public static int[] toPackedArrayParallel(RunLengthEncoding rle) {
+	  int [] pixels = new int[rle.getWidth()*rle.getHeight()];
+	  decodeParallel(rle, pixels);
+	  return pixels;
+  }
+
+  /**
+   * toPixImageParallel() returns a PixImage holding the image represented
+   * by the specified run-length encoding; the result is the same as that of
+   * RunLengthEncoding.toPixImage().
+   *
+   * @param rle the run-length encoding to decode.
+   * @return a new PixImage holding the decoded image.
+   */
+  public static PixImage toPixImageParallel(RunLengthEncoding rle) {
+	  return toPixImageParallel(rle, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * toPixImageParallel() returns a PixImage holding the image represented
+   * by the specified run-length encoding, decoded by the tasks of the
+   * specified ForkJoinPool.
+   *
+   * @param rle the run-length encoding to decode.
+   * @param pool the pool running the tasks.
+   * @return a new PixImage holding the decoded image.
+   */
+  public static PixImage toPixImageParallel(RunLengthEncoding rle, ForkJoinPool pool) {
+	  int width = rle.getWidth();
+	  PixImage image = new PixImage(width, rle.getHeight());
+	  PackedRuns runs = rle.toPackedRuns();
+	  decodeParallel(runs, runOffsets(runs), null, image, width, pool,
+			  chunkSize(width*rle.getHeight(), pool));
+	  return image;
+  }
+
+  /**
+   * chunkSize() returns the number of pixels per task:  enough tasks for
+   * each thread of the pool to take about four, but no fewer than
+   * MIN_CHUNK pixels per task.
+   */
+  private static int chunkSize(int pixels, ForkJoinPool pool) {
+	  return Math.max(MIN_CHUNK, pixels/(4*pool.getParallelism()) + 1);
+  }
+
+  /**
+   * decodeParallel() fills the pixels covered by the specified runs in
+   * chunks of the specified size, into the array pixels if it is not null
+   * and into the PixImage image of the specified width otherwise.
+   */
+  static void decodeParallel(PackedRuns runs, int[] offsets, int[] pixels,
+		  PixImage image, int width, ForkJoinPool pool, int chunk) {
+	  int n = runs.count == 0 ? 0 : offsets[runs.count-1] + runs.lengths[runs.count-1];
+	  List<FillTask> tasks = new ArrayList<FillTask>();
+	  for(int from=0; from<n; from+=chunk)
+		  tasks.add(new FillTask(runs, offsets, pixels, image, width,
+				  from, Math.min(n, from + chunk)));
+	  if(tasks.size() == 1)
+		  tasks.get(0).compute();
+	  else if(tasks.size() > 1)
+		  pool.invoke(new RecursiveAction() {
+			  protected void compute() {
+				  invokeAll(tasks);
+			  }
+		  });
+  }
+
+  /**
+   *  The FillTask class fills one chunk of the pixels of a parallel
+   *  decoding.
+   */
+  private static class FillTask extends RecursiveAction {
+
+	  private static final long serialVersionUID = 1L;
+
+	  private final PackedRuns runs;
+	  private final int [] offsets;
+	  private final int [] pixels;
+	  private final PixImage image;
+	  private final int width, from, to;
+
+	  FillTask(PackedRuns runs, int[] offsets, int[] pixels, PixImage image,
+			  int width, int from, int to) {
+		  this.runs = runs;
+		  this.offsets = offsets;
+		  this.pixels = pixels;
+		  this.image = image;
+		  this.width = width;
+		  this.from = from;
+		  this.to = to;
+	  }
+
+	  protected void compute() {
+		  // The run covering "from" is the last one starting at or before it.
+		  int r = Arrays.binarySearch(offsets, 0, runs.count, from);
+		  if(r < 0)
+			  r = -r - 2;
+		  int position = from;
+		  while(position < to){
+			  int end = Math.min(to, offsets[r] + runs.lengths[r]);
+			  int color = runs.colors[r];
+			  if(pixels != null)
+				  Arrays.fill(pixels, position, end, color);
+			  else
+				  for(int i=position; i<end; i++)
+					  image.setPacked(i % width, i / width, color);
+			  position = end;
+			  r++;
+		  }
+	  }
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() checks that the parallel decoding matches toPixImage() for many
+   * chunk sizes, including chunks that start inside runs.
+   */
+  public static void main(String[] args) {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 83;
+	  int height = 29;
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++)
+			  image.setPacked(x, y, (x/11 + y/5) % 2 == 0 ? random.nextInt(3) : 0xABCDEF);
+	  RunLengthEncoding rle = new RunLengthEncoding(image);
+	  PackedRuns runs = rle.toPackedRuns();
+	  int [] offsets = runOffsets(runs);
+	  int [] expected = image.toPackedArray();
+
+	  System.out.println("Testing parallel decoding with small chunks.");
+	  boolean same = true;
+	  for(int chunk=1; chunk<300; chunk+=13){
+		  int [] pixels = new int[width*height];
+		  decodeParallel(runs, offsets, pixels, null, 0, ForkJoinPool.commonPool(), chunk);
+		  same &= Arrays.equals(pixels, expected);
+		  PixImage decoded = new PixImage(width, height);
+		  decodeParallel(runs, offsets, null, decoded, width, ForkJoinPool.commonPool(), chunk);
+		  same &= decoded.equals(image);
+	  }
+	  doTest(same, "Parallel decoding differs from the original image.");
+
+	  System.out.println("Testing parallel decoding against toPixImage().");
+	  doTest(toPixImageParallel(rle).equals(rle.toPixImage()) &&
+			  Arrays.equals(toPackedArrayParallel(rle), expected),
+			  "Parallel decoding differs from toPixImage().");
+  }
+}
@@ -0,0 +1,261 @@
+/* RunEncoder.java */
+
+/**
+ *  The RunEncoder class finds the runs of an image held as packed RGB
+ *  values, as by RGB.pack().  Two pixels have the same color exactly when
+ *  their packed values are equal, so the runs are found by comparing ints
+ *  instead of RGB objects, and the end of each run is located by
+ *  PixelKernels.nextRunBoundary(), which compares several pixels per step;
+ *  a long uniform stretch costs a few vector compares rather than one
+ *  object comparison per pixel.
+ *
+ *  The encodeParallel() methods split the pixels into chunks, pack and
+ *  encode each chunk in its own ForkJoinPool task, and then stitch the runs
+ *  of the chunks together in order, merging the last run of a chunk with the
+ *  first run of the next when their colors are equal.  The result is
+ *  identical to that of the serial encoding.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class RunEncoder {
+
+	// Smallest number of pixels encoded by one task of a parallel encoding.
+	static final int MIN_CHUNK = 1 << 15;
+
+  private RunEncoder() {
+  }
+
+  /**
+   * encode() appends the runs of pixels[from...to-1] to the specified list
+   * of runs.  The first run is merged into the last run of the list if they
+   * have the same color.
+   *
+   * @param pixels packed RGB values in row-major order.
+   * @param from the index of the first pixel to encode.
+   * @param to the index after the last pixel to encode.
+   * @param runs the list receiving the runs.
+   */
+  static void encode(int[] pixels, int from, int to, PackedRuns runs) {
+	  int start = from;
+	  while(start < to){
+		  int end = PixelKernels.nextRunBoundary(pixels, start, to);
+		  runs.append(end - start, pixels[start]);
+		  start = end;
+	  }
+  }
+
+  /**
+   * encode() returns the runs of the specified packed pixels.
+   *
+   * @param pixels packed RGB values in row-major order.
+   * @return the runs of the pixels.
+   */
+  static PackedRuns encode(int[] pixels) {
+	  // A sixteenth of the pixels is a fair first guess of the run count
+	  // of a document; PackedRuns grows if it is not enough.
+	  PackedRuns runs = new PackedRuns(pixels.length/16 + 1);
+	  encode(pixels, 0, pixels.length, runs);
+	  return runs;
+  }
+
+  /**
+   * encode() returns the run-length encoding of the specified packed
+   * pixels.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param pixels packed RGB values in row-major order, as by RGB.pack().
+   * @return the run-length encoding of the pixels.
+   */
+  public static RunLengthEncoding encode(int width, int height, int[] pixels) {
+	  return new RunLengthEncoding(width, height, encode(pixels));
+  }
+
+  /**
+   * encodeParallel() returns the run-length encoding of the specified
+   * PixImage, computed by the tasks of the common ForkJoinPool.
+   *
+   * @param image the image to encode.
+   * @return the run-length encoding of the image.
+   */
+  public static RunLengthEncoding encodeParallel(PixImage image) {
+	  return encodeParallel(image, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * encodeParallel() returns the run-length encoding of the specified
+   * PixImage, computed by the tasks of the specified ForkJoinPool.
+   *
+   * @param image the image to encode.
+   * @param pool the pool running the tasks.
+   * @return the run-length encoding of the image.
+   */
+  public static RunLengthEncoding encodeParallel(PixImage image, ForkJoinPool pool) {
+	  int width = image.getWidth();
+	  int height = image.getHeight();
+	  int [] pixels = new int[width*height];
+	  PackedRuns runs = encodeParallel(image, pixels, pool, chunkSize(pixels.length, pool));
+	  return new RunLengthEncoding(width, height, runs);
+  }
+
+  /**
+   * encodeParallel() returns the run-length encoding of the specified
+   * packed pixels, computed by the tasks of the specified ForkJoinPool.
+   *
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param pixels packed RGB values in row-major order, as by RGB.pack().
+   * @param pool the pool running the tasks.
+   * @return the run-length encoding of the pixels.
+   */
+  public static RunLengthEncoding encodeParallel(int width, int height, int[] pixels,
+		  ForkJoinPool pool) {
+	  PackedRuns runs = encodeParallel(null, pixels, pool, chunkSize(pixels.length, pool));
+	  return new RunLengthEncoding(width, height, runs);
+  }
+
+  /**
+   * chunkSize() returns the number of pixels per task:  enough tasks for
+   * each thread of the pool to take about four, but no fewer than
+   * MIN_CHUNK pixels per task.
+   */
+  private static int chunkSize(int pixels, ForkJoinPool pool) {
+	  return Math.max(MIN_CHUNK, pixels/(4*pool.getParallelism()) + 1);
+  }
+
+  /**
+   * encodeParallel() encodes the specified pixels in chunks of the
+   * specified size.  If image is not null, each task first packs its chunk
+   * of the image into pixels.
+   */
+  static PackedRuns encodeParallel(PixImage image, int[] pixels, ForkJoinPool pool, int chunk) {
+	  int n = pixels.length;
+	  List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+	  for(int from=0; from<n; from+=chunk)
+		  tasks.add(new ChunkTask(image, pixels, from, Math.min(n, from + chunk)));
+	  if(tasks.size() == 1)
+		  tasks.get(0).compute();
+	  else
+		  pool.invoke(new RecursiveAction() {
+			  protected void compute() {
+				  invokeAll(tasks);
+			  }
+		  });
+
+	  // Stitch the chunks in order; append() merges the runs meeting at
+	  // each seam if they have the same color.
+	  int total = 0;
+	  for(ChunkTask t : tasks)
+		  total += t.runs.count;
+	  PackedRuns runs = new PackedRuns(total);
+	  for(ChunkTask t : tasks)
+		  runs.appendAll(t.runs);
+	  return runs;
+  }
+
+  /**
+   *  The ChunkTask class packs, if needed, and encodes one chunk of the
+   *  pixels of a parallel encoding.
+   */
+  private static class ChunkTask extends RecursiveAction {
+
+	  private static final long serialVersionUID = 1L;
+
+	  private final PixImage image;
+	  private final int [] pixels;
+	  private final int from, to;
+	  PackedRuns runs;
+
+	  ChunkTask(PixImage image, int[] pixels, int from, int to) {
+		  this.image = image;
+		  this.pixels = pixels;
+		  this.from = from;
+		  this.to = to;
+	  }
+
+	  protected void compute() {
+		  if(image != null){
+			  int width = image.getWidth();
+			  for(int i=from; i<to; i++)
+				  pixels[i] = image.getPacked(i % width, i / width);
+		  }
+		  runs = new PackedRuns((to - from)/16 + 1);
+		  encode(pixels, from, to, runs);
+	  }
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * sameRuns() returns true if the two lists hold the same runs.
+   */
+  private static boolean sameRuns(PackedRuns a, PackedRuns b) {
+	  if(a.count != b.count)
+		  return false;
+	  for(int i=0; i<a.count; i++)
+		  if(a.lengths[i] != b.lengths[i] || a.colors[i] != b.colors[i])
+			  return false;
+	  return true;
+  }
+
+  /**
+   * main() checks that the parallel encoding matches the serial one for
+   * many chunk sizes, including chunks whose seams fall inside runs.
+   */
+  public static void main(String[] args) {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 97;
+	  int height = 41;
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++)
+			  image.setPacked(x, y, (x/13 + y/7) % 3 == 0 ? random.nextInt(4) : 0x123456);
+	  int [] packed = image.toPackedArray();
+	  PackedRuns serial = encode(packed);
+
+	  System.out.println("Testing parallel encoding with small chunks.");
+	  boolean same = true;
+	  for(int chunk=1; chunk<200; chunk+=7){
+		  same &= sameRuns(serial, encodeParallel(image, new int[packed.length],
+				  ForkJoinPool.commonPool(), chunk));
+		  same &= sameRuns(serial, encodeParallel(null, packed.clone(),
+				  ForkJoinPool.commonPool(), chunk));
+	  }
+	  doTest(same, "Parallel encoding differs from serial encoding.");
+
+	  System.out.println("Testing parallel encoding of a flat image.");
+	  PixImage flat = new PixImage(500, 300);
+	  RunLengthEncoding rle = encodeParallel(flat);
+	  doTest(rle.runCount() == 1 && rle.toPixImage().equals(flat),
+			  "Incorrect parallel encoding of a flat image.");
+
+	  System.out.println("Testing parallel encoding against the constructor.");
+	  rle = encodeParallel(image);
+	  doTest(sameRuns(rle.toPackedRuns(), new RunLengthEncoding(image).toPackedRuns()),
+			  "Parallel encoding differs from RunLengthEncoding(PixImage).");
+  }
+}
@@ -22,19 +22,21 @@
  */
 
 
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 @SuppressWarnings("rawtypes")
 public class RunIterator implements Iterator {
 
-	// Head and tail of the doubly-linked list.
-	private Run head, tail;
-	// Total number of nodes in the linked list.
-	private int size;
+	// The doubly-linked list of runs, which may be shared with other
+	// iterators.
+	private final RunList list;
 	// Reference to the current node at which the 
 	// iterator is traveling.
 	private Run cur;
+	// The modCount of the list this iterator expects.
+	private int expectedModCount;
 
 
   /**
@@ -43,12 +45,24 @@ public class RunIterator implements Iterator {
    *  has been initiated.
    */
   public RunIterator() {
-	  head = null;
-	  tail = null;
-	  size = 0;
+	  list = new RunList();
 	  cur = null;
   }
 
+  /**
+   *  RunIterator() (with one parameter) constructs an iterator that "points"
+   *  to the first run of the specified list of runs.  The iterator has its
+   *  own current node, so iterators over the same list do not disturb each
+   *  other while they only read.
+   *
+   *  @param list the list of runs to iterate over.
+   */
+  RunIterator(RunList list) {
+	  this.list = list;
+	  cur = list.head;
+	  expectedModCount = list.modCount;
+  }
+
   /**
    * current() returns the run length, red, green and blue intensities
    * of "this" as an array.
@@ -57,8 +71,8 @@ public class RunIterator implements Iterator {
    * blue intensities of "this"
    */
   public int [] current(){
-	  int [] currentContent = {cur.runLength, (short) cur.rgb.getRGB()[0], 
-			  (short) cur.rgb.getRGB()[1], (short) cur.rgb.getRGB()[2]};
+	  int [] currentContent = {cur.runLength, (short) cur.rgb.getRed(), 
+			  (short) cur.rgb.getGreen(), (short) cur.rgb.getBlue()};
     return currentContent;
   }
   
@@ -68,7 +82,7 @@ public class RunIterator implements Iterator {
    * @return the total number of runs in the run-length encoding.
    */
   public int size(){
-	  return size;
+	  return list.size;
   }
   
   /**
@@ -78,14 +92,17 @@ public class RunIterator implements Iterator {
    *  @return true if the iterator has more elements.
    */
   public boolean hasNext() {
-    return size != 0 && cur.next != null;
+    return list.size != 0 && cur.next != null;
   }
   
   /**
-   * reset() returns the current pointer to the head of the iterator.
+   * reset() returns the current pointer to the head of the iterator.  An
+   * iterator that was reset may be used again after another iterator
+   * changed the list.
    */
   public void reset() {
-	    cur = head;
+	    cur = list.head;
+	    expectedModCount = list.modCount;
 	  }
 
   /**
@@ -106,9 +123,11 @@ public class RunIterator implements Iterator {
     // Don't forget to advance the RunIterator's pointer so that the next
     // call to next() will return the subsequent run.
     // Replace the following line with your solution.
+	  if(expectedModCount != list.modCount)
+		  throw new ConcurrentModificationException();
 	  Run next = cur.next;
-	  int [] nextContent = {next.runLength, next.rgb.getRGB()[0], 
-			  				next.rgb.getRGB()[1], next.rgb.getRGB()[2]};
+	  int [] nextContent = {next.runLength, next.rgb.getRed(), 
+			  				next.rgb.getGreen(), next.rgb.getBlue()};
 	  cur = next;
     return nextContent;
   }
@@ -117,34 +136,38 @@ public class RunIterator implements Iterator {
    *  append() appends a Run object with the specified run length and RGB to 
    *  the end of this iterator.  The number of nodes is also incremented by
    *  one each time the method is invoked.
+   *
+   *  append() does not change the list's modCount, so it is package-private
+   *  and used only while RunLengthEncoding builds a new encoding, before any
+   *  other iterator over its list exists.
    *  
    * @param runlength The specified run length.
    * @param rgb The specific RGB object.
    */
-  public void append(int runlength, RGB rgb) {
+  void append(int runlength, RGB rgb) {
 	  
 	  // Add the first run to the iterator.
 	  // Such run refers to both the head and tail
 	  // of the iterator.
-	  if(size == 0){
-		  head = new Run(head, tail, runlength, rgb);
-		  tail = head;
-		  cur = head;
+	  if(list.size == 0){
+		  list.head = new Run(list.head, list.tail, runlength, rgb);
+		  list.tail = list.head;
+		  cur = list.head;
 	  }
 	  else{
 		  // Append the second run to the iterator creating
 		  // a distinct tail from the head.
-		  if(size == 1){
-			  tail = new Run(head, null, runlength, rgb);
-			  head.next = tail;
+		  if(list.size == 1){
+			  list.tail = new Run(list.head, null, runlength, rgb);
+			  list.head.next = list.tail;
 		  }
 		  // Append a run to the iterator as a new distinct tail.
 		  else{
-			  tail.next = new Run(tail, null, runlength, rgb);
-			  tail = tail.next;
+			  list.tail.next = new Run(list.tail, null, runlength, rgb);
+			  list.tail = list.tail.next;
 		  }
 	  }
-	  size++;
+	  list.size++;
   }
   
   /**
@@ -182,11 +205,15 @@ public class RunIterator implements Iterator {
    */
   public void modifyCurrentNode(int m, RGB r){
 	  
+	  if(expectedModCount != list.modCount)
+		  throw new ConcurrentModificationException();
+	  expectedModCount = ++list.modCount;
+
 	  // The current run covers a single pixel.
 	  if(cur.runLength==1){
 		  
 		  // There is only one run in the run-length encoding.
-		  if(size==1){
+		  if(list.size==1){
 			  /*
 			   * 1
 			   * Change the RGB of the current run to r. 
@@ -197,7 +224,7 @@ public class RunIterator implements Iterator {
 		  // There are more than one runs in the run-length encoding.
 		  else{
 			  // Current node is the head of the iterator.
-			  if(cur==head){
+			  if(cur==list.head){
 				  
 				  // The next node has the same RGB as the specified RGB.
 				  if(nr(r)){
@@ -205,13 +232,14 @@ public class RunIterator implements Iterator {
 					   * 2
 					   * The current node absorbs the next node.
 					   */
-					  size--;
+					  list.size--;
+					  cur.rgb = r;
 					  cur.runLength += cur.next.runLength;
 					  cur.next = cur.next.next;
 					  if(cur.next != null)
 						  cur.next.prev = cur;
 					  else
-						  tail = cur;
+						  list.tail = cur;
 					  return;
 				  }
 				// The next node has a different RGB from the specified RGB.
@@ -226,17 +254,17 @@ public class RunIterator implements Iterator {
 			  }
 			  // Current node is not the head of the iterator.
 			  else{
-				  if(cur==tail){
+				  if(cur==list.tail){
 					  // The previous node has the same RGB as the specified RGB.
 					  if(pr(r)){
 						  /*
 						   * 3
 						   * The previous node absorbs the current node.
 						   */
-						  size--;
+						  list.size--;
 						  cur.prev.runLength += cur.runLength;
 						  cur.prev.next = cur.next;
-						  tail = cur.prev;
+						  list.tail = cur.prev;
 					  }
 					  // The previous node has a different RGB from the specified RGB.
 					  else{
@@ -269,13 +297,13 @@ public class RunIterator implements Iterator {
 							   * The previous node absorbs the current and 
 							   * the next node.
 							   */
-							  size -= 2;
+							  list.size -= 2;
 							  cur.prev.runLength += cur.runLength+cur.next.runLength;
 							  cur.prev.next = cur.next.next;
 							  if(cur.prev.next != null)
 								  cur.prev.next.prev = cur.prev;
 							  else
-								  tail = cur.prev;
+								  list.tail = cur.prev;
 							  return;
 						  }
 						  // The specified RGB is exclusively the same as that of the 
@@ -288,7 +316,7 @@ public class RunIterator implements Iterator {
 								   * 6
 								   * The previous node absorbs the current node.
 								   */
-								  size--;
+								  list.size--;
 								  cur.prev.runLength += cur.runLength;
 								  cur.prev.next = cur.next;
 								  cur.next.prev = cur.prev;
@@ -301,13 +329,14 @@ public class RunIterator implements Iterator {
 								   * 7
 								   * The current node absorbs the next node.
 								   */
-								  size--;
+								  list.size--;
+								  cur.rgb = r;
 								  cur.runLength += cur.next.runLength;
 								  cur.next = cur.next.next;
 								  if(cur.next != null)
 									  cur.next.prev = cur;
 								  else
-									  tail = cur;
+									  list.tail = cur;
 								  return;
 							  }
 						  }
@@ -324,53 +353,53 @@ public class RunIterator implements Iterator {
 		  if(1<m && m<cur.runLength){
 			  
 			  // There is a single run in the run-length encoding. 
-			  if(size==1){
+			  if(list.size==1){
 				  /*
 				   * 8
 				   * The current node splits into three parts with the
 				   * modification in the middle.
 				   */
-				  size += 2;
+				  list.size += 2;
 				  Run first, middle, last;
 				  first = new Run(null, null, m-1, cur.rgb);
 				  middle = new Run(first, null, 1, r);
 				  last = new Run(middle, null, cur.runLength-m, cur.rgb);
 				  first.next = middle;
 				  middle.next = last;
-				  head = first;
-				  tail = last;
+				  list.head = first;
+				  list.tail = last;
 				  return;
 			  }
 			  // The are more than one runs in the run-length encoding.
 			  else{
 				  // Current node is the head of the iterator.
-				  if(cur==head){
+				  if(cur==list.head){
 					  /*
 					   * 9
 					   * The current node splits into three parts with the
 					   * modification in the middle.
 					   */
-					  size += 2;
+					  list.size += 2;
 					  Run first, middle, last;
 					  first = new Run(cur.prev, null, m-1, cur.rgb);
 					  middle = new Run(first, null, 1, r);
 					  last = new Run(middle, cur.next, cur.runLength-m, cur.rgb);
 					  first.next = middle;
 					  middle.next = last;
-					  head = first;
+					  list.head = first;
 					  cur.next.prev = last;
 					  return;
 				  }
 				// Current node is not the head of the iterator.
 				  else{
 					// Current node is the tail of the iterator.
-					  if(cur==tail){
+					  if(cur==list.tail){
 						  /*
 						   * 10
 						   * The current node splits into three parts with the
 						   * modification in the middle.
 						   */
-						  size += 2;
+						  list.size += 2;
 						  Run first, middle, last;
 						  first = new Run(cur.prev, null, m-1,cur.rgb);
 						  middle = new Run(first, null, 1, r);
@@ -378,7 +407,7 @@ public class RunIterator implements Iterator {
 						  first.next = middle;
 						  middle.next = last;
 						  cur.prev.next = first;
-						  tail = last;
+						  list.tail = last;
 						  return;
 					  }
 					  // The current node is in between two other nodes.
@@ -388,7 +417,7 @@ public class RunIterator implements Iterator {
 						   * The current node splits into three parts with the
 						   * modification in the middle.
 						   */
-						  size += 2;
+						  list.size += 2;
 						  Run first, middle, last;
 						  first = new Run(cur.prev, null, m-1,cur.rgb);
 						  middle = new Run(first, null, 1, r);
@@ -406,7 +435,7 @@ public class RunIterator implements Iterator {
 		  // of the iterator.
 		  else{
 			  // There is only one node in the iterator.
-			  if(size==1){
+			  if(list.size==1){
 				  // The position is the start of the run.
 				  if(m==1){
 					  /*
@@ -414,11 +443,11 @@ public class RunIterator implements Iterator {
 					   * The first pixel of the current node is cut out
 					   * to form an individual node, forming the new head.
 					   */
-					  size++;
+					  list.size++;
 					  cur.runLength--;
 					  Run item = new Run(null, cur, 1, r);
 					  cur.prev = item;
-					  head = item;
+					  list.head = item;
 					  return;
 				  }
 				// The position is the end of the run.
@@ -428,17 +457,17 @@ public class RunIterator implements Iterator {
 					   * The last pixel of the current node is cut out
 					   * to form an individual node, forming the new tail.
 					   */
-					  size++;
+					  list.size++;
 					  cur.runLength--;
 					  Run item = new Run(cur, null, 1, r);
 					  cur.next = item;
-					  tail = item;
+					  list.tail = item;
 					  return;
 				  }
 			  }
 			  //There are multiple runs in the run-length encoding.
 			  else{
-				  if(cur==head){
+				  if(cur==list.head){
 					// The position is the start of the run.
 					  if(m==1){
 						  /*
@@ -446,11 +475,11 @@ public class RunIterator implements Iterator {
 						   * The first pixel of the current node is cut out
 						   * to form an individual node, forming the new head.
 						   */
-						  size++;
+						  list.size++;
 						  cur.runLength--;
 						  Run item = new Run(null, cur, 1, r);
 						  cur.prev = item;
-						  head = item;
+						  list.head = item;
 						  return;
 					  }
 					// The position is the end of the run.
@@ -474,11 +503,11 @@ public class RunIterator implements Iterator {
 							   * to for a new run between the current and the next 
 							   * run.
 							   */
-							  size++;
+							  list.size++;
 							  cur.runLength--;
 							  Run item = new Run(cur, cur.next, 1, r);
-							  cur.next = item;
 							  cur.next.prev = item;
+							  cur.next = item;
 							  return;
 						  }
 					  }
@@ -486,7 +515,7 @@ public class RunIterator implements Iterator {
 				  // The current node is not the head of the iterator.
 				  else{
 					  // Current node is the tail.
-					  if(cur==tail){
+					  if(cur==list.tail){
 						  // Position to be modified is at the end of the run.
 						  if(m==cur.runLength){
 							  /*
@@ -494,11 +523,11 @@ public class RunIterator implements Iterator {
 							   * The last pixel is cut off from the current run, 
 							   * forming a new tail.
 							   */
-							  size++;
+							  list.size++;
 							  cur.runLength--;
 							  Run item = new Run(cur, null, 1, r);
 							  cur.next = item;
-							  tail = item;
+							  list.tail = item;
 							  return;
 						  }
 						// Position to be modified is at the start of the run.
@@ -523,7 +552,7 @@ public class RunIterator implements Iterator {
 								   * run between the previous node and the 
 								   * current node.
 								   */
-								  size++;
+								  list.size++;
 								  cur.runLength--;
 								  Run item = new Run(cur.prev, cur, 1, r);
 								  cur.prev.next = item;
@@ -555,7 +584,7 @@ public class RunIterator implements Iterator {
 								   * off, forming an individual node between
 								   * the current and previous node.
 								   */
-								  size++;
+								  list.size++;
 								  cur.runLength--;
 								  Run item = new Run(cur.prev, cur, 1, r);
 								  cur.prev.next = item;
@@ -574,7 +603,7 @@ public class RunIterator implements Iterator {
 								   * by the next node.
 								   */
 								  cur.runLength--;
-								  cur.next.runLength--;
+								  cur.next.runLength++;
 								  return;
 							  }
 							  else{
@@ -584,11 +613,11 @@ public class RunIterator implements Iterator {
 								   * forming an individual node between the current and 
 								   * the next node.
 								   */
-								  size++;
+								  list.size++;
 								  cur.runLength--;
 								  Run item = new Run(cur, cur.next, 1, r);
-								  cur.next = item;
 								  cur.next.prev = item;
+								  cur.next = item;
 								  return;
 							  }
 						  }
@@ -607,7 +636,7 @@ public class RunIterator implements Iterator {
    */
   public String toString() {
     
-	  String s =  "(" + head + "," + tail + "," + cur + "," + size +")";
+	  String s =  "(" + list.head + "," + list.tail + "," + cur + "," + list.size +")";
     return s;
   }  
   
@@ -8,13 +8,15 @@
  */
 
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class RunLengthEncoding implements Iterable {
 
 	private int width, height;
-	private RunIterator runIt;
-	private RGB [] rgb;
-	private int [] runLengths;
+	// The runs, shared by every iterator over this encoding.
+	private RunList runList;
 	
 
   /**
@@ -31,15 +33,10 @@ public class RunLengthEncoding implements Iterable {
 	  this.width = width;
 	  this.height = height;
 	  
-	  rgb = new RGB[1];
-	  rgb[0] = new RGB((short)0, (short)0, (short)0);
-	  
-	  runLengths = new int[1];
-	  runLengths[0] = width * height;
-	  
-	  // The iterator that carries the run-length encoding of 
+	  // The list that carries the run-length encoding of 
 	  // this object.
-	  runIt = iterator();
+	  runList = new RunList();
+	  iterator().append(width * height, new RGB((short)0, (short)0, (short)0));
   }
 
   /**
@@ -69,13 +66,29 @@ public class RunLengthEncoding implements Iterable {
 	  this.width = width;
 	  this.height = height;
 	  
-	  rgb = new RGB[red.length];
+	  runList = new RunList();
+	  RunIterator runIt = iterator();
 	  for(int i=0; i<red.length; i++)
-		  rgb[i] = new RGB((short)red[i], (short)green[i], (short)blue[i]);
-	  
-	  this.runLengths = runLengths;
-	  
-	  runIt = iterator();
+		  runIt.append(runLengths[i], new RGB((short)red[i], (short)green[i], (short)blue[i]));
+  }
+
+  /**
+   *  RunLengthEncoding() (with three parameters) constructs a run-length
+   *  encoding of a PixImage of the specified width and height from runs of
+   *  packed colors.  The runs should cover width * height pixels and no two
+   *  consecutive runs should have the same color, as PackedRuns.append()
+   *  ensures.
+   *
+   *  @param width the width of the image.
+   *  @param height the height of the image.
+   *  @param runs the runs of the encoding.
+   */
+  RunLengthEncoding(int width, int height, PackedRuns runs) {
+
+	  this.width = width;
+	  this.height = height;
+
+	  appendRuns(runs);
   }
 
   /**
@@ -99,29 +112,137 @@ public class RunLengthEncoding implements Iterable {
     return height;
   }
 
+  /**
+   *  appendRuns() makes a new list of runs holding the specified runs.  The
+   *  iterators over the old list fail on their next call to next().
+   */
+  private void appendRuns(PackedRuns runs) {
+	  if(runList != null)
+		  runList.modCount++;
+	  runList = new RunList();
+	  RunIterator runIt = iterator();
+	  for(int i=0; i<runs.count; i++)
+		  runIt.append(runs.lengths[i], RGB.unpack(runs.colors[i]));
+  }
+
   /**
    *  iterator() returns a newly created RunIterator that can iterate through
-   *  the runs of this RunLengthEncoding.
+   *  the runs of this RunLengthEncoding.  Every call returns a new iterator
+   *  with its own position over the same runs, so any number of iterators
+   *  may walk the encoding at once; an iterator fails with a
+   *  ConcurrentModificationException once setPixel() has changed the runs,
+   *  until it is reset.
    *
    *  @return a newly created RunIterator object set to the first run of this
    *  RunLengthEncoding.
    */
   public RunIterator iterator() {
-    
-	  RunIterator runIterator = new RunIterator();
-	  
-	  // Starting from the first run, append the
-	  // runs to the iterator.
-	  for(int i=0; i<rgb.length; i++){
-		  runIterator.append(runLengths[i], rgb[i]);
+	  return new RunIterator(runList);
+  }
+
+  /**
+   *  spliterator() returns a Spliterator over the runs of this
+   *  RunLengthEncoding, each run an array of 4 ints as returned by
+   *  RunIterator.next().  The Spliterator covers a copy of the runs taken
+   *  when this method is called and splits in halves, for parallel streams.
+   *
+   *  @return a new Spliterator over the runs of this RunLengthEncoding.
+   */
+  public Spliterator<int[]> spliterator() {
+	  return new RunSpliterator(toPackedRuns());
+  }
+
+  /**
+   *  runs() returns a sequential Stream over the runs of this
+   *  RunLengthEncoding; call parallel() on it to process the runs in
+   *  parallel.
+   *
+   *  @return a new Stream over the runs of this RunLengthEncoding.
+   */
+  public Stream<int[]> runs() {
+	  return StreamSupport.stream(spliterator(), false);
+  }
+
+  /**
+   *  runCount() returns the number of runs in this run-length encoding.
+   *
+   *  @return the number of runs in this run-length encoding.
+   */
+  int runCount() {
+	  return runList.size;
+  }
+
+  /**
+   *  getPacked() returns the packed RGB value, as by RGB.pack(), of the
+   *  pixel at coordinate (x, y).  The runs are walked from the first one, so
+   *  the cost grows with the number of runs before the pixel.
+   *
+   *  @param x the x-coordinate of the pixel.
+   *  @param y the y-coordinate of the pixel.
+   *  @return the packed RGB value of the pixel at coordinate (x, y).
+   */
+  int getPacked(int x, int y) {
+	  int position = y*width + x;
+	  RunIterator runIt = iterator();
+	  int [] run = runIt.current();
+	  int cover = run[0];
+	  while(cover <= position && runIt.hasNext()){
+		  run = runIt.next();
+		  cover += run[0];
 	  }
-	  
-	  // Retire the runLength and rgb arrays for
-	  // memory efficiency since now they are redundant.
-	  runLengths = null;
-	  rgb = null;
-	  
-	  return runIterator;
+	  return (run[1] << 16) | (run[2] << 8) | run[3];
+  }
+
+  /**
+   *  toPackedRuns() returns the runs of this run-length encoding with their
+   *  colors packed as by RGB.pack().
+   *
+   *  @return a new PackedRuns holding the runs of this encoding.
+   */
+  PackedRuns toPackedRuns() {
+	  RunIterator runIt = iterator();
+	  PackedRuns runs = new PackedRuns(runIt.size());
+	  int [] run = runIt.current();
+	  while(true){
+		  runs.append(run[0], (run[1] << 16) | (run[2] << 8) | run[3]);
+		  if(!runIt.hasNext())
+			  break;
+		  run = runIt.next();
+	  }
+	  return runs;
+  }
+
+  /**
+   *  snapshot() returns an immutable copy of the current runs of this
+   *  run-length encoding, which any number of threads may read at once and
+   *  which later calls to setPixel() on this encoding do not change.
+   *
+   *  @return a new RunSnapshot of the runs of this encoding.
+   */
+  public RunSnapshot snapshot() {
+	  return RunSnapshot.of(width, height, toPackedRuns());
+  }
+
+  /**
+   *  toPackedArray() returns the pixels this run-length encoding represents,
+   *  packed as by RGB.pack(), in row-major order.
+   *
+   *  @return a new array of width*height packed RGB values.
+   */
+  int[] toPackedArray() {
+	  int [] pixels = new int[width*height];
+	  int count = 0;
+	  RunIterator runIt = iterator();
+	  int [] run = runIt.current();
+	  while(true){
+		  int p = (run[1] << 16) | (run[2] << 8) | run[3];
+		  java.util.Arrays.fill(pixels, count, count + run[0], p);
+		  count += run[0];
+		  if(!runIt.hasNext())
+			  break;
+		  run = runIt.next();
+	  }
+	  return pixels;
   }
 
   /**
@@ -132,10 +253,13 @@ public class RunLengthEncoding implements Iterable {
    */
   public PixImage toPixImage() {
     
+	  ImageMetricsListener metrics = ImageMetrics.listener();
+	  long start = metrics == null ? 0 : System.nanoTime();
 	  PixImage pix = new PixImage(width, height);
 	  
 	  int count = 0;
 	  
+	  RunIterator runIt = iterator();
 	  int[] first = runIt.current();
 	  for(int i=0; i<first[0]; i++){
 		  pix.setPixel(count%width, (int) (count/width), 
@@ -151,9 +275,12 @@ public class RunLengthEncoding implements Iterable {
 		  }
 	  }
 	  
-	  runIt.reset();
 	  if(count != width*height)
 		  System.out.println("INCORRECT IMPLEMENTATION OF toPixImage()");
+
+	  if(metrics != null)
+		  metrics.operationCompleted(ImageMetrics.Operation.RLE_DECODE, width, height,
+				  System.nanoTime() - start);
 	  return pix;
   }
 
@@ -168,7 +295,7 @@ public class RunLengthEncoding implements Iterable {
    *  @return s a String representation of this RunLengthEncoding.
    */
   public String toString() { 
-	  String s =  "(" + width + "," + height + "," + runIt + ")";
+	  String s =  "(" + width + "," + height + "," + iterator() + ")";
 	  return s;
   }
 
@@ -180,52 +307,21 @@ public class RunLengthEncoding implements Iterable {
    */
   public RunLengthEncoding(PixImage image) {
 
+	  ImageMetricsListener metrics = ImageMetrics.listener();
+	  long start = metrics == null ? 0 : System.nanoTime();
 	  width = image.getWidth();
 	  height = image.getHeight();
 	  
-	  // Convert the specified PixImage into an
-	  // array of RGB objects.
-	  RGB [] orig = new RGB[width*height];
-	  int index = 0;
-	  for(int y=0; y<height; y++){
-		  for(int x=0; x<width; x++){
-			  orig[index] = image.getRgbAt(x, y);
-			  index++;
-		  }
-	  }  
-	  
-	  // Calculates the run-length of the specified
-	  // PixImage.
-	  int [] runs = new int[index];
-	  RGB [] result = new RGB[index];
-	  RGB current = orig[0];
-	  int n = 0;
-	  int counter = 1;
-	  for(int i=1; i<orig.length; i++){
-		  if(current.equals(orig[i])){
-			  counter++;
-		  }
-		  else{
-			 result[n] = current;
-			 runs[n] = counter;
-			 n++;
-			 current = orig[i];
-			 counter = 1;
-		  }
-	  }
-	  // The last run.
-	  result[n] = current;
-	  runs[n] = counter;
-	  n++;
-	  // Run-length encode the specified PixImage.
-	  runLengths = new int[n];
-	  rgb = new RGB[n];
-	  for(int i=0; i<n; i++){
-		  runLengths[i] = runs[i];
-		  rgb[i] = result[i];
-	  }
-	  // Store the encoding into the iterator.
-	  runIt = iterator();
+	  // Pack the pixels of the specified PixImage into an array
+	  // of ints and find the runs by comparing the ints.
+	  PackedRuns runs = RunEncoder.encode(image.toPackedArray());
+	  if(metrics != null)
+		  metrics.imageEncoded(width*height, runs.lengths, runs.count);
+	  // Store the encoding into the list of runs.
+	  appendRuns(runs);
+	  if(metrics != null)
+		  metrics.operationCompleted(ImageMetrics.Operation.RLE_ENCODE, width, height,
+				  System.nanoTime() - start);
 	  
 	  // Check for correctness.
 	  check(); 
@@ -238,8 +334,8 @@ public class RunLengthEncoding implements Iterable {
    */
   public void check() {
     
-	  // Refresh the iterator.
-	  runIt.reset();
+	  // A fresh iterator over the runs.
+	  RunIterator runIt = iterator();
 	  
 	  int sum = 0; // Number of pixels covered in the run-length encoding.
 	  
@@ -262,7 +358,6 @@ public class RunLengthEncoding implements Iterable {
 		  current = runIt.current();
 		  cur = new RGB((short) current[1], (short) current[2], (short) current[3]);
 	  } 
-	  runIt.reset();
 	  
 	  // Check if the sum of all run lengths equal the number of pixels in the image.
 	  if(sum != width*height)
@@ -285,6 +380,9 @@ public class RunLengthEncoding implements Iterable {
    */
   public void setPixel(int x, int y, short red, short green, short blue) {
     
+	  ImageMetricsListener metrics = ImageMetrics.listener();
+	  long start = metrics == null ? 0 : System.nanoTime();
+
 	  // Calculate the corresponding position of the specified coordinates
 	  // when the pixels are to be laid in a single row as in the run-length
 	  // encoding algorithm.
@@ -294,10 +392,15 @@ public class RunLengthEncoding implements Iterable {
 	  int cover = 0;
 	  
 	  // The PixImage is empty.
-	  if(runIt.size() < 1)
+	  if(runList.size < 1){
+		  if(metrics != null)
+			  metrics.operationCompleted(ImageMetrics.Operation.RLE_SET_PIXEL, width, height,
+					  System.nanoTime() - start);
 		  return;
+	  }
 	  
 	  // Find the run in the encoding that holds the specified pixel.
+	  RunIterator runIt = iterator();
 	  int [] itemN = runIt.current();
 	  cover += itemN[0];
 	  while(cover<position && runIt.hasNext()){
@@ -312,6 +415,214 @@ public class RunLengthEncoding implements Iterable {
 	  
 	  // Check for correctness.
 	  check();
+
+	  if(metrics != null)
+		  metrics.operationCompleted(ImageMetrics.Operation.RLE_SET_PIXEL, width, height,
+				  System.nanoTime() - start);
+  }
+
+
+  /**
+   *  crop() returns a run-length encoding of the rectangle of the specified
+   *  size whose upper left corner is at coordinate (x, y).  The runs of each
+   *  row of the rectangle are clipped from the runs of this encoding and
+   *  merged where the rows meet; no pixel is decoded.  The runs are walked
+   *  from the first one and the walk stops at the last row of the
+   *  rectangle, so the cost grows with the number of runs up to there.
+   *
+   *  @param x the x-coordinate of the upper left corner of the rectangle.
+   *  @param y the y-coordinate of the upper left corner of the rectangle.
+   *  @param w the width of the rectangle.
+   *  @param h the height of the rectangle.
+   *  @return a new RunLengthEncoding of the rectangle.
+   *  @throws IndexOutOfBoundsException if the rectangle is empty or not
+   *  inside the image.
+   */
+  public RunLengthEncoding crop(int x, int y, int w, int h) {
+	  if(x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > width || y + h > height)
+		  throw new IndexOutOfBoundsException("Rectangle of " + w + "x" + h + " at (" + x +
+				  "," + y + ") is not inside an image of " + width + "x" + height);
+	  RunCursor cursor = new RunCursor(runList.head);
+	  PackedRuns cropped = new PackedRuns(h);
+	  for(int row=y; row<y+h; row++)
+		  cursor.appendRange(cropped, row*width + x, row*width + x + w);
+	  return new RunLengthEncoding(w, h, cropped);
+  }
+
+  /**
+   *  paste() copies the image of the specified run-length encoding into this
+   *  one with its upper left corner at coordinate (x, y).  The part of the
+   *  source outside this image is left out.  Only the runs of this encoding
+   *  from the first to the last pixel covered by the source are replaced:
+   *  they are clipped, merged with the clipped runs of the source and
+   *  spliced back between the runs around them; no pixel is decoded.  The
+   *  runs of both encodings are walked from the first one up to the last
+   *  row pasted, and the iterators over this encoding fail on their next
+   *  call to next().
+   *
+   *  @param src the run-length encoding to paste.
+   *  @param x the x-coordinate of the upper left corner of the source.
+   *  @param y the y-coordinate of the upper left corner of the source.
+   */
+  public void paste(RunLengthEncoding src, int x, int y) {
+	  // The rectangle of this image covered by the source.
+	  int left = Math.max(0, x);
+	  int top = Math.max(0, y);
+	  int right = Math.min(width, x + src.width);
+	  int bottom = Math.min(height, y + src.height);
+	  if(left >= right || top >= bottom)
+		  return;
+	  // The pixels spanStart..spanEnd-1 hold every pixel that changes.
+	  int spanStart = top*width + left;
+	  int spanEnd = (bottom - 1)*width + right;
+
+	  // The new runs from the run before the one holding spanStart to the
+	  // run after the one holding spanEnd-1, so that they merge with the runs
+	  // around them.
+	  RunCursor cursor = new RunCursor(runList.head);
+	  cursor.seek(spanStart);
+	  Run first = cursor.run;
+	  PackedRuns span = new PackedRuns(16);
+	  if(first.prev != null){
+		  first = first.prev;
+		  span.append(first.runLength, first.rgb.pack());
+	  }
+	  cursor.appendRange(span, cursor.start, spanStart);
+	  RunCursor source = new RunCursor(src.runList.head);
+	  int position = spanStart;
+	  for(int row=top; row<bottom; row++){
+		  int start = row*width + left;
+		  cursor.appendRange(span, position, start);
+		  int from = (row - y)*src.width + (left - x);
+		  source.appendRange(span, from, from + right - left);
+		  position = start + right - left;
+	  }
+	  cursor.seek(spanEnd - 1);
+	  Run last = cursor.run;
+	  cursor.appendRange(span, spanEnd, cursor.start + last.runLength);
+	  if(last.next != null){
+		  last = last.next;
+		  span.append(last.runLength, last.rgb.pack());
+	  }
+
+	  // Replace the runs first..last with the new runs.
+	  Run before = first.prev;
+	  Run after = last.next;
+	  int removed = 0;
+	  for(Run run=first; run!=after; run=run.next)
+		  removed++;
+	  Run prev = before;
+	  for(int i=0; i<span.count; i++){
+		  Run run = new Run(prev, null, span.lengths[i], RGB.unpack(span.colors[i]));
+		  if(prev == null)
+			  runList.head = run;
+		  else
+			  prev.next = run;
+		  prev = run;
+	  }
+	  prev.next = after;
+	  if(after == null)
+		  runList.tail = prev;
+	  else
+		  after.prev = prev;
+	  runList.size += span.count - removed;
+	  runList.modCount++;
+  }
+
+  /**
+   *  RunCursor walks the runs of an encoding forward from a run, keeping
+   *  the index of the first pixel of the current run, so that ranges of
+   *  pixels in increasing order are clipped out in a single pass.
+   */
+  private static class RunCursor {
+
+	  // The current run and the index of its first pixel.
+	  Run run;
+	  int start;
+
+	  RunCursor(Run head) {
+		  run = head;
+	  }
+
+	  /**
+	   *  seek() moves to the run holding the specified pixel, which must not
+	   *  be before the current run.
+	   */
+	  void seek(int position) {
+		  while(start + run.runLength <= position){
+			  start += run.runLength;
+			  run = run.next;
+		  }
+	  }
+
+	  /**
+	   *  appendRange() appends the pixels from..to-1 to the specified runs,
+	   *  clipping the runs at both ends.
+	   */
+	  void appendRange(PackedRuns runs, int from, int to) {
+		  while(from < to){
+			  seek(from);
+			  int end = Math.min(to, start + run.runLength);
+			  runs.append(end - from, run.rgb.pack());
+			  from = end;
+		  }
+	  }
+  }
+
+  /**
+   *  rotate180() returns a run-length encoding of this image rotated by 180
+   *  degrees.  The rotated image is the same sequence of pixels in reverse
+   *  order, so its runs are the runs of this encoding in reverse order; no
+   *  pixel is touched.
+   *
+   *  @return a new RunLengthEncoding of this image rotated by 180 degrees.
+   */
+  public RunLengthEncoding rotate180() {
+	  PackedRuns runs = toPackedRuns();
+	  PackedRuns rotated = new PackedRuns(runs.count);
+	  for(int r=runs.count-1; r>=0; r--)
+		  rotated.append(runs.lengths[r], runs.colors[r]);
+	  return new RunLengthEncoding(width, height, rotated);
+  }
+
+  /**
+   *  flipHorizontal() returns a run-length encoding of this image mirrored
+   *  left to right.  The runs of each row are clipped to the row and
+   *  appended in reverse order, merging where the rows meet.
+   *
+   *  @return a new RunLengthEncoding of this image mirrored left to right.
+   */
+  public RunLengthEncoding flipHorizontal() {
+	  PackedRuns runs = toPackedRuns();
+	  int [] offsets = RunDecoder.runOffsets(runs);
+	  PackedRuns flipped = new PackedRuns(runs.count + height);
+	  int last = 0;
+	  for(int row=0; row<height; row++){
+		  int rowStart = row*width;
+		  int rowEnd = rowStart + width;
+		  // The last run of the row; the runs of the row end at it.
+		  while(last < runs.count - 1 && offsets[last] + runs.lengths[last] < rowEnd)
+			  last++;
+		  for(int r=last; r>=0 && r<runs.count && offsets[r] + runs.lengths[r] > rowStart; r--)
+			  flipped.append(Math.min(rowEnd, offsets[r] + runs.lengths[r]) -
+					  Math.max(rowStart, offsets[r]), runs.colors[r]);
+	  }
+	  return new RunLengthEncoding(width, height, flipped);
+  }
+
+  /**
+   *  flipVertical() returns a run-length encoding of this image mirrored top
+   *  to bottom, made of the clipped runs of the rows in reverse order.
+   *
+   *  @return a new RunLengthEncoding of this image mirrored top to bottom.
+   */
+  public RunLengthEncoding flipVertical() {
+	  PackedRuns runs = toPackedRuns();
+	  int [] offsets = RunDecoder.runOffsets(runs);
+	  PackedRuns flipped = new PackedRuns(runs.count + height);
+	  for(int row=height-1; row>=0; row--)
+		  flipped.appendRange(runs, offsets, row*width, row*width + width);
+	  return new RunLengthEncoding(width, height, flipped);
   }
 
 
@@ -375,6 +686,61 @@ public class RunLengthEncoding implements Iterable {
     rle.check();
   }
 
+  /**
+   * linked() returns true if the runs of the specified encoding form a
+   * consistent list:  each run's prev is the run before it, the head and
+   * tail end the list, the size is the number of runs, no two consecutive
+   * runs have the same color, and the lengths add up to the pixels.
+   *
+   * @param rle the run-length encoding to inspect.
+   * @return true if the list of runs is consistent.
+   */
+  private static boolean linked(RunLengthEncoding rle) {
+    RunList list = rle.runList;
+    Run last = null;
+    int count = 0;
+    long sum = 0;
+    for (Run run = list.head; run != null; run = run.next) {
+      if (run.prev != last || run.runLength <= 0 ||
+          (last != null && last.rgb.equals(run.rgb))) {
+        return false;
+      }
+      count++;
+      sum += run.runLength;
+      last = run;
+    }
+    return last == list.tail && count == list.size &&
+           sum == (long) rle.width * rle.height;
+  }
+
+  /**
+   * setAndPin() encodes a one-row grayscale image, sets pixel x to the given
+   * intensity, and checks that the encoding is consistent and has exactly
+   * the expected runs.
+   *
+   * @param row the intensities of the row.
+   * @param x the x-coordinate to set.
+   * @param intensity the grayscale intensity to assign to pixel (x, 0).
+   * @param lengths the expected run lengths.
+   * @param grays the expected run intensities.
+   * @return true if the encoding has the expected runs.
+   */
+  private static boolean setAndPin(int[] row, int x, int intensity,
+                                   int[] lengths, int[] grays) {
+    int [][] pixels = new int[row.length][1];
+    for (int i = 0; i < row.length; i++) {
+      pixels[i][0] = row[i];
+    }
+    RunLengthEncoding rle = new RunLengthEncoding(array2PixImage(pixels));
+    setAndCheckRLE(rle, x, 0, intensity);
+    PackedRuns runs = rle.toPackedRuns();
+    boolean same = linked(rle) && runs.count == lengths.length;
+    for (int r = 0; same && r < runs.count; r++) {
+      same = runs.lengths[r] == lengths[r] && runs.colors[r] == grays[r] * 0x010101;
+    }
+    return same;
+  }
+
   /**
    * main() runs a series of tests of the run-length encoding code.
    */
@@ -520,6 +886,148 @@ public class RunLengthEncoding implements Iterable {
     image4.setPixel(1, 0, (short) 1, (short) 1, (short) 1);
     doTest(rle4.toPixImage().equals(image4),
            "Setting RLE4[1][0] = 1 fails.");
+
+    System.out.println("Testing two iterators over a 3x2 encoding.");
+    RunIterator it1 = rle4.iterator();
+    RunIterator it2 = rle4.iterator();
+    it1.next();
+    doTest(it2.current()[0] == rle4.iterator().current()[0] &&
+           it2.size() == rle4.runCount() && it2.hasNext(),
+           "Iterators over RLE4 share their position.");
+    System.out.println("Testing an iterator after setPixel() on a 3x2 encoding.");
+    rle4.setPixel(0, 1, (short) 9, (short) 9, (short) 9);
+    boolean failed = false;
+    try {
+      it1.next();
+    } catch (java.util.ConcurrentModificationException e) {
+      failed = true;
+    }
+    it1.reset();
+    doTest(failed && it1.current()[0] == rle4.iterator().current()[0],
+           "A stale iterator over RLE4 did not fail.");
+    System.out.println("Testing a parallel stream of runs on a 3x2 encoding.");
+    doTest(rle4.runs().parallel().mapToInt(run -> run[0]).sum() == 6 &&
+           rle4.runs().count() == rle4.runCount() &&
+           rle4.runs().skip(3).findFirst().get()[1] == 9,
+           "The stream of runs of RLE4 is incorrect.");
+
+    java.util.Random random = new java.util.Random(61);
+    PixImage image5 = new PixImage(40, 30);
+    for (int x = 0; x < 40; x++) {
+      for (int y = 0; y < 30; y++) {
+        image5.setPacked(x, y, (x/7 + y/4) % 2 == 0 ? random.nextInt(2) : 0x123456);
+      }
+    }
+    RunLengthEncoding rle5 = new RunLengthEncoding(image5);
+    System.out.println("Testing crop() on a 40x30 encoding.");
+    boolean same = true;
+    for (int i = 0; i < 50; i++) {
+      int x = random.nextInt(40);
+      int y = random.nextInt(30);
+      int w = 1 + random.nextInt(40 - x);
+      int h = 1 + random.nextInt(30 - y);
+      PixImage cropped = rle5.crop(x, y, w, h).toPixImage();
+      for (int cx = 0; cx < w; cx++) {
+        for (int cy = 0; cy < h; cy++) {
+          same &= cropped.getPacked(cx, cy) == image5.getPacked(x + cx, y + cy);
+        }
+      }
+    }
+    doTest(same, "Cropping RLE5 fails.");
+    System.out.println("Testing paste() on a 40x30 encoding.");
+    RunLengthEncoding patch = new RunLengthEncoding(image4);
+    int [][] corners = { { 0, 0 }, { 38, 29 }, { -1, -1 }, { 20, 10 }, { 39, 5 } };
+    for (int[] corner : corners) {
+      rle5.paste(patch, corner[0], corner[1]);
+      for (int px = 0; px < 3; px++) {
+        for (int py = 0; py < 2; py++) {
+          int x = corner[0] + px;
+          int y = corner[1] + py;
+          if (x >= 0 && x < 40 && y >= 0 && y < 30) {
+            image5.setPacked(x, y, image4.getPacked(px, py));
+          }
+        }
+      }
+    }
+    rle5.check();
+    doTest(rle5.toPixImage().equals(image5) && linked(rle5), "Pasting into RLE5 fails.");
+    System.out.println("Testing random paste() calls against PixImage.");
+    boolean pasted = true;
+    for (int i = 0; i < 500 && pasted; i++) {
+      int w = 1 + random.nextInt(12);
+      int h = 1 + random.nextInt(12);
+      PixImage piece = new PixImage(w, h);
+      for (int px = 0; px < w; px++) {
+        for (int py = 0; py < h; py++) {
+          piece.setPacked(px, py, random.nextInt(3) == 0 ? 0x123456 : random.nextInt(2));
+        }
+      }
+      int x = random.nextInt(50) - 8;
+      int y = random.nextInt(40) - 8;
+      rle5.paste(new RunLengthEncoding(piece), x, y);
+      for (int px = Math.max(0, -x); px < w && x + px < 40; px++) {
+        for (int py = Math.max(0, -y); py < h && y + py < 30; py++) {
+          image5.setPacked(x + px, y + py, piece.getPacked(px, py));
+        }
+      }
+      pasted = linked(rle5) && rle5.toPixImage().equals(image5);
+    }
+    doTest(pasted, "Random pastes into RLE5 fail.");
+
+    System.out.println("Testing flips and rotation on a 40x30 encoding.");
+    doTest(rle5.rotate180().toPixImage().equals(image5.rotate180()) &&
+           rle5.flipHorizontal().toPixImage().equals(image5.flipHorizontal()) &&
+           rle5.flipVertical().toPixImage().equals(image5.flipVertical()) &&
+           rle4.flipHorizontal().toPixImage().equals(rle4.toPixImage().flipHorizontal()),
+           "Flipping or rotating RLE5 fails.");
+    System.out.println("Testing flips and rotation on a 0x5 encoding.");
+    RunLengthEncoding narrow = new RunLengthEncoding(0, 5);
+    RunLengthEncoding[] turned = { narrow.flipHorizontal(), narrow.flipVertical(),
+                                   narrow.rotate180() };
+    boolean empty = true;
+    for (RunLengthEncoding t : turned) {
+      empty &= t.getWidth() == 0 && t.getHeight() == 5;
+    }
+    doTest(empty, "Flipping or rotating a 0x5 encoding fails.");
+
+    System.out.println("Testing setPixel() cases that merge or split runs.");
+    doTest(setAndPin(new int[] { 1, 2, 2 }, 0, 2, new int[] { 3 }, new int[] { 2 }),
+           "A single-pixel head run does not absorb the next run.");
+    doTest(setAndPin(new int[] { 1, 2, 3, 3 }, 1, 3, new int[] { 1, 3 },
+                     new int[] { 1, 3 }),
+           "A single-pixel middle run does not absorb the next run.");
+    doTest(setAndPin(new int[] { 1, 2, 2, 3, 4 }, 2, 3, new int[] { 1, 1, 2, 1 },
+                     new int[] { 1, 2, 3, 4 }),
+           "The next run does not grow by the last pixel of a middle run.");
+    doTest(setAndPin(new int[] { 2, 2, 3 }, 1, 4, new int[] { 1, 1, 1 },
+                     new int[] { 2, 4, 3 }),
+           "Inserting a run after the head run breaks the list.");
+    doTest(setAndPin(new int[] { 1, 2, 2, 3 }, 2, 4, new int[] { 1, 1, 1, 1 },
+                     new int[] { 1, 2, 4, 3 }),
+           "Inserting a run after a middle run breaks the list.");
+
+    System.out.println("Testing random setPixel() calls against PixImage.");
+    java.util.Random edits = new java.util.Random(31);
+    boolean agrees = true;
+    for (int trial = 0; trial < 2000 && agrees; trial++) {
+      int w = 1 + edits.nextInt(5);
+      int h = 1 + edits.nextInt(4);
+      PixImage image = new PixImage(w, h);
+      for (int x = 0; x < w; x++) {
+        for (int y = 0; y < h; y++) {
+          image.setPacked(x, y, edits.nextInt(3) * 0x010101);
+        }
+      }
+      RunLengthEncoding rle = new RunLengthEncoding(image);
+      for (int edit = 0; edit < 20 && agrees; edit++) {
+        int x = edits.nextInt(w);
+        int y = edits.nextInt(h);
+        int gray = edits.nextInt(3);
+        setAndCheckRLE(rle, x, y, gray);
+        image.setPixel(x, y, (short) gray, (short) gray, (short) gray);
+        agrees = linked(rle) && rle.toPixImage().equals(image);
+      }
+    }
+    doTest(agrees, "Random setPixel() calls disagree with PixImage.");
   }
 }
-
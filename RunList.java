@@ -0,0 +1,22 @@
+/* RunList.java */
+
+/**
+ *  RunList is a class used internally by RunIterator and RunLengthEncoding.
+ *  A RunList is the doubly-linked list of Run nodes holding the runs of a
+ *  run-length encoding.  Any number of RunIterators may walk the same
+ *  RunList, each with its own current node.
+ *
+ *  modCount counts the changes made to the list through
+ *  RunIterator.modifyCurrentNode(); an iterator whose list was changed by
+ *  another iterator fails on its next call to next().
+ */
+
+class RunList {
+
+	// Head and tail of the doubly-linked list.
+	Run head, tail;
+	// Total number of nodes in the linked list.
+	int size;
+	// Number of changes made to the list.
+	int modCount;
+}
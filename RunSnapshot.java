@@ -0,0 +1,336 @@
+/* RunSnapshot.java */
+
+/**
+ *  The RunSnapshot class is an immutable version of a run-length encoding.
+ *  Its runs are stored in chunks of at most CHUNK_RUNS runs; a chunk holds
+ *  the length, the packed color and the start offset of each of its runs in
+ *  primitive arrays, and is never modified once built.
+ *
+ *  setPixel() does not change a snapshot but returns a new one.  Only the
+ *  chunk holding the pixel and its two neighbors, which may absorb a merged
+ *  run, are rebuilt; every other chunk is shared between the two versions.
+ *  A write therefore costs O(CHUNK_RUNS) for the chunks plus a copy of the
+ *  array of chunk references, and a reader of the old version is never
+ *  disturbed:  any number of threads may walk a snapshot at the same time,
+ *  each with its own Cursor, without locking.
+ *
+ *  Like a RunLengthEncoding, a snapshot never has two consecutive runs of
+ *  the same color.
+ */
+
+public class RunSnapshot {
+
+	// Largest number of runs in a chunk.
+	static final int CHUNK_RUNS = 64;
+
+	private final int width, height;
+	private final Chunk [] chunks;
+	// chunkStarts[c] is the offset of the first pixel of chunks[c].
+	private final int [] chunkStarts;
+	private final int runCount;
+
+
+  /**
+   *  The Chunk class is an immutable block of consecutive runs.
+   */
+  private static class Chunk {
+
+	  final int [] lengths, colors, starts;
+
+	  Chunk(int[] lengths, int[] colors, int[] starts) {
+		  this.lengths = lengths;
+		  this.colors = colors;
+		  this.starts = starts;
+	  }
+  }
+
+  private RunSnapshot(int width, int height, Chunk[] chunks, int[] chunkStarts, int runCount) {
+	  this.width = width;
+	  this.height = height;
+	  this.chunks = chunks;
+	  this.chunkStarts = chunkStarts;
+	  this.runCount = runCount;
+  }
+
+  /**
+   * of() returns a snapshot of the current runs of the specified run-length
+   * encoding.
+   *
+   * @param rle the run-length encoding.
+   * @return a snapshot of the runs of the encoding.
+   */
+  public static RunSnapshot of(RunLengthEncoding rle) {
+	  return rle.snapshot();
+  }
+
+  /**
+   * of() returns a snapshot of the specified runs.
+   */
+  static RunSnapshot of(int width, int height, PackedRuns runs) {
+	  Chunk [] chunks = split(runs, 0);
+	  return new RunSnapshot(width, height, chunks, startsOf(chunks), runs.count);
+  }
+
+  /**
+   * split() divides the specified runs, whose first pixel has the specified
+   * offset, into chunks of about equal numbers of runs.
+   */
+  private static Chunk[] split(PackedRuns runs, int start) {
+	  int n = (runs.count + CHUNK_RUNS - 1)/CHUNK_RUNS;
+	  Chunk [] result = new Chunk[n];
+	  int r = 0;
+	  for(int c=0; c<n; c++){
+		  int size = (runs.count - r)/(n - c);
+		  int [] lengths = new int[size];
+		  int [] colors = new int[size];
+		  int [] starts = new int[size];
+		  for(int i=0; i<size; i++, r++){
+			  lengths[i] = runs.lengths[r];
+			  colors[i] = runs.colors[r];
+			  starts[i] = start;
+			  start += lengths[i];
+		  }
+		  result[c] = new Chunk(lengths, colors, starts);
+	  }
+	  return result;
+  }
+
+  /**
+   * startsOf() returns the offset of the first pixel of each chunk.
+   */
+  private static int[] startsOf(Chunk[] chunks) {
+	  int [] starts = new int[chunks.length];
+	  for(int c=0; c<chunks.length; c++)
+		  starts[c] = chunks[c].starts[0];
+	  return starts;
+  }
+
+  /**
+   * chunkOf() returns the index of the chunk holding the specified pixel.
+   */
+  private int chunkOf(int position) {
+	  int c = java.util.Arrays.binarySearch(chunkStarts, position);
+	  return c >= 0 ? c : -c - 2;
+  }
+
+  /**
+   * runOf() returns the index within the specified chunk of the run
+   * holding the specified pixel.
+   */
+  private static int runOf(Chunk chunk, int position) {
+	  int r = java.util.Arrays.binarySearch(chunk.starts, position);
+	  return r >= 0 ? r : -r - 2;
+  }
+
+  /**
+   * getWidth() returns the width of the image.
+   *
+   * @return the width of the image.
+   */
+  public int getWidth() {
+	  return width;
+  }
+
+  /**
+   * getHeight() returns the height of the image.
+   *
+   * @return the height of the image.
+   */
+  public int getHeight() {
+	  return height;
+  }
+
+  /**
+   * getRunCount() returns the number of runs.
+   *
+   * @return the number of runs.
+   */
+  public int getRunCount() {
+	  return runCount;
+  }
+
+  /**
+   * getPacked() returns the packed RGB value, as by RGB.pack(), of the pixel
+   * at coordinate (x, y), found by binary search.
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @return the packed RGB value of the pixel at coordinate (x, y).
+   */
+  public int getPacked(int x, int y) {
+	  int position = y*width + x;
+	  Chunk chunk = chunks[chunkOf(position)];
+	  return chunk.colors[runOf(chunk, position)];
+  }
+
+  /**
+   * setPixel() returns a new snapshot in which the pixel at coordinate
+   * (x, y) has the specified intensities and every other pixel is the same
+   * as in "this".  "this" is not changed.
+   *
+   * If any of the three color intensities is NOT in the range 0...255, then
+   * "this" is returned.
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @param red the new red intensity of the pixel.
+   * @param green the new green intensity of the pixel.
+   * @param blue the new blue intensity of the pixel.
+   * @return the new version of the image.
+   */
+  public RunSnapshot setPixel(int x, int y, short red, short green, short blue) {
+	  if ((red<0 || red>255) || (green<0 || green>255) || (blue<0 || blue>255))
+		  return this;
+	  int position = y*width + x;
+	  int color = (red << 16) | (green << 8) | blue;
+	  int c = chunkOf(position);
+	  if(chunks[c].colors[runOf(chunks[c], position)] == color)
+		  return this;
+
+	  // Rebuild the chunk holding the pixel with its neighbors, so that a
+	  // run absorbing the pixel is rebuilt too; append() merges the runs of
+	  // equal colors around the pixel.
+	  int lo = Math.max(0, c-1);
+	  int hi = Math.min(chunks.length-1, c+1);
+	  PackedRuns window = new PackedRuns(3*CHUNK_RUNS + 2);
+	  int oldRuns = 0;
+	  for(int k=lo; k<=hi; k++){
+		  Chunk chunk = chunks[k];
+		  oldRuns += chunk.lengths.length;
+		  for(int r=0; r<chunk.lengths.length; r++){
+			  int start = chunk.starts[r];
+			  int length = chunk.lengths[r];
+			  if(position < start || position >= start + length)
+				  window.append(length, chunk.colors[r]);
+			  else{
+				  window.append(position - start, chunk.colors[r]);
+				  window.append(1, color);
+				  window.append(start + length - position - 1, chunk.colors[r]);
+			  }
+		  }
+	  }
+	  Chunk [] rebuilt = split(window, chunkStarts[lo]);
+
+	  Chunk [] result = new Chunk[chunks.length - (hi - lo + 1) + rebuilt.length];
+	  System.arraycopy(chunks, 0, result, 0, lo);
+	  System.arraycopy(rebuilt, 0, result, lo, rebuilt.length);
+	  System.arraycopy(chunks, hi+1, result, lo + rebuilt.length, chunks.length - hi - 1);
+	  return new RunSnapshot(width, height, result, startsOf(result),
+			  runCount - oldRuns + window.count);
+  }
+
+  /**
+   * cursor() returns a new cursor positioned before the first run.
+   *
+   * @return a new cursor over the runs of "this".
+   */
+  public Cursor cursor() {
+	  return new Cursor();
+  }
+
+  /**
+   *  The Cursor class walks the runs of a snapshot.  A cursor starts before
+   *  the first run; each call to next() moves it to the following run,
+   *  whose length, color and first pixel are then available.  A cursor is
+   *  meant to be used by a single thread; each thread takes its own.
+   */
+  public class Cursor {
+
+	  private int chunk = 0;
+	  private int run = -1;
+
+	  private Cursor() {
+	  }
+
+	  /**
+	   * next() moves the cursor to the next run.
+	   *
+	   * @return true if there was a next run, false at the end.
+	   */
+	  public boolean next() {
+		  if(chunk >= chunks.length)
+			  return false;
+		  run++;
+		  if(run == chunks[chunk].lengths.length){
+			  chunk++;
+			  run = 0;
+		  }
+		  return chunk < chunks.length;
+	  }
+
+	  /**
+	   * getLength() returns the length of the current run.
+	   *
+	   * @return the length of the current run.
+	   */
+	  public int getLength() {
+		  return chunks[chunk].lengths[run];
+	  }
+
+	  /**
+	   * getPacked() returns the packed RGB value of the current run.
+	   *
+	   * @return the packed RGB value of the current run.
+	   */
+	  public int getPacked() {
+		  return chunks[chunk].colors[run];
+	  }
+
+	  /**
+	   * getStart() returns the offset, in row-major order, of the first pixel
+	   * of the current run.
+	   *
+	   * @return the offset of the first pixel of the current run.
+	   */
+	  public int getStart() {
+		  return chunks[chunk].starts[run];
+	  }
+  }
+
+  /**
+   * toPackedRuns() returns the runs of "this".
+   */
+  PackedRuns toPackedRuns() {
+	  PackedRuns runs = new PackedRuns(runCount);
+	  for(Chunk chunk : chunks)
+		  for(int r=0; r<chunk.lengths.length; r++)
+			  runs.append(chunk.lengths[r], chunk.colors[r]);
+	  return runs;
+  }
+
+  /**
+   * toRunLengthEncoding() returns a RunLengthEncoding of "this".
+   *
+   * @return a new RunLengthEncoding holding the runs of "this".
+   */
+  public RunLengthEncoding toRunLengthEncoding() {
+	  return new RunLengthEncoding(width, height, toPackedRuns());
+  }
+
+  /**
+   * toPixImage() returns a PixImage holding the image of "this".
+   *
+   * @return a new PixImage holding the image of "this".
+   */
+  public PixImage toPixImage() {
+	  PixImage image = new PixImage(width, height);
+	  Cursor cursor = cursor();
+	  while(cursor.next()){
+		  int start = cursor.getStart();
+		  int color = cursor.getPacked();
+		  for(int i=start; i<start + cursor.getLength(); i++)
+			  image.setPacked(i % width, i / width, color);
+	  }
+	  return image;
+  }
+
+  /**
+   * toString() returns a String representation of this snapshot in the
+   * format (width, height, number of runs, number of chunks).
+   *
+   * @return a String representation of this snapshot.
+   */
+  public String toString() {
+	  return "(" + width + "," + height + "," + runCount + "," + chunks.length + ")";
+  }
+}
@@ -0,0 +1,75 @@
+/* RunSpliterator.java */
+
+/**
+ *  RunSpliterator is a class used internally by RunLengthEncoding.  A
+ *  RunSpliterator traverses a range of PackedRuns, returning each run as an
+ *  array of 4 ints in the format of RunIterator.next():  the run length in
+ *  index [0] and the red, green and blue intensities in indices [1] to [3].
+ *  trySplit() hands the first half of the remaining runs to a new
+ *  RunSpliterator, so a parallel stream divides the runs evenly among its
+ *  threads.  The runs are never changed while they are traversed.
+ */
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+class RunSpliterator implements Spliterator<int[]> {
+
+	private final PackedRuns runs;
+	// The next run to return and the end of the range.
+	private int next, end;
+
+
+  /**
+   *  RunSpliterator() (with one parameter) constructs a Spliterator over all
+   *  the specified runs.
+   */
+  RunSpliterator(PackedRuns runs) {
+	  this(runs, 0, runs.count);
+  }
+
+  private RunSpliterator(PackedRuns runs, int next, int end) {
+	  this.runs = runs;
+	  this.next = next;
+	  this.end = end;
+  }
+
+  /**
+   * run() returns run i in the format of RunIterator.next().
+   */
+  private int[] run(int i) {
+	  int color = runs.colors[i];
+	  int [] run = {runs.lengths[i], (color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF};
+	  return run;
+  }
+
+  public boolean tryAdvance(Consumer<? super int[]> action) {
+	  if(next >= end)
+		  return false;
+	  action.accept(run(next++));
+	  return true;
+  }
+
+  public void forEachRemaining(Consumer<? super int[]> action) {
+	  for(int i=next; i<end; i++)
+		  action.accept(run(i));
+	  next = end;
+  }
+
+  public Spliterator<int[]> trySplit() {
+	  int middle = (next + end) >>> 1;
+	  if(middle <= next)
+		  return null;
+	  RunSpliterator first = new RunSpliterator(runs, next, middle);
+	  next = middle;
+	  return first;
+  }
+
+  public long estimateSize() {
+	  return end - next;
+  }
+
+  public int characteristics() {
+	  return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+  }
+}
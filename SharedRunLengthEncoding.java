@@ -0,0 +1,145 @@
+/* SharedRunLengthEncoding.java */
+
+/**
+ *  The SharedRunLengthEncoding class is a run-length encoding shared by
+ *  many reader threads and occasional writer threads.  It holds the current
+ *  RunSnapshot; a reader takes the current snapshot with snapshot() and
+ *  walks it with its own cursor, without locking, for as long as it likes.
+ *  A writer replaces the current snapshot with a new version built by
+ *  RunSnapshot.setPixel(), which shares every chunk it did not change with
+ *  the old version.  Writers are serialized with each other; readers never
+ *  wait for them.
+ */
+
+public class SharedRunLengthEncoding {
+
+	private volatile RunSnapshot current;
+
+
+  /**
+   * SharedRunLengthEncoding() (with one parameter) constructs a shared
+   * encoding whose first version holds the runs of the specified
+   * RunLengthEncoding.
+   *
+   * @param rle the run-length encoding to share.
+   */
+  public SharedRunLengthEncoding(RunLengthEncoding rle) {
+	  current = RunSnapshot.of(rle);
+  }
+
+  /**
+   * snapshot() returns the current version of the encoding.  The version
+   * returned never changes, even if writers set pixels afterwards.
+   *
+   * @return the current version of the encoding.
+   */
+  public RunSnapshot snapshot() {
+	  return current;
+  }
+
+  /**
+   * setPixel() makes a new current version of the encoding in which the
+   * pixel at coordinate (x, y) has the specified intensities.
+   *
+   * If any of the three color intensities is NOT in the range 0...255, then
+   * this method does NOT change any of the pixel intensities.
+   *
+   * @param x the x-coordinate of the pixel.
+   * @param y the y-coordinate of the pixel.
+   * @param red the new red intensity of the pixel.
+   * @param green the new green intensity of the pixel.
+   * @param blue the new blue intensity of the pixel.
+   * @return the new current version.
+   */
+  public synchronized RunSnapshot setPixel(int x, int y, short red, short green, short blue) {
+	  current = current.setPixel(x, y, red, green, blue);
+	  return current;
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() checks that writes produce correct new versions while readers of
+   * older versions keep seeing their own.
+   */
+  public static void main(String[] args) throws InterruptedException {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 70;
+	  int height = 50;
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++)
+			  image.setPacked(x, y, (x/3 + y) % 4);
+	  SharedRunLengthEncoding shared = new SharedRunLengthEncoding(new RunLengthEncoding(image));
+	  RunSnapshot first = shared.snapshot();
+	  PixImage firstImage = first.toPixImage();
+
+	  System.out.println("Testing setPixel() on a shared encoding.");
+	  for(int i=0; i<2000; i++){
+		  int x = random.nextInt(width);
+		  int y = random.nextInt(height);
+		  short v = (short) random.nextInt(4);
+		  shared.setPixel(x, y, (short) 0, (short) 0, v);
+		  image.setPixel(x, y, (short) 0, (short) 0, v);
+	  }
+	  RunSnapshot last = shared.snapshot();
+	  doTest(last.toPixImage().equals(image) &&
+			  last.getRunCount() == new RunLengthEncoding(image).runCount() &&
+			  last.getPacked(33, 44) == image.getPacked(33, 44),
+			  "Incorrect version after 2000 writes: " + last);
+
+	  System.out.println("Testing that an old version is unchanged.");
+	  doTest(first.toPixImage().equals(firstImage), "The first version changed.");
+
+	  System.out.println("Testing concurrent readers during writes.");
+	  final boolean [] failed = new boolean[1];
+	  Thread [] readers = new Thread[4];
+	  for(int t=0; t<readers.length; t++){
+		  readers[t] = new Thread(() -> {
+			  for(int k=0; k<200; k++){
+				  RunSnapshot s = shared.snapshot();
+				  RunSnapshot.Cursor cursor = s.cursor();
+				  long pixels = 0;
+				  int runs = 0;
+				  int previous = -1;
+				  while(cursor.next()){
+					  if(cursor.getStart() != pixels || cursor.getPacked() == previous)
+						  failed[0] = true;
+					  previous = cursor.getPacked();
+					  pixels += cursor.getLength();
+					  runs++;
+				  }
+				  if(pixels != (long) width*height || runs != s.getRunCount())
+					  failed[0] = true;
+			  }
+		  });
+		  readers[t].start();
+	  }
+	  for(int i=0; i<5000; i++)
+		  shared.setPixel(random.nextInt(width), random.nextInt(height),
+				  (short) random.nextInt(2), (short) 0, (short) 0);
+	  for(Thread reader : readers)
+		  reader.join();
+	  doTest(!failed[0], "A reader saw an inconsistent version.");
+  }
+}
@@ -0,0 +1,480 @@
+/* TiffReader.java */
+
+/**
+ *  The TiffReader class reads a baseline RGB TIFF file, 8 bits per sample,
+ *  one row at a time through a SeekableByteChannel.  The pixels may be
+ *  stored in strips or in tiles, uncompressed or compressed with PackBits,
+ *  in either byte order, with the samples of a pixel together or in
+ *  separate planes (PlanarConfiguration 2); extra samples after red, green and blue, such as
+ *  alpha, are skipped.  Only one strip, or one row of tiles, is decoded at a
+ *  time, so an image of any height is read with memory bounded by the strip
+ *  size.
+ *
+ *  readRunLengthEncoding() feeds the rows straight into the run encoder, so
+ *  the whole image never exists as pixels.
+ */
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class TiffReader implements Closeable {
+
+	private final SeekableByteChannel channel;
+	private ByteOrder order;
+	private int width, height, compression, samples;
+	// The number of planes stored separately:  1, or samples for
+	// PlanarConfiguration 2, and the number of strips or tiles per plane.
+	private int planes, chunksPerPlane;
+	// The height of a strip or of a tile, and the width of a tile; zero
+	// when the image is stored in strips.
+	private int bandHeight, tileWidth;
+	// The offset and byte count of every strip or tile.
+	private long [] offsets, byteCounts;
+	// The rows of the current strip or row of tiles, as packed RGB values,
+	// the first of them being row bandStart.
+	private int [] band;
+	private int bandStart, bandRows, nextRow;
+	private byte [] bytes;
+	private ByteBuffer in;
+
+
+  /**
+   * TiffReader() opens the specified TIFF file and reads its first image
+   * file directory.
+   *
+   * @param path the file to read.
+   * @throws IOException if the file cannot be read or is not a supported
+   * TIFF image.
+   */
+  public TiffReader(Path path) throws IOException {
+	  this(FileChannel.open(path, StandardOpenOption.READ));
+  }
+
+  /**
+   * TiffReader() reads the first image file directory of the TIFF image in
+   * the specified channel, which the reader closes when it is closed.
+   *
+   * @param channel the channel to read.
+   * @throws IOException if the channel cannot be read or does not hold a
+   * supported TIFF image.
+   */
+  public TiffReader(SeekableByteChannel channel) throws IOException {
+	  this.channel = channel;
+	  try {
+		  readDirectory();
+	  } catch(IOException | RuntimeException e) {
+		  channel.close();
+		  throw e;
+	  }
+  }
+
+  /**
+   * read() returns a buffer holding the specified number of bytes at the
+   * specified position of the file, in the byte order of the file.
+   */
+  private ByteBuffer read(long position, int length) throws IOException {
+	  ByteBuffer buffer = ByteBuffer.allocate(length);
+	  readFully(position, buffer);
+	  buffer.flip();
+	  return buffer.order(order == null ? ByteOrder.LITTLE_ENDIAN : order);
+  }
+
+  /**
+   * readFully() fills the remaining bytes of the buffer from the specified
+   * position of the file.
+   */
+  private void readFully(long position, ByteBuffer buffer) throws IOException {
+	  channel.position(position);
+	  while(buffer.hasRemaining())
+		  if(channel.read(buffer) < 0)
+			  throw new EOFException("TIFF file ends at " + channel.position());
+  }
+
+  /**
+   * readDirectory() reads the header and the first image file directory.
+   */
+  private void readDirectory() throws IOException {
+	  ByteBuffer header = read(0, 8);
+	  if(header.get(0) == 'I' && header.get(1) == 'I')
+		  order = ByteOrder.LITTLE_ENDIAN;
+	  else if(header.get(0) == 'M' && header.get(1) == 'M')
+		  order = ByteOrder.BIG_ENDIAN;
+	  else
+		  throw new IOException("Not a TIFF file");
+	  header.order(order);
+	  if(header.getShort(2) != 42)
+		  throw new IOException("Not a TIFF file");
+	  long directory = header.getInt(4) & 0xFFFFFFFFL;
+	  int entries = read(directory, 2).getShort() & 0xFFFF;
+	  ByteBuffer ifd = read(directory + 2, 12*entries);
+
+	  int photometric = -1;
+	  int planar = 1;
+	  long [] bits = null;
+	  compression = TiffWriter.NONE;
+	  samples = 1;
+	  for(int i=0; i<entries; i++){
+		  int tag = ifd.getShort() & 0xFFFF;
+		  int type = ifd.getShort() & 0xFFFF;
+		  int count = ifd.getInt();
+		  long [] values = values(type, count, ifd);
+		  if(values == null)
+			  continue;
+		  switch(tag){
+		  case TiffWriter.IMAGE_WIDTH: width = (int) values[0]; break;
+		  case TiffWriter.IMAGE_LENGTH: height = (int) values[0]; break;
+		  case TiffWriter.BITS_PER_SAMPLE: bits = values; break;
+		  case TiffWriter.COMPRESSION: compression = (int) values[0]; break;
+		  case TiffWriter.PHOTOMETRIC: photometric = (int) values[0]; break;
+		  case TiffWriter.SAMPLES_PER_PIXEL: samples = (int) values[0]; break;
+		  case TiffWriter.PLANAR_CONFIGURATION: planar = (int) values[0]; break;
+		  case TiffWriter.ROWS_PER_STRIP: bandHeight = (int) Math.min(values[0], Integer.MAX_VALUE); break;
+		  case TiffWriter.TILE_WIDTH: tileWidth = (int) values[0]; break;
+		  case TiffWriter.TILE_LENGTH: bandHeight = (int) values[0]; break;
+		  case TiffWriter.STRIP_OFFSETS: case TiffWriter.TILE_OFFSETS: offsets = values; break;
+		  case TiffWriter.STRIP_BYTE_COUNTS: case TiffWriter.TILE_BYTE_COUNTS: byteCounts = values; break;
+		  }
+	  }
+
+	  if(width <= 0 || height <= 0 || offsets == null)
+		  throw new IOException("TIFF directory lacks the size or the strips of the image");
+	  if(photometric != 2 || samples < 3)
+		  throw new IOException("Not an RGB TIFF image");
+	  if(bits == null || bits.length < 3 || bits[0] != 8 || bits[1] != 8 || bits[2] != 8)
+		  throw new IOException("Only 8 bits per sample are supported");
+	  if(compression != TiffWriter.NONE && compression != TiffWriter.PACKBITS)
+		  throw new IOException("Unsupported TIFF compression " + compression);
+	  if(planar != 1 && planar != 2)
+		  throw new IOException("Unsupported planar configuration " + planar);
+	  planes = planar == 2 ? samples : 1;
+	  if(bandHeight <= 0 || bandHeight > height)
+		  bandHeight = height;
+	  int across = tileWidth > 0 ? (width + tileWidth - 1)/tileWidth : 1;
+	  chunksPerPlane = (height + bandHeight - 1)/bandHeight*across;
+	  int chunks = chunksPerPlane*planes;
+	  if(offsets.length < chunks)
+		  throw new IOException("TIFF directory has " + offsets.length + " of " + chunks +
+				  " strips or tiles");
+	  if(byteCounts == null){
+		  if(compression != TiffWriter.NONE)
+			  throw new IOException("TIFF directory lacks the byte counts");
+		  byteCounts = new long[chunks];
+		  java.util.Arrays.fill(byteCounts, (long) chunkWidth()*bandHeight*samples/planes);
+	  }
+	  band = new int[bandHeight*width];
+	  bandStart = -1;
+  }
+
+  /**
+   * values() returns the values of a directory entry of the specified type
+   * and count, whose value field is the next four bytes of the directory,
+   * or null if the type is not an integer type.
+   */
+  private long[] values(int type, int count, ByteBuffer ifd) throws IOException {
+	  int size = type == 1 ? 1 : type == TiffWriter.SHORT ? 2 : type == TiffWriter.LONG ? 4 : 0;
+	  if(size == 0 || count <= 0){
+		  ifd.getInt();
+		  return null;
+	  }
+	  ByteBuffer data;
+	  if(size*count <= 4){
+		  data = ifd.slice().order(order);
+		  data.limit(4);
+	  }
+	  else
+		  data = read(ifd.getInt(ifd.position()) & 0xFFFFFFFFL, size*count);
+	  ifd.getInt();
+	  long [] values = new long[count];
+	  for(int i=0; i<count; i++)
+		  values[i] = size == 1 ? data.get() & 0xFF : size == 2 ? data.getShort() & 0xFFFF :
+			  data.getInt() & 0xFFFFFFFFL;
+	  return values;
+  }
+
+  /**
+   * chunkWidth() returns the width in pixels of a strip or tile.
+   */
+  private int chunkWidth() {
+	  return tileWidth > 0 ? tileWidth : width;
+  }
+
+  /**
+   * getWidth() returns the width of the image.
+   *
+   * @return the width of the image.
+   */
+  public int getWidth() {
+	  return width;
+  }
+
+  /**
+   * getHeight() returns the height of the image.
+   *
+   * @return the height of the image.
+   */
+  public int getHeight() {
+	  return height;
+  }
+
+  /**
+   * getCompression() returns the compression of the image, NONE or
+   * PACKBITS as defined by TiffWriter.
+   *
+   * @return the value of the Compression tag.
+   */
+  public int getCompression() {
+	  return compression;
+  }
+
+  /**
+   * isTiled() returns true if the image is stored in tiles.
+   *
+   * @return true if the image is stored in tiles, false for strips.
+   */
+  public boolean isTiled() {
+	  return tileWidth > 0;
+  }
+
+  /**
+   * hasNextRow() returns true if readRow() has rows left to read.
+   *
+   * @return true if not every row has been read.
+   */
+  public boolean hasNextRow() {
+	  return nextRow < height;
+  }
+
+  /**
+   * readRow() reads the next row of the image.
+   *
+   * @param pixels an array of at least width elements receiving the packed
+   * RGB values, as by RGB.pack(), of the row.
+   * @throws IOException if the strip or tiles holding the row cannot be
+   * read, or every row has been read.
+   */
+  public void readRow(int[] pixels) throws IOException {
+	  if(nextRow >= height)
+		  throw new EOFException("All " + height + " rows are already read");
+	  if(bandStart < 0 || nextRow >= bandStart + bandRows)
+		  readBand(nextRow / bandHeight);
+	  System.arraycopy(band, (nextRow - bandStart)*width, pixels, 0, width);
+	  nextRow++;
+  }
+
+  /**
+   * readBand() decodes the specified strip, or row of tiles, into band.
+   */
+  private void readBand(int index) throws IOException {
+	  bandStart = index*bandHeight;
+	  bandRows = Math.min(bandHeight, height - bandStart);
+	  if(tileWidth == 0)
+		  readChunk(index, 0, width, bandRows);
+	  else{
+		  int across = (width + tileWidth - 1)/tileWidth;
+		  for(int t=0; t<across; t++)
+			  readChunk(index*across + t, t*tileWidth, tileWidth, bandHeight);
+	  }
+  }
+
+  /**
+   * readChunk() decodes strip or tile "index", of "rows" rows of "columns"
+   * pixels, into band starting at column x; the rows and columns outside
+   * the image are dropped.  When the planes are stored separately, the
+   * strip or tile of each of red, green and blue is decoded in turn.
+   */
+  private void readChunk(int index, int x, int columns, int rows) throws IOException {
+	  int inside = Math.min(columns, width - x);
+	  if(planes > 1){
+		  for(int p=0; p<3; p++){
+			  decodeChunk(p*chunksPerPlane + index, columns*rows);
+			  int shift = 16 - 8*p;
+			  for(int r=0; r<bandRows; r++){
+				  int source = r*columns;
+				  int target = r*width + x;
+				  for(int i=0; i<inside; i++){
+					  int value = (bytes[source + i] & 0xFF) << shift;
+					  band[target + i] = p == 0 ? value : band[target + i] | value;
+				  }
+			  }
+		  }
+		  return;
+	  }
+	  decodeChunk(index, columns*rows*samples);
+	  for(int r=0; r<bandRows; r++){
+		  int source = r*columns*samples;
+		  int target = r*width + x;
+		  for(int i=0; i<inside; i++, source+=samples)
+			  band[target + i] = ((bytes[source] & 0xFF) << 16) |
+					  ((bytes[source + 1] & 0xFF) << 8) | (bytes[source + 2] & 0xFF);
+	  }
+  }
+
+  /**
+   * decodeChunk() reads strip or tile "index" and decodes its first
+   * "length" bytes into bytes.
+   */
+  private void decodeChunk(int index, int length) throws IOException {
+	  if(bytes == null || bytes.length < length)
+		  bytes = new byte[length];
+	  int count = (int) byteCounts[index];
+	  if(in == null || in.capacity() < count)
+		  in = ByteBuffer.allocate(count);
+	  in.clear().limit(count);
+	  readFully(offsets[index], in);
+	  in.flip();
+	  if(compression == TiffWriter.PACKBITS)
+		  PackBits.decode(in, bytes, 0, length);
+	  else if(count < length)
+		  throw new IOException("Strip or tile " + index + " holds " + count + " of " +
+				  length + " bytes");
+	  else
+		  in.get(bytes, 0, length);
+  }
+
+  /**
+   * close() closes the file.
+   *
+   * @throws IOException if the file cannot be closed.
+   */
+  public void close() throws IOException {
+	  channel.close();
+  }
+
+  /**
+   * readRunLengthEncoding() reads the specified TIFF file into a run-length
+   * encoding, encoding each row as soon as it is read.
+   *
+   * @param path the file to read.
+   * @return a new RunLengthEncoding of the image.
+   * @throws IOException if the file cannot be read or is not a supported
+   * TIFF image.
+   */
+  public static RunLengthEncoding readRunLengthEncoding(Path path) throws IOException {
+	  try(TiffReader reader = new TiffReader(path)) {
+		  int width = reader.getWidth();
+		  int [] row = new int[width];
+		  PackedRuns runs = new PackedRuns(reader.getHeight());
+		  while(reader.hasNextRow()){
+			  reader.readRow(row);
+			  RunEncoder.encode(row, 0, width, runs);
+		  }
+		  return new RunLengthEncoding(width, reader.getHeight(), runs);
+	  }
+  }
+
+  /**
+   * readPixImage() reads the specified TIFF file into a PixImage.
+   *
+   * @param path the file to read.
+   * @return a new PixImage holding the image.
+   * @throws IOException if the file cannot be read or is not a supported
+   * TIFF image.
+   */
+  public static PixImage readPixImage(Path path) throws IOException {
+	  try(TiffReader reader = new TiffReader(path)) {
+		  int width = reader.getWidth();
+		  PixImage image = new PixImage(width, reader.getHeight());
+		  int [] row = new int[width];
+		  for(int y=0; reader.hasNextRow(); y++){
+			  reader.readRow(row);
+			  for(int x=0; x<width; x++)
+				  image.setPacked(x, y, row[x]);
+		  }
+		  return image;
+	  }
+  }
+
+
+  /**
+   * TEST CODE:
+   */
+
+
+  /**
+   * doTest() checks whether the condition is true and prints the given error
+   * message if it is not.
+   *
+   * @param b the condition to check.
+   * @param msg the error message to print if the condition is false.
+   */
+  private static void doTest(boolean b, String msg) {
+    if (b) {
+      System.out.println("Good.");
+    } else {
+      System.err.println(msg);
+    }
+  }
+
+  /**
+   * main() writes an image in strips and tiles, with and without PackBits,
+   * and reads it back.
+   */
+  public static void main(String[] args) throws IOException {
+
+	  java.util.Random random = new java.util.Random(61);
+	  int width = 50;
+	  int height = 37;
+	  PixImage image = new PixImage(width, height);
+	  for(int x=0; x<width; x++)
+		  for(int y=0; y<height; y++)
+			  image.setPacked(x, y, (x/8 + y/5) % 3 == 0 ? random.nextInt(1 << 24) : 0x777777);
+	  RunLengthEncoding rle = new RunLengthEncoding(image);
+	  Path dir = java.nio.file.Files.createTempDirectory("tiff");
+
+	  System.out.println("Testing PackBits on bytes with runs.");
+	  byte [] raw = new byte[1000];
+	  for(int i=0; i<raw.length; i++)
+		  raw[i] = (byte) (i % 300 < 200 ? 7 : random.nextInt(4));
+	  ByteBuffer packed = ByteBuffer.allocate(PackBits.maxEncodedLength(raw.length));
+	  PackBits.encode(raw, 0, raw.length, packed);
+	  packed.flip();
+	  int packedLength = packed.remaining();
+	  byte [] unpacked = new byte[raw.length];
+	  PackBits.decode(packed, unpacked, 0, raw.length);
+	  doTest(java.util.Arrays.equals(raw, unpacked) && packedLength < raw.length/2,
+			  "PackBits does not reproduce its input.");
+
+	  System.out.println("Testing uncompressed strips.");
+	  Path plain = dir.resolve("plain.tif");
+	  TiffWriter.write(image, plain, TiffWriter.NONE, 8);
+	  doTest(readPixImage(plain).equals(image) &&
+			  java.nio.file.Files.size(plain) > 3L*width*height,
+			  "Uncompressed strips do not read back.");
+
+	  System.out.println("Testing PackBits strips written from runs.");
+	  Path strips = dir.resolve("strips.tif");
+	  TiffWriter.write(rle, strips, TiffWriter.PACKBITS, 5);
+	  RunLengthEncoding read = readRunLengthEncoding(strips);
+	  read.check();
+	  doTest(read.toPixImage().equals(image) && read.runCount() == rle.runCount() &&
+			  java.nio.file.Files.size(strips) < java.nio.file.Files.size(plain),
+			  "PackBits strips do not read back.");
+
+	  System.out.println("Testing PackBits tiles.");
+	  Path tiles = dir.resolve("tiles.tif");
+	  try(TiffWriter writer = TiffWriter.tiled(tiles, width, height, TiffWriter.PACKBITS, 16, 32)) {
+		  int [] row = new int[width];
+		  for(int y=0; y<height; y++){
+			  for(int x=0; x<width; x++)
+				  row[x] = image.getPacked(x, y);
+			  writer.writeRow(row);
+		  }
+	  }
+	  try(TiffReader reader = new TiffReader(tiles)) {
+		  doTest(reader.isTiled() && reader.getCompression() == TiffWriter.PACKBITS &&
+				  readPixImage(tiles).equals(image),
+				  "PackBits tiles do not read back.");
+	  }
+
+	  for(Path p : new Path[] { plain, strips, tiles })
+		  java.nio.file.Files.delete(p);
+	  java.nio.file.Files.delete(dir);
+  }
+}
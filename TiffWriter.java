@@ -0,0 +1,410 @@
+/* TiffWriter.java */
+
+/**
+ *  The TiffWriter class writes a baseline RGB TIFF file, 8 bits per sample,
+ *  one row at a time through a FileChannel.  The pixels are stored in strips
+ *  of rowsPerStrip rows or in tiles, uncompressed or compressed with
+ *  PackBits.  Only the rows of the strip or the row of tiles being written
+ *  are held in memory; each strip or tile is written as soon as its rows are
+ *  complete, and the image file directory is written after the last one, so
+ *  an image of any height is written with memory bounded by the strip size.
+ *
+ *  write() streams a RunLengthEncoding row by row from its runs, without
+ *  decoding the whole image.
+ *
+ *  A writer made by planar() instead stores red, green and blue in separate
+ *  planes (PlanarConfiguration 2) and takes strips already compressed with
+ *  PackBits, as made by PackBitsExporter.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class TiffWriter implements Closeable {
+
+	// The values of the Compression tag.
+	public static final int NONE = 1, PACKBITS = 32773;
+
+	// The TIFF tags written.
+	static final int IMAGE_WIDTH = 256, IMAGE_LENGTH = 257, BITS_PER_SAMPLE = 258,
+			COMPRESSION = 259, PHOTOMETRIC = 262, STRIP_OFFSETS = 273,
+			SAMPLES_PER_PIXEL = 277, ROWS_PER_STRIP = 278, STRIP_BYTE_COUNTS = 279,
+			X_RESOLUTION = 282, Y_RESOLUTION = 283, PLANAR_CONFIGURATION = 284,
+			RESOLUTION_UNIT = 296, TILE_WIDTH = 322, TILE_LENGTH = 323,
+			TILE_OFFSETS = 324, TILE_BYTE_COUNTS = 325;
+	// The TIFF field types written.
+	static final int SHORT = 3, LONG = 4, RATIONAL = 5;
+
+	private final FileChannel channel;
+	private final int width, height, compression;
+	// The height of a strip or of a tile, and the width of a tile; zero
+	// when the image is stored in strips.
+	private final int bandHeight, tileWidth;
+	// True if red, green and blue are stored in separate planes.
+	private final boolean planar;
+	// The offset and byte count of every strip or tile, and the number of
+	// them written.
+	private final long [] offsets, byteCounts;
+	private int chunks;
+	// The rows of the current strip or row of tiles, as packed RGB values.
+	private final int [] band;
+	private int rowsInBand, rowsWritten;
+	private long position;
+	private ByteBuffer out;
+	private byte [] bytes;
+
+
+  /**
+   * TiffWriter() opens the specified file and prepares to write an image of
+   * the specified size in strips of the specified number of rows.
+   *
+   * @param path the file to write.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param compression NONE or PACKBITS.
+   * @param rowsPerStrip the number of rows per strip.
+   * @throws IOException if the file cannot be opened.
+   */
+  public TiffWriter(Path path, int width, int height, int compression, int rowsPerStrip)
+		  throws IOException {
+	  this(path, width, height, compression, 0, Math.max(1, Math.min(height, rowsPerStrip)),
+			  false);
+  }
+
+  /**
+   * TiffWriter() opens the specified file and prepares to write an image of
+   * the specified size in strips or, if tileWidth is positive, in tiles of
+   * tileWidth x bandHeight pixels, with the samples of a pixel together
+   * or, if planar is true, in separate planes.
+   */
+  private TiffWriter(Path path, int width, int height, int compression, int tileWidth,
+		  int bandHeight, boolean planar) throws IOException {
+	  if(compression != NONE && compression != PACKBITS)
+		  throw new IllegalArgumentException("Unsupported compression " + compression);
+	  this.width = width;
+	  this.height = height;
+	  this.compression = compression;
+	  this.tileWidth = tileWidth;
+	  this.bandHeight = bandHeight;
+	  this.planar = planar;
+	  int bands = (height + bandHeight - 1)/bandHeight;
+	  int across = tileWidth > 0 ? (width + tileWidth - 1)/tileWidth : 1;
+	  offsets = new long[bands*across*(planar ? 3 : 1)];
+	  byteCounts = new long[offsets.length];
+	  band = planar ? null : new int[bandHeight*width];
+	  channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			  StandardOpenOption.TRUNCATE_EXISTING);
+	  // The header; the offset of the directory is filled in by close().
+	  position = 8;
+  }
+
+  /**
+   * tiled() opens the specified file and prepares to write an image of the
+   * specified size in tiles of the specified size.  TIFF requires both
+   * sides of a tile to be multiples of 16.
+   *
+   * @param path the file to write.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param compression NONE or PACKBITS.
+   * @param tileWidth the width of a tile.
+   * @param tileLength the height of a tile.
+   * @return a new TiffWriter.
+   * @throws IOException if the file cannot be opened.
+   */
+  public static TiffWriter tiled(Path path, int width, int height, int compression,
+		  int tileWidth, int tileLength) throws IOException {
+	  if(tileWidth <= 0 || tileLength <= 0 || tileWidth % 16 != 0 || tileLength % 16 != 0)
+		  throw new IllegalArgumentException("Tile of " + tileWidth + "x" + tileLength +
+				  " is not a multiple of 16");
+	  return new TiffWriter(path, width, height, compression, tileWidth, tileLength, false);
+  }
+
+  /**
+   * planar() opens the specified file and prepares to write an image of the
+   * specified size as three planes of PackBits strips of the specified
+   * number of rows, taken by writeStrip().
+   *
+   * @param path the file to write.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param rowsPerStrip the number of rows per strip.
+   * @return a new TiffWriter.
+   * @throws IOException if the file cannot be opened.
+   */
+  static TiffWriter planar(Path path, int width, int height, int rowsPerStrip)
+		  throws IOException {
+	  return new TiffWriter(path, width, height, PACKBITS, 0,
+			  Math.max(1, Math.min(height, rowsPerStrip)), true);
+  }
+
+  /**
+   * getRowsPerStrip() returns the number of rows of a strip, or of a tile.
+   *
+   * @return the number of rows of a strip.
+   */
+  int getRowsPerStrip() {
+	  return bandHeight;
+  }
+
+  /**
+   * writeStrip() writes the remaining bytes of the specified buffer as the
+   * specified strip of the specified plane of a planar image.  The bytes
+   * must be the PackBits packets of the rows of the strip.
+   *
+   * @param plane 0 for red, 1 for green, 2 for blue.
+   * @param strip the index of the strip in its plane.
+   * @param packed the compressed strip.
+   * @throws IOException if the strip cannot be written.
+   */
+  void writeStrip(int plane, int strip, ByteBuffer packed) throws IOException {
+	  if(!planar)
+		  throw new IllegalStateException("Strips are only written whole to planar images");
+	  int index = plane*(offsets.length/3) + strip;
+	  offsets[index] = position;
+	  byteCounts[index] = packed.remaining();
+	  chunks++;
+	  position += writeFully(packed, position);
+  }
+
+  /**
+   * writeRow() writes the next row of the image.
+   *
+   * @param pixels the packed RGB values, as by RGB.pack(), of the row; only
+   * the first width elements are read.
+   * @throws IOException if the strip or tiles cannot be written.
+   */
+  public void writeRow(int[] pixels) throws IOException {
+	  if(planar)
+		  throw new IllegalStateException("Rows are not written to planar images");
+	  if(rowsWritten + rowsInBand >= height)
+		  throw new IOException("All " + height + " rows are already written");
+	  System.arraycopy(pixels, 0, band, rowsInBand*width, width);
+	  rowsInBand++;
+	  if(rowsInBand == bandHeight || rowsWritten + rowsInBand == height)
+		  flushBand();
+  }
+
+  /**
+   * flushBand() writes the rows held as a strip or as a row of tiles.
+   */
+  private void flushBand() throws IOException {
+	  if(tileWidth == 0)
+		  writeChunk(0, width, rowsInBand, rowsInBand);
+	  else
+		  for(int x=0; x<width; x+=tileWidth)
+			  writeChunk(x, tileWidth, bandHeight, rowsInBand);
+	  rowsWritten += rowsInBand;
+	  rowsInBand = 0;
+  }
+
+  /**
+   * writeChunk() writes one strip or tile:  "rows" rows of "columns"
+   * pixels starting at column x of the band, of which only the first
+   * "filled" rows and the columns inside the image hold pixels; the rest
+   * of a tile is padded with black.
+   */
+  private void writeChunk(int x, int columns, int rows, int filled) throws IOException {
+	  int rowBytes = 3*columns;
+	  if(bytes == null || bytes.length < rowBytes)
+		  bytes = new byte[rowBytes];
+	  int capacity = rows*PackBits.maxEncodedLength(rowBytes);
+	  if(out == null || out.capacity() < capacity)
+		  out = ByteBuffer.allocate(capacity);
+	  out.clear();
+	  int inside = Math.min(columns, width - x);
+	  for(int r=0; r<rows; r++){
+		  java.util.Arrays.fill(bytes, 0, rowBytes, (byte) 0);
+		  if(r < filled){
+			  int start = r*width + x;
+			  for(int i=0; i<inside; i++){
+				  int p = band[start + i];
+				  bytes[3*i] = (byte) (p >> 16);
+				  bytes[3*i + 1] = (byte) (p >> 8);
+				  bytes[3*i + 2] = (byte) p;
+			  }
+		  }
+		  if(compression == PACKBITS)
+			  PackBits.encode(bytes, 0, rowBytes, out);
+		  else
+			  out.put(bytes, 0, rowBytes);
+	  }
+	  out.flip();
+	  offsets[chunks] = position;
+	  byteCounts[chunks] = out.remaining();
+	  chunks++;
+	  position += writeFully(out, position);
+  }
+
+  /**
+   * writeFully() writes the remaining bytes of the buffer at the specified
+   * position of the file and returns their number.
+   */
+  private int writeFully(ByteBuffer buffer, long at) throws IOException {
+	  int n = buffer.remaining();
+	  while(buffer.hasRemaining())
+		  at += channel.write(buffer, at);
+	  return n;
+  }
+
+  /**
+   * close() writes the image file directory and the header, and closes the
+   * file.  If not every row, or every strip, was written, the file is
+   * closed without a directory and an IOException is thrown.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  public void close() throws IOException {
+	  try {
+		  if(chunks != offsets.length)
+			  throw new IOException("Only " + chunks + " of " + offsets.length +
+					  " strips or tiles written");
+		  if(position + 1024 + 8L*chunks > 0xFFFFFFFFL)
+			  throw new IOException("Image too large for a TIFF file");
+		  writeDirectory();
+	  } finally {
+		  channel.close();
+	  }
+  }
+
+  /**
+   * writeDirectory() writes the arrays the directory refers to, then the
+   * directory itself, then the header pointing at it.
+   */
+  private void writeDirectory() throws IOException {
+	  // TIFF offsets are word aligned.
+	  if((position & 1) != 0)
+		  position++;
+	  ByteBuffer extra = ByteBuffer.allocate(16 + 8*chunks).order(ByteOrder.LITTLE_ENDIAN);
+	  long base = position;
+	  long bitsAt = base;
+	  extra.putShort((short) 8).putShort((short) 8).putShort((short) 8).putShort((short) 0);
+	  long resolutionAt = base + extra.position();
+	  extra.putInt(72).putInt(1);
+	  long offsetsAt = base + extra.position();
+	  for(int i=0; i<chunks; i++)
+		  extra.putInt((int) offsets[i]);
+	  long countsAt = base + extra.position();
+	  for(int i=0; i<chunks; i++)
+		  extra.putInt((int) byteCounts[i]);
+	  extra.flip();
+	  position += writeFully(extra, position);
+
+	  boolean tiled = tileWidth > 0;
+	  int entries = tiled ? 14 : 13;
+	  ByteBuffer ifd = ByteBuffer.allocate(2 + entries*12 + 4).order(ByteOrder.LITTLE_ENDIAN);
+	  ifd.putShort((short) entries);
+	  entry(ifd, IMAGE_WIDTH, LONG, 1, width);
+	  entry(ifd, IMAGE_LENGTH, LONG, 1, height);
+	  entry(ifd, BITS_PER_SAMPLE, SHORT, 3, bitsAt);
+	  entry(ifd, COMPRESSION, SHORT, 1, compression);
+	  entry(ifd, PHOTOMETRIC, SHORT, 1, 2);
+	  if(!tiled)
+		  entry(ifd, STRIP_OFFSETS, LONG, chunks, chunks == 1 ? offsets[0] : offsetsAt);
+	  entry(ifd, SAMPLES_PER_PIXEL, SHORT, 1, 3);
+	  if(!tiled){
+		  entry(ifd, ROWS_PER_STRIP, LONG, 1, bandHeight);
+		  entry(ifd, STRIP_BYTE_COUNTS, LONG, chunks, chunks == 1 ? byteCounts[0] : countsAt);
+	  }
+	  entry(ifd, X_RESOLUTION, RATIONAL, 1, resolutionAt);
+	  entry(ifd, Y_RESOLUTION, RATIONAL, 1, resolutionAt);
+	  entry(ifd, PLANAR_CONFIGURATION, SHORT, 1, planar ? 2 : 1);
+	  entry(ifd, RESOLUTION_UNIT, SHORT, 1, 2);
+	  if(tiled){
+		  entry(ifd, TILE_WIDTH, LONG, 1, tileWidth);
+		  entry(ifd, TILE_LENGTH, LONG, 1, bandHeight);
+		  entry(ifd, TILE_OFFSETS, LONG, chunks, chunks == 1 ? offsets[0] : offsetsAt);
+		  entry(ifd, TILE_BYTE_COUNTS, LONG, chunks, chunks == 1 ? byteCounts[0] : countsAt);
+	  }
+	  ifd.putInt(0);
+	  ifd.flip();
+	  long directory = position;
+	  position += writeFully(ifd, position);
+
+	  ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+	  header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt((int) directory);
+	  header.flip();
+	  writeFully(header, 0);
+  }
+
+  /**
+   * entry() appends a directory entry; a SHORT value is stored in the
+   * first two bytes of the value field.
+   */
+  private static void entry(ByteBuffer ifd, int tag, int type, int count, long value) {
+	  ifd.putShort((short) tag).putShort((short) type).putInt(count);
+	  if(type == SHORT && count == 1)
+		  ifd.putShort((short) value).putShort((short) 0);
+	  else
+		  ifd.putInt((int) value);
+  }
+
+  /**
+   * write() writes the specified run-length encoding to the specified file
+   * in strips of the specified number of rows, filling each row from the
+   * runs as it is written.
+   *
+   * @param rle the run-length encoding to write.
+   * @param path the file to write.
+   * @param compression NONE or PACKBITS.
+   * @param rowsPerStrip the number of rows per strip.
+   * @throws IOException if the file cannot be written.
+   */
+  public static void write(RunLengthEncoding rle, Path path, int compression, int rowsPerStrip)
+		  throws IOException {
+	  int width = rle.getWidth();
+	  try(TiffWriter writer = new TiffWriter(path, width, rle.getHeight(), compression,
+			  rowsPerStrip)) {
+		  int [] row = new int[width];
+		  int filled = 0;
+		  RunIterator it = rle.iterator();
+		  int [] run = it.current();
+		  while(true){
+			  int color = (run[1] << 16) | (run[2] << 8) | run[3];
+			  int length = run[0];
+			  while(length > 0){
+				  int n = Math.min(length, width - filled);
+				  java.util.Arrays.fill(row, filled, filled + n, color);
+				  filled += n;
+				  length -= n;
+				  if(filled == width){
+					  writer.writeRow(row);
+					  filled = 0;
+				  }
+			  }
+			  if(!it.hasNext())
+				  break;
+			  run = it.next();
+		  }
+	  }
+  }
+
+  /**
+   * write() writes the specified PixImage to the specified file in strips
+   * of the specified number of rows.
+   *
+   * @param image the image to write.
+   * @param path the file to write.
+   * @param compression NONE or PACKBITS.
+   * @param rowsPerStrip the number of rows per strip.
+   * @throws IOException if the file cannot be written.
+   */
+  public static void write(PixImage image, Path path, int compression, int rowsPerStrip)
+		  throws IOException {
+	  int width = image.getWidth();
+	  try(TiffWriter writer = new TiffWriter(path, width, image.getHeight(), compression,
+			  rowsPerStrip)) {
+		  int [] row = new int[width];
+		  for(int y=0; y<image.getHeight(); y++){
+			  for(int x=0; x<width; x++)
+				  row[x] = image.getPacked(x, y);
+			  writer.writeRow(row);
+		  }
+	  }
+  }
+}